@@ -17,17 +17,72 @@
 
 package soam.algorithms;
 
+import java.awt.EventQueue;
 import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.management.JMException;
 
-
+/**
+ * Runs an algorithm on its own thread.
+ * <p>
+ * Observers are never called by the training thread: every UPDATE_RATE ticks
+ * it just publishes an immutable ExecutorSnapshot. A separate publisher thread
+ * hands the latest snapshot to each observer at most MAX_FRAME_RATE times per
+ * second, on the thread the observer was registered with (the event dispatch
+ * thread for Swing components). While an observer is still busy with a
+ * snapshot, newer ones are coalesced into the latest, so the cost of the
+ * observers does not slow down training.
+ * <p>
+ * Besides the endless loop of start(), runTicks(), runFor() and
+ * runUntilConvergent() run the algorithm within a budget, and return a future
+ * of the statistics of the run.
+ * <p>
+ * For headless runs, registerMBean() exposes the executor to JMX clients.
+ */
 public class Executor extends Observable implements Runnable {
 
+    /**
+     * Delivers snapshots on the Swing event dispatch thread
+     */
+    public static final java.util.concurrent.Executor EVENT_DISPATCH_THREAD =
+            new java.util.concurrent.Executor() {
+                public void execute(Runnable command) {
+                    EventQueue.invokeLater(command);
+                }
+            };
+
+    /**
+     * Delivers snapshots on the publisher thread itself
+     */
+    public static final java.util.concurrent.Executor PUBLISHER_THREAD =
+            new java.util.concurrent.Executor() {
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            };
+
+    /**
+     * Ticks between checks in bounded runs
+     */
+    protected static final int CHECK_INTERVAL = 64;
+
     /**
      * Refresh rate
      */
     protected long UPDATE_RATE = 2000;
 
+    /**
+     * Maximum number of snapshots delivered to each observer per second
+     */
+    protected double MAX_FRAME_RATE = 25d;
+
     /**
      * Thread sleep
      */
@@ -36,17 +91,23 @@ public class Executor extends Observable implements Runnable {
     /**
      * Auto pause
      */
-    protected boolean AUTO_PAUSE = false;
+    protected volatile boolean AUTO_PAUSE = false;
+
+    /**
+     * Set when the training thread paused itself at convergence, until the
+     * algorithm is no longer convergent
+     */
+    protected volatile boolean autoPaused = false;
 
     /**
      * flag stopping thread
      */
-    protected boolean run = true;
+    protected volatile boolean run = true;
 
     /**
      * flag pausing thread
      */
-    protected boolean pause = false;
+    protected volatile boolean pause = false;
 
     /**
      * Algorithm controller
@@ -55,6 +116,26 @@ public class Executor extends Observable implements Runnable {
 
     protected Thread thread;
 
+    protected Thread publisher;
+
+    /**
+     * The bounded run in progress or last run, null for start()
+     */
+    protected Future<RunStatistics> budget;
+
+    /**
+     * The latest published state, null until the first one
+     */
+    protected volatile ExecutorSnapshot snapshot;
+
+    protected final CopyOnWriteArrayList<Delivery> deliveries =
+            new CopyOnWriteArrayList<Delivery>();
+
+    /**
+     * Sampled on each publication, null unless registered
+     */
+    protected volatile ExecutorMonitor monitor;
+
     /**
      * The constructor
      * 
@@ -74,6 +155,21 @@ public class Executor extends Observable implements Runnable {
 
             algorithm.iteration();
 
+            // Pause right at convergence, so that the mesh is the converged one
+            if (AUTO_PAUSE) {
+                if (!algorithm.isConvergent()) {
+                    autoPaused = false;
+                } else if (!autoPaused) {
+                    autoPaused = true;
+                    pause();
+                }
+            }
+
+            // Let observers see where it stopped
+            if (pause) {
+                publish();
+            }
+
             // Pauses and resumes thread
             while (pause) {
                 synchronized (this) {
@@ -86,8 +182,7 @@ public class Executor extends Observable implements Runnable {
             }
 
             if (algorithm.getTick() % UPDATE_RATE == 0) {
-                setChanged();
-                notifyObservers();
+                publish();
 
                 // Thread sleep
                 if (UPDATE_PAUSE_MSEC > 0) {
@@ -99,6 +194,128 @@ public class Executor extends Observable implements Runnable {
                 }
             }
         }
+
+        publish();
+    }
+
+    /**
+     * Replaces the latest snapshot with the current state of the algorithm.
+     * Called by the training thread, does not wait for any observer.
+     */
+    protected void publish() {
+        snapshot =
+                new ExecutorSnapshot(algorithm.getTick(), algorithm.mesh()
+                        .vertexlist.size(), algorithm.mesh().edgelist.size(),
+                        algorithm.isConvergent(), run && !pause, System
+                                .nanoTime());
+
+        ExecutorMonitor monitor = this.monitor;
+        if (monitor != null) {
+            monitor.sample();
+        }
+    }
+
+    /**
+     * Gets the latest published state
+     * 
+     * @return the snapshot, or null if nothing was published yet
+     */
+    public ExecutorSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Offers the latest snapshot to all observers that do not have it yet
+     */
+    protected void deliver() {
+        ExecutorSnapshot latest = snapshot;
+        if (latest == null) {
+            return;
+        }
+
+        for (Delivery delivery : deliveries) {
+            delivery.offer(latest);
+        }
+    }
+
+    /**
+     * Registers an observer, to be updated on the publisher thread
+     */
+    @Override
+    public void addObserver(Observer observer) {
+        addObserver(observer, PUBLISHER_THREAD);
+    }
+
+    /**
+     * Registers an observer, to be updated on a given thread
+     * 
+     * @param observer
+     * @param target
+     *            runs the updates, such as EVENT_DISPATCH_THREAD
+     */
+    public synchronized void addObserver(Observer observer,
+            java.util.concurrent.Executor target) {
+        if (observer == null || target == null) {
+            throw new NullPointerException();
+        }
+
+        for (Delivery delivery : deliveries) {
+            if (delivery.observer == observer) {
+                return;
+            }
+        }
+
+        deliveries.add(new Delivery(observer, target));
+    }
+
+    @Override
+    public synchronized void deleteObserver(Observer observer) {
+        for (Delivery delivery : deliveries) {
+            if (delivery.observer == observer) {
+                deliveries.remove(delivery);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void deleteObservers() {
+        deliveries.clear();
+    }
+
+    @Override
+    public synchronized int countObservers() {
+        return deliveries.size();
+    }
+
+    /**
+     * Registers an ExecutorMonitor with the platform MBean server, so that
+     * JConsole and other JMX clients can follow and control the training
+     * 
+     * @return the monitor; registering again returns the same one
+     * @throws JMException
+     *             if the registration fails
+     */
+    public synchronized ExecutorMonitor registerMBean() throws JMException {
+        if (monitor == null) {
+            ExecutorMonitor created = new ExecutorMonitor(this);
+            created.register();
+
+            monitor = created;
+        }
+
+        return monitor;
+    }
+
+    /**
+     * Unregisters the ExecutorMonitor, if any
+     * 
+     * @throws JMException
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (monitor != null) {
+            monitor.unregister();
+            monitor = null;
+        }
     }
 
     /**
@@ -107,9 +324,18 @@ public class Executor extends Observable implements Runnable {
      */
     public synchronized void start() {
         run = true;
+        budget = null;
 
         thread = new Thread(this);
         thread.start();
+
+        startPublisher();
+    }
+
+    protected void startPublisher() {
+        publisher = new Thread(new Publisher(thread), "Executor publisher");
+        publisher.setDaemon(true);
+        publisher.start();
     }
 
     /**
@@ -141,6 +367,218 @@ public class Executor extends Observable implements Runnable {
         resume();
     }
 
+    /**
+     * Runs the algorithm for a number of ticks, on a new thread
+     * 
+     * @param ticks
+     * @return the statistics of the run, once it is over; cancelling the
+     *         future interrupts the run
+     */
+    public Future<RunStatistics> runTicks(long ticks) {
+        return submit(ticks, Long.MAX_VALUE, false);
+    }
+
+    /**
+     * Runs the algorithm for some time, on a new thread. The time is checked
+     * every CHECK_INTERVAL ticks.
+     * 
+     * @param duration
+     * @param unit
+     * @return the statistics of the run, once it is over; cancelling the
+     *         future interrupts the run
+     */
+    public Future<RunStatistics> runFor(long duration,
+            TimeUnit unit) {
+        return submit(Long.MAX_VALUE, unit.toNanos(duration), false);
+    }
+
+    /**
+     * Runs the algorithm until it is convergent, on a new thread
+     * 
+     * @param maxTicks
+     *            the number of ticks after which to give up
+     * @return the statistics of the run, once it is over; cancelling the
+     *         future interrupts the run
+     */
+    public Future<RunStatistics> runUntilConvergent(long maxTicks) {
+        return submit(maxTicks, Long.MAX_VALUE, true);
+    }
+
+    /**
+     * Starts a bounded run. Not synchronized as a whole: a cancelled run is
+     * joined without holding the monitor, which its thread may need to leave
+     * waitWhilePaused().
+     */
+    protected Future<RunStatistics> submit(final long maxTicks,
+            final long maxNanos, final boolean untilConvergent) {
+        Thread cancelled = null;
+        synchronized (this) {
+            if (budget != null && budget.isCancelled()) {
+                cancelled = thread;
+            }
+        }
+
+        if (cancelled != null) {
+            // A cancelled run only ends after its current block of ticks
+            try {
+                cancelled.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            return startBudget(maxTicks, maxNanos, untilConvergent);
+        }
+    }
+
+    protected Future<RunStatistics> startBudget(final long maxTicks,
+            final long maxNanos, final boolean untilConvergent) {
+        if (isBusy()) {
+            throw new IllegalStateException("Executor is already running");
+        }
+
+        FutureTask<RunStatistics> task =
+                new FutureTask<RunStatistics>(new Callable<RunStatistics>() {
+                    public RunStatistics call() {
+                        return runBudget(maxTicks, maxNanos, untilConvergent);
+                    }
+                });
+
+        run = true;
+        budget = task;
+
+        thread = new Thread(task);
+        thread.start();
+
+        startPublisher();
+
+        return task;
+    }
+
+    /**
+     * Tells if a run is still going on. A bounded run is over as soon as its
+     * future is done, even if its thread has not ended yet, unless it was
+     * cancelled.
+     */
+    protected boolean isBusy() {
+        if (budget != null && !budget.isCancelled()) {
+            return !budget.isDone();
+        }
+
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Runs the algorithm within a budget. Ticks are run in blocks of
+     * CHECK_INTERVAL, with no synchronization in between: pausing,
+     * stopping, interruption and elapsed time are only checked after each
+     * block.
+     * 
+     * @param maxTicks
+     * @param maxNanos
+     * @param untilConvergent
+     *            if true, the run ends as soon as the algorithm is convergent
+     * @return the statistics of the run
+     */
+    protected RunStatistics runBudget(long maxTicks, long maxNanos,
+            boolean untilConvergent) {
+        long startTick = algorithm.getTick();
+        long start = System.nanoTime();
+        long paused = 0;
+
+        long done = 0;
+        long nextPublication = UPDATE_RATE;
+        RunStatistics.Outcome outcome = null;
+
+        try {
+            if (untilConvergent && algorithm.isConvergent()) {
+                outcome = RunStatistics.Outcome.CONVERGENT;
+            }
+
+            while (outcome == null) {
+                long block = Math.min(CHECK_INTERVAL, maxTicks - done);
+
+                if (untilConvergent) {
+                    for (long i = 0; i < block; i++) {
+                        algorithm.iteration();
+                        done++;
+
+                        if (algorithm.isConvergent()) {
+                            outcome = RunStatistics.Outcome.CONVERGENT;
+                            break;
+                        }
+                    }
+                } else {
+                    for (long i = 0; i < block; i++) {
+                        algorithm.iteration();
+                    }
+                    done += block;
+                }
+
+                if (outcome != null) {
+                    break;
+                } else if (done >= maxTicks) {
+                    outcome = RunStatistics.Outcome.TICKS_DONE;
+                } else if (System.nanoTime() - start - paused >= maxNanos) {
+                    outcome = RunStatistics.Outcome.TIME_ELAPSED;
+                } else if (!run || Thread.currentThread().isInterrupted()) {
+                    outcome = RunStatistics.Outcome.STOPPED;
+                } else if (pause) {
+                    long pausedAt = System.nanoTime();
+
+                    publish();
+                    if (!waitWhilePaused()) {
+                        outcome = RunStatistics.Outcome.STOPPED;
+                    }
+
+                    paused += System.nanoTime() - pausedAt;
+                } else if (done >= nextPublication) {
+                    publish();
+                    nextPublication = done + UPDATE_RATE;
+                }
+            }
+        } finally {
+            // Also when the algorithm throws, which fails the future
+            run = false;
+            publish();
+        }
+
+        long elapsed = System.nanoTime() - start - paused;
+
+        return new RunStatistics(outcome, startTick, done, elapsed);
+    }
+
+    /**
+     * Waits until resumed
+     * 
+     * @return false if interrupted
+     */
+    protected boolean waitWhilePaused() {
+        while (pause) {
+            synchronized (this) {
+                try {
+                    if (pause) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+
+    public double getMAX_FRAME_RATE() {
+        return MAX_FRAME_RATE;
+    }
+
+    public void setMAX_FRAME_RATE(double max_frame_rate) {
+        MAX_FRAME_RATE = max_frame_rate;
+    }
 
     public long getUPDATE_PAUSE_MSEC() {
         return UPDATE_PAUSE_MSEC;
@@ -170,6 +608,17 @@ public class Executor extends Observable implements Runnable {
         }
     }
     
+    public boolean isPaused() {
+        return pause;
+    }
+
+    /**
+     * Tells if the executor has paused itself at convergence, see AUTO_PAUSE
+     */
+    public boolean isAutoPaused() {
+        return autoPaused;
+    }
+
     public boolean isAUTO_PAUSE() {
         return AUTO_PAUSE;
     }
@@ -178,4 +627,71 @@ public class Executor extends Observable implements Runnable {
         AUTO_PAUSE = auto_pause;
     }
 
-}
\ No newline at end of file
+    /**
+     * Offers the latest snapshot to the observers at the maximum frame rate,
+     * until the training thread is over
+     */
+    protected class Publisher implements Runnable {
+        protected final Thread training;
+
+        protected Publisher(Thread training) {
+            this.training = training;
+        }
+
+        public void run() {
+            while (true) {
+                // The final snapshot is published before the thread ends
+                boolean last = !training.isAlive();
+
+                deliver();
+
+                if (last) {
+                    return;
+                }
+
+                double rate = MAX_FRAME_RATE;
+                try {
+                    Thread.sleep(rate > 0d ? Math.max((long) (1000d / rate),
+                            1l) : 1000l);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * An observer and the thread that updates it. At most one update is
+     * pending at any time, and it carries the latest snapshot when it runs.
+     */
+    protected class Delivery implements Runnable {
+        protected final Observer observer;
+        protected final java.util.concurrent.Executor target;
+
+        protected final AtomicBoolean pending = new AtomicBoolean();
+        protected volatile ExecutorSnapshot delivered;
+
+        protected Delivery(Observer observer,
+                java.util.concurrent.Executor target) {
+            this.observer = observer;
+            this.target = target;
+        }
+
+        protected void offer(ExecutorSnapshot latest) {
+            if (latest != delivered && pending.compareAndSet(false, true)) {
+                target.execute(this);
+            }
+        }
+
+        public void run() {
+            ExecutorSnapshot latest = snapshot;
+            delivered = latest;
+
+            try {
+                observer.update(Executor.this, latest);
+            } finally {
+                pending.set(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,491 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.algorithms;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A JMX MBean that monitors and controls an Executor, or a run of an
+ * ExecutorPool, so that headless runs can be followed with JConsole or any
+ * other JMX client.
+ * <p>
+ * The algorithm is sampled on its training thread, each time the executor
+ * publishes its state or the pool ends a slice of the run, so that the counts
+ * are never caught half way through an iteration. Throughput and allocation
+ * rate are measured over the samples of the last WINDOW_MSEC; the allocation
+ * of a pool run is summed over the carriers that ran its slices.
+ * <p>
+ * Executors of the Swing consoles and runs submitted to a pool are registered
+ * by themselves when the JMX_PROPERTY system property is true, e.g. with
+ * -Dsoam.jmx=true. Pool runs are unregistered as soon as they are retired.
+ * 
+ * @see Executor#registerMBean()
+ * @see ExecutorPool.Run#registerMBean()
+ */
+public class ExecutorMonitor implements ExecutorMonitorMBean {
+
+    /**
+     * The system property that enables the registration of all executors and
+     * pool runs
+     */
+    public static final String JMX_PROPERTY = "soam.jmx";
+
+    protected static final AtomicInteger instances = new AtomicInteger();
+
+    // Samples kept for the rates, at most
+    protected static final int MAX_SAMPLES = 1024;
+
+    protected long WINDOW_MSEC = 10000;
+
+    // Either one is null
+    protected final Executor executor;
+    protected final ExecutorPool.Run run;
+
+    protected final Algorithm algorithm;
+
+    protected final ObjectName name;
+
+    protected final ThreadMXBean threads =
+	    ManagementFactory.getThreadMXBean();
+
+    protected final boolean allocationSupported;
+
+    // Oldest first, guarded by this
+    protected final ArrayDeque<Sample> samples = new ArrayDeque<Sample>();
+
+    protected volatile Sample latest;
+
+    /**
+     * The constructor
+     * 
+     * @param executor
+     * @throws JMException
+     *             if the object name cannot be made
+     */
+    public ExecutorMonitor(Executor executor) throws JMException {
+	this(executor, null, executor.algorithm, "Executor");
+    }
+
+    /**
+     * The constructor, for a run of an ExecutorPool
+     * 
+     * @param run
+     * @throws JMException
+     *             if the object name cannot be made
+     */
+    public ExecutorMonitor(ExecutorPool.Run run) throws JMException {
+	this(null, run, run.getAlgorithm(), "ExecutorPoolRun");
+    }
+
+    protected ExecutorMonitor(Executor executor, ExecutorPool.Run run,
+	    Algorithm algorithm, String kind) throws JMException {
+	this.executor = executor;
+	this.run = run;
+	this.algorithm = algorithm;
+
+	Class<?> type = algorithm.getClass();
+	String simpleName =
+		type.getSimpleName().length() > 0 ? type.getSimpleName() : type
+			.getName();
+
+	name =
+		new ObjectName("soam:type=" + kind + ",algorithm="
+			+ ObjectName.quote(simpleName) + ",id="
+			+ instances.incrementAndGet());
+
+	allocationSupported = isAllocationSupported(threads);
+    }
+
+    /**
+     * Tells if executors and pool runs should register by themselves
+     * 
+     * @return the value of the JMX_PROPERTY system property
+     */
+    public static boolean isEnabled() {
+	return Boolean.getBoolean(JMX_PROPERTY);
+    }
+
+    /**
+     * Tells if allocated bytes can be measured per thread, which is a HotSpot
+     * extension
+     */
+    public static boolean isAllocationSupported(ThreadMXBean threads) {
+	try {
+	    if (threads instanceof com.sun.management.ThreadMXBean) {
+		com.sun.management.ThreadMXBean extended =
+			(com.sun.management.ThreadMXBean) threads;
+
+		if (extended.isThreadAllocatedMemorySupported()) {
+		    extended.setThreadAllocatedMemoryEnabled(true);
+		    return extended.isThreadAllocatedMemoryEnabled();
+		}
+	    }
+	} catch (LinkageError e) {
+	    // Not a HotSpot virtual machine
+	} catch (UnsupportedOperationException e) {
+	    // Idem
+	}
+
+	return false;
+    }
+
+    public ObjectName getObjectName() {
+	return name;
+    }
+
+    /**
+     * Registers with the platform MBean server
+     * 
+     * @throws JMException
+     */
+    public void register() throws JMException {
+	ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    }
+
+    /**
+     * Unregisters from the platform MBean server, if registered
+     * 
+     * @throws JMException
+     */
+    public void unregister() throws JMException {
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	if (server.isRegistered(name)) {
+	    server.unregisterMBean(name);
+	}
+    }
+
+    /**
+     * Samples the algorithm. Called by Executor.publish(), on the training
+     * thread, between iterations.
+     */
+    protected void sample() {
+	sample(allocatedBytes(), Thread.currentThread().getId());
+    }
+
+    /**
+     * Samples the algorithm of a pool run. Called by the carrier thread at the
+     * end of each slice.
+     * 
+     * @param allocatedBytes
+     *            the bytes allocated by all the slices of the run so far
+     */
+    protected void sample(long allocatedBytes) {
+	sample(allocatedBytes, -1l);
+    }
+
+    protected void sample(long allocatedBytes, long thread) {
+	Sample sample = new Sample(algorithm, allocatedBytes, thread);
+
+	synchronized (this) {
+	    // Bounded runs start a new thread, with its own allocation counter
+	    if (!samples.isEmpty() && samples.getLast().thread != sample.thread) {
+		samples.clear();
+	    }
+
+	    samples.addLast(sample);
+
+	    // The newest sample out of the window is kept, see windowStart()
+	    while (samples.size() > MAX_SAMPLES
+		    || (samples.size() > 2 && sample.time
+			    - getSecond().time > WINDOW_MSEC * 1000000l)) {
+		samples.removeFirst();
+	    }
+	}
+
+	latest = sample;
+    }
+
+    protected Sample getSecond() {
+	Iterator<Sample> i = samples.iterator();
+	i.next();
+	return i.next();
+    }
+
+    /**
+     * Gets the bytes allocated so far by the current thread
+     * 
+     * @return the bytes, or -1 if not supported
+     */
+    protected long allocatedBytes() {
+	if (!allocationSupported) {
+	    return -1l;
+	}
+
+	return ((com.sun.management.ThreadMXBean) threads)
+		.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Gets the oldest sample still within the window, compared to the latest
+     * one. If the latest is the only one, the sample before it is taken, so
+     * that rates are still measured when samples are rarer than the window.
+     */
+    protected synchronized Sample windowStart(Sample last) {
+	Sample previous = last;
+	for (Sample sample : samples) {
+	    if (last.time - sample.time <= WINDOW_MSEC * 1000000l) {
+		return sample != last ? sample : previous;
+	    }
+	    previous = sample;
+	}
+
+	return last;
+    }
+
+    /**
+     * The state of the algorithm at one point in time
+     */
+    protected static class Sample {
+	protected final long time = System.nanoTime();
+	protected final long thread;
+	protected final long allocatedBytes;
+
+	protected final long tick;
+	protected final int vertices;
+	protected final int edges;
+	protected final boolean convergent;
+
+	protected int verticesActive;
+	protected int verticesHabituated;
+	protected int verticesConnected;
+	protected int verticesSingular;
+	protected int verticesHalfdisk;
+	protected int verticesDisk;
+	protected int verticesPatch;
+	protected int verticesBoundary;
+
+	protected double stableVerticesFraction;
+	protected long tickOfFirstConvergence;
+	protected long timeOfFirstConvergence;
+
+	protected double quantizationError;
+	protected double vertexMaximumError;
+	protected double vertexAverageError;
+	protected double vertexMinimumError;
+
+	protected Sample(Algorithm algorithm, long allocatedBytes, long thread) {
+	    this.allocatedBytes = allocatedBytes;
+	    this.thread = thread;
+
+	    tick = algorithm.getTick();
+	    vertices = algorithm.mesh().vertexlist.size();
+	    edges = algorithm.mesh().edgelist.size();
+	    convergent = algorithm.isConvergent();
+
+	    if (algorithm instanceof GWR) {
+		GWR gwr = (GWR) algorithm;
+		verticesActive = gwr.getVerticesActive();
+		verticesHabituated = gwr.getVerticesHabituated();
+	    }
+
+	    if (algorithm instanceof SOAM) {
+		SOAM soam = (SOAM) algorithm;
+		verticesConnected = soam.getVerticesConnected();
+		verticesSingular = soam.getVerticesSingular();
+		verticesHalfdisk = soam.getVerticesHalfdisk();
+		verticesDisk = soam.getVerticesDisk();
+		verticesPatch = soam.getVerticesPatch();
+		verticesBoundary = soam.getVerticesBoundary();
+
+		stableVerticesFraction = soam.getStableVerticesFraction();
+		tickOfFirstConvergence = soam.getTickOfFirstConvergence();
+		timeOfFirstConvergence = soam.getTimeOfFirstConvergence();
+
+		quantizationError = soam.getQuantizationError();
+		vertexMaximumError = soam.getVertexMaximumError();
+		vertexAverageError = soam.getVertexAverageError();
+		vertexMinimumError = soam.getVertexMinimumError();
+	    }
+	}
+    }
+
+    /**
+     * Gets the latest sample, taking a first one from the current state of
+     * the algorithm if it has never been published
+     */
+    protected Sample latest() {
+	Sample sample = latest;
+	if (sample == null) {
+	    sample = new Sample(algorithm, -1l, -1l);
+	}
+
+	return sample;
+    }
+
+    public String getAlgorithm() {
+	return algorithm.getClass().getName();
+    }
+
+    public long getTick() {
+	return latest().tick;
+    }
+
+    public double getTicksPerSecond() {
+	Sample last = latest;
+	if (last == null || !isRunning()) {
+	    return 0d;
+	}
+
+	Sample first = windowStart(last);
+	long nanos = last.time - first.time;
+
+	return nanos > 0 ? (last.tick - first.tick) * 1e9d / nanos : 0d;
+    }
+
+    public int getVertices() {
+	return latest().vertices;
+    }
+
+    public int getEdges() {
+	return latest().edges;
+    }
+
+    public boolean isRunning() {
+	if (run != null) {
+	    return !run.isRetired() && !run.isPaused();
+	}
+
+	ExecutorSnapshot snapshot = executor.getSnapshot();
+	return snapshot != null && snapshot.isRunning();
+    }
+
+    public boolean isConvergent() {
+	return latest().convergent;
+    }
+
+    public int getVerticesActive() {
+	return latest().verticesActive;
+    }
+
+    public int getVerticesHabituated() {
+	return latest().verticesHabituated;
+    }
+
+    public int getVerticesConnected() {
+	return latest().verticesConnected;
+    }
+
+    public int getVerticesSingular() {
+	return latest().verticesSingular;
+    }
+
+    public int getVerticesHalfdisk() {
+	return latest().verticesHalfdisk;
+    }
+
+    public int getVerticesDisk() {
+	return latest().verticesDisk;
+    }
+
+    public int getVerticesPatch() {
+	return latest().verticesPatch;
+    }
+
+    public int getVerticesBoundary() {
+	return latest().verticesBoundary;
+    }
+
+    public double getStableVerticesFraction() {
+	return latest().stableVerticesFraction;
+    }
+
+    public long getTickOfFirstConvergence() {
+	return latest().tickOfFirstConvergence;
+    }
+
+    public long getTimeOfFirstConvergence() {
+	return latest().timeOfFirstConvergence;
+    }
+
+    public double getQuantizationError() {
+	return latest().quantizationError;
+    }
+
+    public double getVertexMaximumError() {
+	return latest().vertexMaximumError;
+    }
+
+    public double getVertexAverageError() {
+	return latest().vertexAverageError;
+    }
+
+    public double getVertexMinimumError() {
+	return latest().vertexMinimumError;
+    }
+
+    public double getAllocationRate() {
+	if (!allocationSupported) {
+	    return -1d;
+	}
+
+	Sample last = latest;
+	if (last == null || !isRunning()) {
+	    return 0d;
+	}
+
+	Sample first = windowStart(last);
+	long nanos = last.time - first.time;
+	long bytes = last.allocatedBytes - first.allocatedBytes;
+
+	return nanos > 0 ? bytes * 1e9d / nanos : 0d;
+    }
+
+    public synchronized long getWINDOW_MSEC() {
+	return WINDOW_MSEC;
+    }
+
+    public synchronized void setWINDOW_MSEC(long window_msec) {
+	WINDOW_MSEC = Math.max(window_msec, 1l);
+    }
+
+    public void pause() {
+	if (run != null) {
+	    run.pause();
+	} else {
+	    executor.pause();
+	}
+    }
+
+    public void resume() {
+	if (run != null) {
+	    run.resume();
+	} else {
+	    executor.resume();
+	}
+    }
+
+    public void stop() {
+	if (run != null) {
+	    run.cancel(false);
+	} else {
+	    executor.stop();
+	}
+    }
+
+    public String toString() {
+	return "ExecutorMonitor(" + name + ")";
+    }
+}
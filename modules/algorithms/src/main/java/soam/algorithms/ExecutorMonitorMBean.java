@@ -0,0 +1,101 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.algorithms;
+
+/**
+ * The management interface of ExecutorMonitor, as seen by JConsole and other
+ * JMX clients. Counts and errors are those of the latest sample; the SOAM
+ * attributes are 0 for other algorithms.
+ */
+public interface ExecutorMonitorMBean {
+
+    public String getAlgorithm();
+
+    public long getTick();
+
+    /**
+     * Gets the throughput over the last WINDOW_MSEC
+     */
+    public double getTicksPerSecond();
+
+    public int getVertices();
+
+    public int getEdges();
+
+    public boolean isRunning();
+
+    public boolean isConvergent();
+
+    public int getVerticesActive();
+
+    public int getVerticesHabituated();
+
+    public int getVerticesConnected();
+
+    public int getVerticesSingular();
+
+    public int getVerticesHalfdisk();
+
+    public int getVerticesDisk();
+
+    public int getVerticesPatch();
+
+    public int getVerticesBoundary();
+
+    public double getStableVerticesFraction();
+
+    public long getTickOfFirstConvergence();
+
+    /**
+     * Gets the time from the first tick to the first convergence, in
+     * nanoseconds
+     */
+    public long getTimeOfFirstConvergence();
+
+    public double getQuantizationError();
+
+    public double getVertexMaximumError();
+
+    public double getVertexAverageError();
+
+    public double getVertexMinimumError();
+
+    /**
+     * Gets the bytes allocated per second by the training thread, over the
+     * last WINDOW_MSEC
+     * 
+     * @return the rate, or -1 if the virtual machine cannot measure it
+     */
+    public double getAllocationRate();
+
+    public long getWINDOW_MSEC();
+
+    public void setWINDOW_MSEC(long window_msec);
+
+    /**
+     * Pauses the executor, or holds the pool run after its current slice
+     */
+    public void pause();
+
+    public void resume();
+
+    /**
+     * Stops the executor, or cancels the pool run
+     */
+    public void stop();
+}
@@ -0,0 +1,637 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.algorithms;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.JMException;
+
+/**
+ * Runs many algorithms over a fixed number of carrier threads, instead of one
+ * thread per algorithm as Executor does.
+ * <p>
+ * Each carrier repeatedly takes the run that has received the least CPU time,
+ * weighted by its priority, and advances it by a slice of SLICE_TICKS ticks,
+ * so a run with priority 10 gets ten times the CPU of a run with priority 1,
+ * within the limit of one carrier per run.
+ * The CPU time of every slice is measured on the carrier thread and charged
+ * to its run. A run is retired, and its future completed, as soon as it has
+ * run all its ticks or its algorithm is convergent.
+ * <p>
+ * An algorithm is only ever advanced by one carrier at a time, but it must
+ * not be used by anyone else while its run is active.
+ * <p>
+ * A run can be paused, which holds it out of the ready queue after its current
+ * slice, and resumed. Runs can be followed with JMX clients, see
+ * Run.registerMBean().
+ */
+public class ExecutorPool {
+
+    public static final int MIN_PRIORITY = 1;
+    public static final int NORM_PRIORITY = 5;
+    public static final int MAX_PRIORITY = 10;
+
+    protected static final ThreadMXBean THREAD_BEAN =
+	    ManagementFactory.getThreadMXBean();
+
+    /**
+     * Ticks per time slice
+     */
+    protected volatile int SLICE_TICKS = 256;
+
+    protected final Thread[] carriers;
+
+    protected final PriorityBlockingQueue<Run> ready =
+	    new PriorityBlockingQueue<Run>(16, new Comparator<Run>() {
+		public int compare(Run one, Run two) {
+		    if (one.virtualTime != two.virtualTime) {
+			return one.virtualTime < two.virtualTime ? -1 : 1;
+		    }
+		    return one.sequence < two.sequence ? -1
+			    : (one.sequence > two.sequence ? 1 : 0);
+		}
+	    });
+
+    protected final CopyOnWriteArrayList<Run> active =
+	    new CopyOnWriteArrayList<Run>();
+
+    protected volatile boolean shutdown = false;
+
+    // The virtual time of the last scheduled run, new runs start from here
+    protected volatile double virtualClock = 0d;
+
+    protected long sequence = 0;
+
+    /**
+     * The constructor, with as many daemon carrier threads as processors
+     */
+    public ExecutorPool() {
+	this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * The constructor, with daemon carrier threads
+     *
+     * @param threads
+     *            the number of carrier threads
+     */
+    public ExecutorPool(int threads) {
+	this(threads, new ThreadFactory() {
+	    private int count = 0;
+
+	    public synchronized Thread newThread(Runnable runnable) {
+		Thread thread =
+			new Thread(runnable, "ExecutorPool carrier " + count++);
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+    }
+
+    /**
+     * The constructor
+     *
+     * @param threads
+     *            the number of carrier threads
+     * @param factory
+     *            creates the carrier threads
+     */
+    public ExecutorPool(int threads, ThreadFactory factory) {
+	if (threads < 1) {
+	    throw new IllegalArgumentException("At least one thread is needed");
+	}
+
+	carriers = new Thread[threads];
+	for (int i = 0; i < threads; i++) {
+	    carriers[i] = factory.newThread(new Carrier());
+	    carriers[i].start();
+	}
+    }
+
+    /**
+     * Adds a run with normal priority
+     *
+     * @see #submit(Algorithm, long, int)
+     */
+    public Run submit(Algorithm algorithm, long maxTicks) {
+	return submit(algorithm, maxTicks, NORM_PRIORITY);
+    }
+
+    /**
+     * Adds a run, that will be retired after a number of ticks or when the
+     * algorithm is convergent
+     *
+     * @param algorithm
+     *            an initialized algorithm
+     * @param maxTicks
+     * @param priority
+     *            between MIN_PRIORITY and MAX_PRIORITY
+     * @return the run, a future of its statistics
+     */
+    public Run submit(Algorithm algorithm, long maxTicks, int priority) {
+	if (shutdown) {
+	    throw new IllegalStateException("ExecutorPool is shut down");
+	}
+
+	Run run = new Run(algorithm, maxTicks, priority);
+
+	synchronized (this) {
+	    run.sequence = sequence++;
+	}
+	run.virtualTime = virtualClock;
+
+	if (ExecutorMonitor.isEnabled()) {
+	    try {
+		run.registerMBean();
+	    } catch (JMException e) {
+		// Only the monitoring is lost
+		e.printStackTrace();
+	    }
+	}
+
+	active.add(run);
+	ready.put(run);
+
+	return run;
+    }
+
+    /**
+     * Gets the runs that are not retired yet
+     *
+     * @return a copy of the list of runs
+     */
+    public List<Run> getRuns() {
+	return new ArrayList<Run>(active);
+    }
+
+    public int getActiveCount() {
+	return active.size();
+    }
+
+    public int getThreads() {
+	return carriers.length;
+    }
+
+    /**
+     * Cancels all runs and lets the carrier threads end, after their current
+     * slice
+     */
+    public void shutdown() {
+	shutdown = true;
+
+	for (Run run : active) {
+	    run.cancel(false);
+	}
+
+	for (Thread carrier : carriers) {
+	    carrier.interrupt();
+	}
+    }
+
+    /**
+     * Waits for the carrier threads to end, after shutdown()
+     *
+     * @param timeout
+     * @param unit
+     * @return true if all carriers have ended
+     * @throws InterruptedException
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+	    throws InterruptedException {
+	long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+	for (Thread carrier : carriers) {
+	    long left = deadline - System.nanoTime();
+	    if (left > 0) {
+		TimeUnit.NANOSECONDS.timedJoin(carrier, left);
+	    }
+	    if (carrier.isAlive()) {
+		return false;
+	    }
+	}
+
+	return true;
+    }
+
+    public int getSLICE_TICKS() {
+	return SLICE_TICKS;
+    }
+
+    public void setSLICE_TICKS(int slice_ticks) {
+	SLICE_TICKS = Math.max(slice_ticks, 1);
+    }
+
+    /**
+     * Gets the CPU time of the current thread, or the wall clock time if it
+     * is not available
+     */
+    protected static long threadTime() {
+	if (THREAD_BEAN.isCurrentThreadCpuTimeSupported()) {
+	    long time = THREAD_BEAN.getCurrentThreadCpuTime();
+	    if (time >= 0) {
+		return time;
+	    }
+	}
+
+	return System.nanoTime();
+    }
+
+    /**
+     * Takes runs in order of virtual time and advances them by one slice
+     */
+    protected class Carrier implements Runnable {
+	public void run() {
+	    while (!shutdown) {
+		Run run;
+		try {
+		    run = ready.take();
+		} catch (InterruptedException e) {
+		    continue;
+		}
+
+		if (run.isRetired()) {
+		    continue;
+		}
+
+		virtualClock = Math.max(virtualClock, run.virtualTime);
+
+		try {
+		    run.slice(SLICE_TICKS);
+		} catch (Throwable t) {
+		    // Only this run is lost, not the carrier
+		    run.fail(t);
+		}
+
+		if (!run.isRetired()) {
+		    run.offer();
+		}
+	    }
+	}
+    }
+
+    /**
+     * An algorithm in the pool, and the future of its statistics. The
+     * counters are updated after every slice.
+     */
+    public class Run implements Future<RunStatistics> {
+	protected final Algorithm algorithm;
+	protected final long maxTicks;
+	protected final long startTick;
+	protected volatile int priority;
+
+	// Only changed while out of the ready queue
+	protected double virtualTime;
+	protected long sequence;
+
+	protected volatile long ticks = 0;
+	protected volatile long cpuNanos = 0;
+	protected volatile long wallNanos = 0;
+	protected volatile long slices = 0;
+
+	protected volatile boolean cancelled = false;
+
+	// Paused runs are held out of the ready queue, guarded by this
+	protected volatile boolean paused = false;
+	protected boolean held = false;
+	protected volatile RunStatistics result;
+	protected volatile Throwable failure;
+	protected final CountDownLatch retired = new CountDownLatch(1);
+
+	// Sampled after each slice, null unless registered
+	protected volatile ExecutorMonitor monitor;
+
+	// By all slices, only measured while registered
+	protected long allocatedBytes = 0;
+
+	protected Run(Algorithm algorithm, long maxTicks, int priority) {
+	    this.algorithm = algorithm;
+	    this.maxTicks = maxTicks;
+	    this.startTick = algorithm.getTick();
+	    setPriority(priority);
+	}
+
+	/**
+	 * Advances the algorithm by at most a number of ticks, on the
+	 * calling carrier, and retires the run if it is over
+	 */
+	protected void slice(int sliceTicks) {
+	    if (cancelled) {
+		retire(RunStatistics.Outcome.STOPPED);
+		return;
+	    }
+
+	    if (ticks == 0 && algorithm.isConvergent()) {
+		retire(RunStatistics.Outcome.CONVERGENT);
+		return;
+	    }
+
+	    ExecutorMonitor monitor = this.monitor;
+	    long allocated = monitor != null ? monitor.allocatedBytes() : 0l;
+
+	    long cpuStart = threadTime();
+	    long wallStart = System.nanoTime();
+
+	    RunStatistics.Outcome outcome = null;
+	    long done = ticks;
+	    long block = Math.min(sliceTicks, maxTicks - done);
+
+	    for (long i = 0; i < block; i++) {
+		algorithm.iteration();
+		done++;
+
+		if (algorithm.isConvergent()) {
+		    outcome = RunStatistics.Outcome.CONVERGENT;
+		    break;
+		}
+	    }
+
+	    long cpu = threadTime() - cpuStart;
+
+	    ticks = done;
+	    cpuNanos += cpu;
+	    wallNanos += System.nanoTime() - wallStart;
+	    slices++;
+	    virtualTime += cpu / (double) priority;
+
+	    if (monitor != null) {
+		allocatedBytes += monitor.allocatedBytes() - allocated;
+		monitor.sample(allocatedBytes);
+	    }
+
+	    if (outcome == null && done >= maxTicks) {
+		outcome = RunStatistics.Outcome.TICKS_DONE;
+	    }
+	    if (outcome == null && cancelled) {
+		outcome = RunStatistics.Outcome.STOPPED;
+	    }
+
+	    if (outcome != null) {
+		retire(outcome);
+	    }
+	}
+
+	/**
+	 * Puts the run back in the ready queue after a slice, unless it is
+	 * paused
+	 */
+	protected synchronized void offer() {
+	    if (paused) {
+		held = true;
+	    } else {
+		ready.put(this);
+	    }
+	}
+
+	/**
+	 * Retires the run after its algorithm has thrown
+	 */
+	protected void fail(Throwable cause) {
+	    failure = cause;
+	    retire(RunStatistics.Outcome.FAILED);
+	}
+
+	protected void retire(RunStatistics.Outcome outcome) {
+	    synchronized (this) {
+		if (result != null) {
+		    return;
+		}
+		result =
+			new RunStatistics(outcome, startTick, ticks, wallNanos);
+	    }
+
+	    active.remove(this);
+	    retired.countDown();
+
+	    try {
+		unregisterMBean();
+	    } catch (JMException e) {
+		// Only the monitoring is affected
+	    }
+	}
+
+	/**
+	 * Registers an ExecutorMonitor with the platform MBean server, until
+	 * the run is retired. The monitor is sampled after each slice.
+	 * 
+	 * @return the monitor, or null if the run is already retired;
+	 *         registering again returns the same one
+	 * @throws JMException
+	 *             if the registration fails
+	 */
+	public synchronized ExecutorMonitor registerMBean() throws JMException {
+	    if (monitor == null && !isRetired()) {
+		ExecutorMonitor created = new ExecutorMonitor(this);
+		created.register();
+
+		monitor = created;
+	    }
+
+	    return monitor;
+	}
+
+	/**
+	 * Unregisters the ExecutorMonitor, if any
+	 * 
+	 * @throws JMException
+	 */
+	public synchronized void unregisterMBean() throws JMException {
+	    if (monitor != null) {
+		monitor.unregister();
+		monitor = null;
+	    }
+	}
+
+	/**
+	 * Tells if the run is over, and no carrier will touch its algorithm
+	 * any more
+	 */
+	public boolean isRetired() {
+	    return result != null;
+	}
+
+	public Algorithm getAlgorithm() {
+	    return algorithm;
+	}
+
+	public int getPriority() {
+	    return priority;
+	}
+
+	/**
+	 * Changes the share of CPU of the run, from its next slice
+	 *
+	 * @param priority
+	 *            between MIN_PRIORITY and MAX_PRIORITY
+	 */
+	public void setPriority(int priority) {
+	    this.priority =
+		    Math.max(MIN_PRIORITY, Math.min(priority, MAX_PRIORITY));
+	}
+
+	public long getTicks() {
+	    return ticks;
+	}
+
+	/**
+	 * Gets the CPU time charged to the run
+	 *
+	 * @return nanoseconds
+	 */
+	public long getCpuNanos() {
+	    return cpuNanos;
+	}
+
+	/**
+	 * Gets the wall clock time of the slices of the run
+	 *
+	 * @return nanoseconds
+	 */
+	public long getWallNanos() {
+	    return wallNanos;
+	}
+
+	public long getSlices() {
+	    return slices;
+	}
+
+	/**
+	 * Pauses the run. If a carrier is running a slice, the run is held
+	 * at the end of it.
+	 */
+	public void pause() {
+	    synchronized (this) {
+		if (result != null || cancelled || paused) {
+		    return;
+		}
+		paused = true;
+
+		if (ready.remove(this)) {
+		    held = true;
+		}
+	    }
+	}
+
+	/**
+	 * Resumes a paused run, which gets no more CPU time than it would
+	 * have had as a new run
+	 */
+	public void resume() {
+	    synchronized (this) {
+		if (!paused) {
+		    return;
+		}
+		paused = false;
+
+		if (held) {
+		    held = false;
+		    virtualTime = Math.max(virtualTime, virtualClock);
+		    ready.put(this);
+		}
+	    }
+	}
+
+	public boolean isPaused() {
+	    return paused;
+	}
+
+	/**
+	 * Cancels the run. If a carrier is running a slice, the algorithm
+	 * stops at the end of it: wait for isRetired() before using it.
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+	    boolean wasHeld;
+	    synchronized (this) {
+		if (result != null || cancelled) {
+		    return false;
+		}
+		cancelled = true;
+
+		wasHeld = held;
+		held = false;
+	    }
+
+	    if (wasHeld || ready.remove(this)) {
+		retire(RunStatistics.Outcome.STOPPED);
+	    }
+
+	    return true;
+	}
+
+	public boolean isCancelled() {
+	    return cancelled;
+	}
+
+	public boolean isDone() {
+	    return cancelled || result != null;
+	}
+
+	public RunStatistics get() throws InterruptedException,
+		ExecutionException {
+	    if (cancelled) {
+		throw new CancellationException();
+	    }
+
+	    retired.await();
+
+	    return statistics();
+	}
+
+	public RunStatistics get(long timeout, TimeUnit unit)
+		throws InterruptedException, ExecutionException,
+		TimeoutException {
+	    if (cancelled) {
+		throw new CancellationException();
+	    }
+
+	    if (!retired.await(timeout, unit)) {
+		throw new TimeoutException();
+	    }
+
+	    return statistics();
+	}
+
+	protected RunStatistics statistics() throws ExecutionException {
+	    if (result.getOutcome() == RunStatistics.Outcome.STOPPED) {
+		throw new CancellationException();
+	    } else if (result.getOutcome() == RunStatistics.Outcome.FAILED) {
+		throw new ExecutionException(failure);
+	    }
+
+	    return result;
+	}
+
+	public String toString() {
+	    return "Run(" + algorithm.getClass().getSimpleName() + ", priority "
+		    + priority + ", " + ticks + " ticks, " + cpuNanos / 1000000
+		    + " ms CPU)";
+	}
+    }
+}
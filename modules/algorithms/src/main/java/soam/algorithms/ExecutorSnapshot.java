@@ -0,0 +1,88 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.algorithms;
+
+/**
+ * The state of a running algorithm, as published by Executor to its
+ * observers. Instances are immutable, so they can be handed over to any
+ * thread without locking; the mesh itself is not copied.
+ */
+public final class ExecutorSnapshot {
+
+    private final long tick;
+    private final int vertices;
+    private final int edges;
+    private final boolean convergent;
+    private final boolean running;
+    private final long time;
+
+    /**
+     * The constructor
+     *
+     * @param tick
+     * @param vertices
+     *            the number of vertices of the mesh
+     * @param edges
+     *            the number of edges of the mesh
+     * @param convergent
+     * @param running
+     *            false once the executor has been paused or stopped
+     * @param time
+     *            when the snapshot was taken, as System.nanoTime()
+     */
+    public ExecutorSnapshot(long tick, int vertices, int edges,
+	    boolean convergent, boolean running, long time) {
+	this.tick = tick;
+	this.vertices = vertices;
+	this.edges = edges;
+	this.convergent = convergent;
+	this.running = running;
+	this.time = time;
+    }
+
+    public long getTick() {
+	return tick;
+    }
+
+    public int getVertices() {
+	return vertices;
+    }
+
+    public int getEdges() {
+	return edges;
+    }
+
+    public boolean isConvergent() {
+	return convergent;
+    }
+
+    public boolean isRunning() {
+	return running;
+    }
+
+    public long getTime() {
+	return time;
+    }
+
+    public String toString() {
+	return "ExecutorSnapshot(tick " + tick + ", " + vertices
+		+ " vertices, " + edges + " edges"
+		+ (convergent ? ", convergent" : "")
+		+ (running ? "" : ", not running") + ")";
+    }
+}
@@ -38,6 +38,9 @@ public class GWR implements Algorithm {
 
     protected boolean VALIDATION = false;
 
+    // One tick in this many is timed, none if 0
+    protected int TIMING_SAMPLE_RATE = 0;
+
     protected Mesh mesh;
 
     public Sampler sampler;
@@ -64,6 +67,12 @@ public class GWR implements Algorithm {
 
     protected long tickOfLastVertexCreation;
 
+    // Filled only when TIMING_SAMPLE_RATE is positive
+    protected final PhaseTimer phaseTimer = new PhaseTimer();
+
+    // Receives topology changes, if not null
+    protected MeshTrace trace;
+
     /**
      * Returns the edge connecting two given vertices or null, if this does not
      * exist
@@ -187,6 +196,8 @@ public class GWR implements Algorithm {
 	tickOfLastVertexCreation = 0;
 
 	vertexCreationLock = false;
+
+	phaseTimer.reset();
     }
 
     /**
@@ -197,24 +208,50 @@ public class GWR implements Algorithm {
 
 	tick++;
 
+	// Only one tick in TIMING_SAMPLE_RATE is timed, if any
+	PhaseTimer timer = null;
+	long time = 0l;
+	if (TIMING_SAMPLE_RATE > 0 && tick % TIMING_SAMPLE_RATE == 0) {
+	    timer = phaseTimer;
+	    timer.tick();
+	    time = System.nanoTime();
+	}
+
 	// Step 1: Generate a data sample
 	// Step 2: Compute distances
 	// Step 3: Select the best matching vertex and the second best
 
 	sampleAndFindWinners();
+	if (timer != null) {
+	    time = timer.record(PhaseTimer.Phase.SAMPLE_AND_FIND_WINNERS, time);
+	}
 
 	// Step 4: Create a new edge or refresh the existing one
 	updateOrCreateEdge();
+	if (timer != null) {
+	    time = timer.record(PhaseTimer.Phase.UPDATE_OR_CREATE_EDGE, time);
+	}
 
 	// Step 8: Age edges in the winner's neighborhood
 	// MODIFICATION: THIS STEP HAS BEEN MOVED BEFORE STEP 5
 	ageEdges();
+	if (timer != null) {
+	    time = timer.record(PhaseTimer.Phase.AGE_EDGES, time);
+	}
 
 	// Step 5: Calculate the activity of the best matching unit
-	if (newVertexRequired()) {
+	boolean required = newVertexRequired();
+	if (timer != null) {
+	    time = timer.record(PhaseTimer.Phase.NEW_VERTEX_REQUIRED, time);
+	}
+
+	if (required) {
 
 	    // Step 6: If required, create a new vertex and update the mesh
 	    createVertex();
+	    if (timer != null) {
+		time = timer.record(PhaseTimer.Phase.CREATE_VERTEX, time);
+	    }
 
 	}
 
@@ -222,20 +259,32 @@ public class GWR implements Algorithm {
 	// neighbors
 	// MODIFICATION: THIS STEP HAS BEEN MOVED BEFORE STEP 7
 	updateFiringCounters();
+	if (timer != null) {
+	    time = timer.record(PhaseTimer.Phase.UPDATE_FIRING_COUNTERS, time);
+	}
 
 	// Step 7: Otherwise, adapt positions of the winner and its
 	// neighbors
 	// MODIFICATION: THIS STEP IS NO LONGER CONDITIONAL
 	adaptPositions();
+	if (timer != null) {
+	    time = timer.record(PhaseTimer.Phase.ADAPT_POSITIONS, time);
+	}
 
 	// Step 10: Check if there are any vertices or edges to delete
 	// MODIFICATION: THIS STEP HAS BEEN INCLUDED IN STEP 8
 
 	// MODIFICATION: THE FOLLOWING STEP HAS BEEN ADDED
 	updateVertex();
+	if (timer != null) {
+	    time = timer.record(PhaseTimer.Phase.UPDATE_VERTEX, time);
+	}
 
 	// MODIFICATION: THE FOLLOWING STEP HAS BEEN ADDED
 	updateMesh();
+	if (timer != null) {
+	    timer.record(PhaseTimer.Phase.UPDATE_MESH, time);
+	}
 
 	// Debugging purposes only
 	if (VALIDATION) {
@@ -391,6 +440,10 @@ public class GWR implements Algorithm {
 	newlyCreated = newVertex;
 	tickOfLastVertexCreation = tick;
 
+	if (trace != null) {
+	    trace.vertexCreated(tick, newVertex);
+	}
+
 	Edge newEdge2 = new Edge(newVertex, secondBestMatching);
 	mesh.edgelist.add(newEdge2);
 	secondBestMatching.neighborhood.add(newEdge2);
@@ -435,6 +488,10 @@ public class GWR implements Algorithm {
 		otherVertex.neighborhood.remove(edge);
 		mesh.edgelist.remove(edge);
 
+		if (trace != null) {
+		    trace.edgeAgedOut(tick, edge);
+		}
+
 		touchNeighborhood(vertex);
 		touch(vertex);
 		touchNeighborhood(otherVertex);
@@ -443,6 +500,10 @@ public class GWR implements Algorithm {
 		// Check if the other node is now isolated
 		if (otherVertex.neighborhood.size() == 0) {
 		    mesh.vertexlist.remove(otherVertex);
+
+		    if (trace != null) {
+			trace.vertexIsolated(tick, otherVertex);
+		    }
 		}
 	    }
 	}
@@ -450,6 +511,10 @@ public class GWR implements Algorithm {
 	// Check if this vertex is now isolated
 	if (vertex.neighborhood.size() == 0) {
 	    mesh.vertexlist.remove(vertex);
+
+	    if (trace != null) {
+		trace.vertexIsolated(tick, vertex);
+	    }
 	}
     }
 
@@ -670,6 +735,43 @@ public class GWR implements Algorithm {
 	VALIDATION = validation;
     }
 
+    public int getTIMING_SAMPLE_RATE() {
+	return TIMING_SAMPLE_RATE;
+    }
+
+    public void setTIMING_SAMPLE_RATE(int timing_sample_rate) {
+	TIMING_SAMPLE_RATE = Math.max(timing_sample_rate, 0);
+    }
+
+    /**
+     * Gets the latency histograms of the phases of the timed iterations
+     * 
+     * @return the timer, empty unless TIMING_SAMPLE_RATE is positive
+     */
+    public PhaseTimer phaseTimer() {
+	return phaseTimer;
+    }
+
+    /**
+     * Gets the trace of topology changes
+     * 
+     * @return the trace, or null if none
+     */
+    public MeshTrace trace() {
+	return trace;
+    }
+
+    /**
+     * Sets the trace of topology changes. It is called by the training
+     * thread, so it should be set before running or while paused.
+     * 
+     * @param trace
+     *            the trace, or null for none
+     */
+    public void setTrace(MeshTrace trace) {
+	this.trace = trace;
+    }
+
     public int getEdges() {
 	return mesh.edgelist.size();
     }
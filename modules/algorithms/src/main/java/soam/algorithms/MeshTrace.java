@@ -0,0 +1,77 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.algorithms;
+
+import soam.Edge;
+import soam.Vertex;
+
+/**
+ * Receives the changes to the topology of the mesh and to the states of its
+ * vertices, on the training thread, as they happen. A trace is set with
+ * GWR.setTrace(); while none is set, each point of emission costs just a null
+ * check.
+ * <p>
+ * Implementations must be quick and must not modify the mesh.
+ * 
+ * @see MeshTraceLog
+ */
+public interface MeshTrace {
+
+    /**
+     * A vertex has been created
+     */
+    public void vertexCreated(long tick, Vertex vertex);
+
+    /**
+     * An edge has been removed for exceeding MAX_EDGE_AGE
+     */
+    public void edgeAgedOut(long tick, Edge edge);
+
+    /**
+     * A vertex has been removed, having lost its last edge to aging
+     */
+    public void vertexIsolated(long tick, Vertex vertex);
+
+    /**
+     * A vertex has been removed, having not won for MAX_VERTEX_INACTIVITY
+     * ticks, together with its edges
+     */
+    public void vertexInactive(long tick, Vertex vertex);
+
+    /**
+     * A non Delaunay edge has been flipped
+     * 
+     * @param edge
+     *            the edge, already connecting its new vertices
+     * @param oldStart
+     * @param oldEnd
+     *            the vertices it connected before the flip
+     */
+    public void edgeFlipped(long tick, Edge edge, Vertex oldStart,
+	    Vertex oldEnd);
+
+    /**
+     * The state of a vertex has been changed
+     * 
+     * @param vertex
+     *            the vertex, already in its new state
+     * @param oldState
+     *            as in SOAMConstants
+     */
+    public void stateChanged(long tick, Vertex vertex, int oldState);
+}
@@ -0,0 +1,158 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.algorithms;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import soam.Edge;
+import soam.Vertex;
+
+/**
+ * Writes a MeshTrace as tab separated lines, one per event:
+ * 
+ * <pre>
+ * time  tick  event  vertex ids and states  position
+ * </pre>
+ * 
+ * The time is System.nanoTime(), so that events can be lined up with the
+ * timelines of profilers. Vertices have no identity of their own, so they are
+ * identified by their identity hash code, which is stable for the life of the
+ * vertex but may, rarely, be shared by two of them.
+ */
+public class MeshTraceLog implements MeshTrace {
+
+    protected static final String[] STATES =
+	    { "ACTIVE", "HABITUATED", "CONNECTED", "SINGULAR", "DISK",
+		    "HALF_DISK", "PATCH", "BOUNDARY" };
+
+    protected final PrintWriter out;
+
+    /**
+     * The constructor
+     * 
+     * @param writer
+     *            receives the lines; errors can be checked with checkError()
+     */
+    public MeshTraceLog(Writer writer) {
+	out = new PrintWriter(new BufferedWriter(writer));
+	out.println("# time\ttick\tevent\tvertices\tposition");
+    }
+
+    /**
+     * Creates a log on a new file
+     * 
+     * @param file
+     * @throws IOException
+     */
+    public MeshTraceLog(File file) throws IOException {
+	this(new FileWriter(file));
+    }
+
+    public static int id(Vertex vertex) {
+	return System.identityHashCode(vertex);
+    }
+
+    public static String stateName(int state) {
+	return state >= 0 && state < STATES.length ? STATES[state] : Integer
+		.toString(state);
+    }
+
+    protected void begin(long tick, String event) {
+	out.print(System.nanoTime());
+	out.print('\t');
+	out.print(tick);
+	out.print('\t');
+	out.print(event);
+    }
+
+    protected void field(Object value) {
+	out.print('\t');
+	out.print(value);
+    }
+
+    protected void end(Vertex vertex) {
+	out.print('\t');
+	for (int i = 0; i < vertex.position.length; i++) {
+	    if (i > 0) {
+		out.print(' ');
+	    }
+	    out.print(vertex.position[i]);
+	}
+	out.println();
+    }
+
+    public synchronized void vertexCreated(long tick, Vertex vertex) {
+	begin(tick, "VERTEX_CREATED");
+	field(id(vertex));
+	end(vertex);
+    }
+
+    public synchronized void edgeAgedOut(long tick, Edge edge) {
+	begin(tick, "EDGE_AGED_OUT");
+	field(id(edge.start) + " " + id(edge.end));
+	end(edge.start);
+    }
+
+    public synchronized void vertexIsolated(long tick, Vertex vertex) {
+	begin(tick, "VERTEX_ISOLATED");
+	field(id(vertex));
+	end(vertex);
+    }
+
+    public synchronized void vertexInactive(long tick, Vertex vertex) {
+	begin(tick, "VERTEX_INACTIVE");
+	field(id(vertex));
+	end(vertex);
+    }
+
+    public synchronized void edgeFlipped(long tick, Edge edge, Vertex oldStart,
+	    Vertex oldEnd) {
+	begin(tick, "EDGE_FLIPPED");
+	field(id(oldStart) + " " + id(oldEnd) + " > " + id(edge.start) + " "
+		+ id(edge.end));
+	end(edge.start);
+    }
+
+    public synchronized void stateChanged(long tick, Vertex vertex,
+	    int oldState) {
+	begin(tick, "STATE_CHANGED");
+	field(id(vertex) + " " + stateName(oldState) + " > "
+		+ stateName(vertex.state));
+	end(vertex);
+    }
+
+    public synchronized void flush() {
+	out.flush();
+    }
+
+    /**
+     * Tells if writing has failed, flushing first
+     */
+    public synchronized boolean checkError() {
+	return out.checkError();
+    }
+
+    public synchronized void close() {
+	out.close();
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.algorithms;
+
+import java.util.Arrays;
+
+/**
+ * Latency histograms of the phases of GWR.iteration(), filled on the ticks
+ * that are sampled for timing.
+ * <p>
+ * Each histogram has eight buckets per power of two of nanoseconds, so
+ * percentiles are accurate to about 12%. Only the training thread records;
+ * readers such as the statistics viewer do not lock, and may see values that
+ * are slightly out of date.
+ */
+public class PhaseTimer {
+
+    /**
+     * The phases of an iteration, in order
+     */
+    public enum Phase {
+	SAMPLE_AND_FIND_WINNERS, UPDATE_OR_CREATE_EDGE, AGE_EDGES,
+	NEW_VERTEX_REQUIRED, CREATE_VERTEX, UPDATE_FIRING_COUNTERS,
+	ADAPT_POSITIONS, UPDATE_VERTEX, UPDATE_MESH
+    }
+
+    protected static final Phase[] PHASES = Phase.values();
+
+    // Buckets per power of two, as a power of two
+    protected static final int SUB_BITS = 3;
+    protected static final int SUB_BUCKETS = 1 << SUB_BITS;
+    protected static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    protected final long[][] histograms = new long[PHASES.length][BUCKETS];
+    protected final long[] counts = new long[PHASES.length];
+    protected final long[] totals = new long[PHASES.length];
+    protected final long[] minima = new long[PHASES.length];
+    protected final long[] maxima = new long[PHASES.length];
+
+    protected long sampledTicks;
+
+    public PhaseTimer() {
+	reset();
+    }
+
+    /**
+     * Clears all histograms
+     */
+    public void reset() {
+	for (int p = 0; p < PHASES.length; p++) {
+	    Arrays.fill(histograms[p], 0l);
+	    counts[p] = 0;
+	    totals[p] = 0;
+	    minima[p] = Long.MAX_VALUE;
+	    maxima[p] = 0;
+	}
+
+	sampledTicks = 0;
+    }
+
+    /**
+     * Records the end of a phase
+     *
+     * @param phase
+     * @param start
+     *            the System.nanoTime() when the phase started
+     * @return the current System.nanoTime(), to start the next phase
+     */
+    public long record(Phase phase, long start) {
+	long now = System.nanoTime();
+	long nanos = Math.max(now - start, 0l);
+
+	int p = phase.ordinal();
+	histograms[p][bucket(nanos)]++;
+	counts[p]++;
+	totals[p] += nanos;
+	minima[p] = Math.min(minima[p], nanos);
+	maxima[p] = Math.max(maxima[p], nanos);
+
+	return now;
+    }
+
+    /**
+     * Counts a timed tick
+     */
+    public void tick() {
+	sampledTicks++;
+    }
+
+    /**
+     * Maps a duration to its bucket
+     */
+    protected static int bucket(long nanos) {
+	if (nanos < SUB_BUCKETS) {
+	    return (int) nanos;
+	}
+
+	int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+	int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+
+	return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Gets the smallest duration of a bucket
+     */
+    protected static long bucketStart(int bucket) {
+	if (bucket < SUB_BUCKETS) {
+	    return bucket;
+	}
+
+	int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+	int sub = bucket % SUB_BUCKETS;
+
+	return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+    public long getSampledTicks() {
+	return sampledTicks;
+    }
+
+    /**
+     * Gets the number of times a phase was timed. CREATE_VERTEX is only
+     * timed when a vertex is actually created.
+     */
+    public long getCount(Phase phase) {
+	return counts[phase.ordinal()];
+    }
+
+    public long getTotalNanos(Phase phase) {
+	return totals[phase.ordinal()];
+    }
+
+    public double getMeanNanos(Phase phase) {
+	long count = counts[phase.ordinal()];
+	return count > 0 ? totals[phase.ordinal()] / (double) count : 0d;
+    }
+
+    public long getMinNanos(Phase phase) {
+	return counts[phase.ordinal()] > 0 ? minima[phase.ordinal()] : 0l;
+    }
+
+    public long getMaxNanos(Phase phase) {
+	return maxima[phase.ordinal()];
+    }
+
+    /**
+     * Estimates a percentile of the duration of a phase
+     *
+     * @param phase
+     * @param percentile
+     *            between 0 and 100
+     * @return the middle of the bucket that holds the percentile, in
+     *         nanoseconds, or 0 if the phase was never timed
+     */
+    public long getPercentileNanos(Phase phase, double percentile) {
+	int p = phase.ordinal();
+	long[] histogram = histograms[p];
+
+	long count = counts[p];
+	if (count == 0) {
+	    return 0l;
+	}
+
+	long rank = (long) Math.ceil(percentile / 100d * count);
+	rank = Math.max(1l, Math.min(rank, count));
+
+	long seen = 0;
+	for (int b = 0; b < histogram.length; b++) {
+	    seen += histogram[b];
+	    if (seen >= rank) {
+		long start = bucketStart(b);
+		long end = b + 1 < BUCKETS ? bucketStart(b + 1) : start;
+		long middle = start + (end - start) / 2;
+
+		return Math.max(minima[p], Math.min(middle, maxima[p]));
+	    }
+	}
+
+	return maxima[p];
+    }
+
+    /**
+     * Gets a copy of the histogram of a phase
+     *
+     * @param phase
+     * @return the counts, by bucket; see bucketStart()
+     */
+    public long[] getHistogram(Phase phase) {
+	return histograms[phase.ordinal()].clone();
+    }
+
+    /**
+     * Describes the timing of a phase
+     *
+     * @param phase
+     * @return the mean, median, 99th percentile and maximum in microseconds,
+     *         with the share of the total time of the timed ticks
+     */
+    public String summary(Phase phase) {
+	if (getCount(phase) == 0) {
+	    return "-";
+	}
+
+	long total = 0;
+	for (int p = 0; p < PHASES.length; p++) {
+	    total += totals[p];
+	}
+
+	return String.format("mean %.2f, p50 %.2f, p99 %.2f, max %.2f us"
+		+ " (%.1f%%, n %d)", getMeanNanos(phase) * 1e-3d,
+		getPercentileNanos(phase, 50d) * 1e-3d, getPercentileNanos(
+			phase, 99d) * 1e-3d, getMaxNanos(phase) * 1e-3d,
+		total > 0 ? 100d * getTotalNanos(phase) / total : 0d,
+		getCount(phase));
+    }
+
+    // Read-only properties, for the statistics viewer
+
+    public String getSampleAndFindWinners() {
+	return summary(Phase.SAMPLE_AND_FIND_WINNERS);
+    }
+
+    public String getUpdateOrCreateEdge() {
+	return summary(Phase.UPDATE_OR_CREATE_EDGE);
+    }
+
+    public String getAgeEdges() {
+	return summary(Phase.AGE_EDGES);
+    }
+
+    public String getNewVertexRequired() {
+	return summary(Phase.NEW_VERTEX_REQUIRED);
+    }
+
+    public String getCreateVertex() {
+	return summary(Phase.CREATE_VERTEX);
+    }
+
+    public String getUpdateFiringCounters() {
+	return summary(Phase.UPDATE_FIRING_COUNTERS);
+    }
+
+    public String getAdaptPositions() {
+	return summary(Phase.ADAPT_POSITIONS);
+    }
+
+    public String getUpdateVertex() {
+	return summary(Phase.UPDATE_VERTEX);
+    }
+
+    public String getUpdateMesh() {
+	return summary(Phase.UPDATE_MESH);
+    }
+
+    public String toString() {
+	StringBuilder builder = new StringBuilder();
+
+	for (Phase phase : PHASES) {
+	    builder.append(phase).append(": ").append(summary(phase)).append(
+		    '\n');
+	}
+
+	return builder.toString();
+    }
+}
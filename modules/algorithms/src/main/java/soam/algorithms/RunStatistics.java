@@ -0,0 +1,125 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.algorithms;
+
+/**
+ * The outcome and throughput of a bounded run of an algorithm, as returned by
+ * the futures of Executor.runTicks(), runFor() and runUntilConvergent().
+ * Instances are immutable.
+ */
+public final class RunStatistics {
+
+    /**
+     * Why the run ended
+     */
+    public enum Outcome {
+	/**
+	 * All the requested ticks were run
+	 */
+	TICKS_DONE,
+
+	/**
+	 * The requested time has elapsed
+	 */
+	TIME_ELAPSED,
+
+	/**
+	 * The algorithm has converged
+	 */
+	CONVERGENT,
+
+	/**
+	 * The executor was stopped, or the future cancelled
+	 */
+	STOPPED,
+
+	/**
+	 * The algorithm has thrown; only reported by ExecutorPool, whose
+	 * futures throw ExecutionException instead of returning it
+	 */
+	FAILED
+    }
+
+    private final Outcome outcome;
+    private final long startTick;
+    private final long ticks;
+    private final long elapsedNanos;
+
+    /**
+     * The constructor
+     *
+     * @param outcome
+     * @param startTick
+     *            the tick of the algorithm when the run started
+     * @param ticks
+     *            the number of ticks run
+     * @param elapsedNanos
+     *            the wall clock time of the run
+     */
+    public RunStatistics(Outcome outcome, long startTick, long ticks,
+	    long elapsedNanos) {
+	this.outcome = outcome;
+	this.startTick = startTick;
+	this.ticks = ticks;
+	this.elapsedNanos = elapsedNanos;
+    }
+
+    public Outcome getOutcome() {
+	return outcome;
+    }
+
+    public long getStartTick() {
+	return startTick;
+    }
+
+    public long getEndTick() {
+	return startTick + ticks;
+    }
+
+    public long getTicks() {
+	return ticks;
+    }
+
+    public long getElapsedNanos() {
+	return elapsedNanos;
+    }
+
+    /**
+     * Gets the throughput of the run
+     *
+     * @return ticks per second, or 0 if no time has elapsed
+     */
+    public double getTicksPerSecond() {
+	return elapsedNanos > 0 ? ticks * 1e9d / elapsedNanos : 0d;
+    }
+
+    /**
+     * Gets the average duration of a tick
+     *
+     * @return nanoseconds per tick, or 0 if no tick was run
+     */
+    public double getNanosPerTick() {
+	return ticks > 0 ? elapsedNanos / (double) ticks : 0d;
+    }
+
+    public String toString() {
+	return String.format("RunStatistics(%s, ticks %d-%d, %.3f s,"
+		+ " %.1f ticks/s)", outcome, startTick, getEndTick(),
+		elapsedNanos * 1e-9d, getTicksPerSecond());
+    }
+}
@@ -2,11 +2,11 @@
 
 package soam.algorithms;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 
 import soam.Edge;
 import soam.Vertex;
+import soam.sampling.PointCloud;
 
 public abstract class SOAM extends GWR {
 
@@ -410,6 +410,8 @@ public abstract class SOAM extends GWR {
 			return false;
 		    } else {
 			// OK, flip the edge
+			Vertex oldStart = edge.start;
+			Vertex oldEnd = edge.end;
 
 			edge.start.neighborhood.remove(edge);
 			edge.end.neighborhood.remove(edge);
@@ -423,6 +425,10 @@ public abstract class SOAM extends GWR {
 			// Refresh it (it's a new one)
 			edge.age = 0;
 
+			if (trace != null) {
+			    trace.edgeFlipped(tick, edge, oldStart, oldEnd);
+			}
+
 			return true;
 		    }
 		} else {
@@ -941,8 +947,13 @@ public abstract class SOAM extends GWR {
 	super.updateFiringCounters();
 
 	// Change the state of the bestMatching unit, if required
+	int oldState = bestMatching.state;
 	if (changeState(bestMatching)) {
 	    touch(bestMatching);
+
+	    if (trace != null) {
+		trace.stateChanged(tick, bestMatching, oldState);
+	    }
 	}
 
 	// Adapt insertion threshold
@@ -984,6 +995,10 @@ public abstract class SOAM extends GWR {
 		    }
 
 		    vertices.remove();
+
+		    if (trace != null) {
+			trace.vertexInactive(tick, vertex);
+		    }
 		}
 	    }
 	}
@@ -1108,14 +1123,18 @@ public abstract class SOAM extends GWR {
     }
 
     protected double computeQuantizationError() {
-	ArrayList<double[]> pointCloud = sampler.getPointCloud();
+	PointCloud pointCloud = sampler.getPointCloud();
 
 	if (pointCloud == null) {
 	    return 0d;
 	}
 
+	double[] point = new double[pointCloud.getDimensions()];
+
 	double error = 0d;
-	for (double[] point : pointCloud) {
+	for (int i = 0; i < pointCloud.size(); i++) {
+	    pointCloud.getPoint(i, point);
+
 	    double squaredDistance = Double.MAX_VALUE;
 
 	    for (Vertex vertex : mesh.vertexlist) {
@@ -0,0 +1,73 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.sampling;
+
+import java.util.ArrayList;
+
+/**
+ * Implements the bulk accessors of PointCloud in terms of get(int, int):
+ * subclasses backed by a contiguous array should override them.
+ */
+public abstract class AbstractPointCloud implements PointCloud {
+
+    // Built lazily, for legacy callers
+    protected volatile ArrayList<double[]> pointList;
+
+    public void getPoint(int i, double[] point) {
+	for (int d = 0; d < getDimensions(); d++) {
+	    point[d] = get(i, d);
+	}
+    }
+
+    public void copy(int from, int count, double[] coordinates, int offset) {
+	int dimensions = getDimensions();
+
+	for (int i = 0; i < count; i++) {
+	    for (int d = 0; d < dimensions; d++) {
+		coordinates[offset++] = get(from + i, d);
+	    }
+	}
+    }
+
+    public void copy(int from, int count, float[] coordinates, int offset) {
+	int dimensions = getDimensions();
+
+	for (int i = 0; i < count; i++) {
+	    for (int d = 0; d < dimensions; d++) {
+		coordinates[offset++] = (float) get(from + i, d);
+	    }
+	}
+    }
+
+    public ArrayList<double[]> toArrayList() {
+	ArrayList<double[]> list = pointList;
+
+	if (list == null) {
+	    list = new ArrayList<double[]>(size());
+	    for (int i = 0; i < size(); i++) {
+		double[] point = new double[getDimensions()];
+		getPoint(i, point);
+		list.add(point);
+	    }
+
+	    pointList = list;
+	}
+
+	return list;
+    }
+}
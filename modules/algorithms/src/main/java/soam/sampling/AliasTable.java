@@ -0,0 +1,131 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.sampling;
+
+import java.util.Random;
+
+/**
+ * Selects an index at random, with probability proportional to its weight, in
+ * constant time and with a single random draw. Weights are fixed: the table
+ * must be rebuilt whenever they change.
+ *
+ * @see "Vose, M. D., <i>A Linear Algorithm for Generating Random Numbers with
+ *      a Given Distribution</i>, IEEE Transactions on Software Engineering,
+ *      17(9), 1991"
+ */
+public class AliasTable {
+
+    protected final int size;
+    protected final double totalWeight;
+
+    // Probability of keeping index i rather than taking its alias
+    protected final double[] probability;
+    protected final int[] alias;
+
+    /**
+     * Builds the table
+     *
+     * @param weights
+     *            non-negative weights, not all zero
+     */
+    public AliasTable(double[] weights) {
+	size = weights.length;
+
+	double total = 0d;
+	for (int i = 0; i < size; i++) {
+	    if (!(weights[i] >= 0d) || Double.isInfinite(weights[i])) {
+		throw new IllegalArgumentException("Invalid weight "
+			+ weights[i] + " at " + i);
+	    }
+	    total += weights[i];
+	}
+
+	if (!(total > 0d)) {
+	    throw new IllegalArgumentException("All weights are zero");
+	}
+
+	totalWeight = total;
+	probability = new double[size];
+	alias = new int[size];
+
+	// Weights scaled so that their average is 1
+	double[] scaled = new double[size];
+	int[] small = new int[size];
+	int[] large = new int[size];
+	int smallCount = 0;
+	int largeCount = 0;
+
+	for (int i = 0; i < size; i++) {
+	    scaled[i] = weights[i] * size / total;
+	    if (scaled[i] < 1d) {
+		small[smallCount++] = i;
+	    } else {
+		large[largeCount++] = i;
+	    }
+	}
+
+	while (smallCount > 0 && largeCount > 0) {
+	    int less = small[--smallCount];
+	    int more = large[--largeCount];
+
+	    probability[less] = scaled[less];
+	    alias[less] = more;
+
+	    scaled[more] = (scaled[more] + scaled[less]) - 1d;
+	    if (scaled[more] < 1d) {
+		small[smallCount++] = more;
+	    } else {
+		large[largeCount++] = more;
+	    }
+	}
+
+	// Left overs are 1, up to rounding
+	while (largeCount > 0) {
+	    int i = large[--largeCount];
+	    probability[i] = 1d;
+	    alias[i] = i;
+	}
+	while (smallCount > 0) {
+	    int i = small[--smallCount];
+	    probability[i] = 1d;
+	    alias[i] = i;
+	}
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public double getTotalWeight() {
+	return totalWeight;
+    }
+
+    /**
+     * Draws an index
+     *
+     * @param random
+     * @return an index in [0, size)
+     */
+    public int next(Random random) {
+	double u = random.nextDouble() * size;
+	int i = Math.min((int) u, size - 1);
+
+	// The fractional part is uniform in [0, 1) as well
+	return (u - i) < probability[i] ? i : alias[i];
+    }
+}
@@ -17,47 +17,40 @@
 
 package soam.sampling;
 
-import java.util.Random;
-
-public class BoySurfaceSampler implements ComponentSampler {
+public class BoySurfaceSampler extends ParametricSurfaceSampler {
     protected static final double BASIC_SCALE = 256;
     protected static final double SCALE = BASIC_SCALE / Math.PI;
 
-    protected int dimensions;
-
-    protected Random random;
+    protected static final double SQRT_2 = Math.sqrt(2);
 
     public BoySurfaceSampler(int dimensions) {
-	if (dimensions < 3) {
-	    throw new RuntimeException("Unsupported dimensions: " + dimensions);
-	}
-
-	this.dimensions = dimensions;
-	random = new Random();
+	super(dimensions, -Math.PI / 2, Math.PI / 2, -Math.PI / 2,
+		Math.PI / 2);
     }
 
-    public double[] nextSample() {
-	double u = (random.nextDouble() * Math.PI) - Math.PI / 2;
-	double v = (random.nextDouble() * Math.PI) - Math.PI / 2;
+    protected void evaluate(double u, double v, double[] sample) {
+	double cosU = Math.cos(u);
+	double sinU = Math.sin(u);
+	double cosV = Math.cos(v);
+	double sinV = Math.sin(v);
+
+	double sin2U = 2 * sinU * cosU;
+	double cos2V = cosV * cosV - sinV * sinV;
+	double sin2V = 2 * sinV * cosV;
+	double sin3V = sinV * (3 - 4 * sinV * sinV);
 
-	double[] sample = new double[dimensions];
+	double denominator = SQRT_2 - sin2U * sin3V;
 
 	sample[0] =
-		(2 / 3d)
-			* (Math.cos(u) * Math.cos(2 * v) + Math.sqrt(2)
-				* Math.sin(u) * Math.cos(v)) * Math.cos(u)
-			/ (Math.sqrt(2) - Math.sin(2 * u) * Math.sin(3 * v));
+		(2 / 3d) * (cosU * cos2V + SQRT_2 * sinU * cosV) * cosU
+			/ denominator;
 	sample[1] =
-		(2 / 3d)
-			* (Math.cos(u) * Math.sin(2 * v) - Math.sqrt(2)
-				* Math.sin(u) * Math.sin(v)) * Math.cos(u)
-			/ (Math.sqrt(2) - Math.sin(2 * u) * Math.sin(3 * v));
-	sample[2] =
-		Math.sqrt(2) * Math.pow(Math.cos(u), 2)
-			/ (Math.sqrt(2) - Math.sin(2 * u) * Math.sin(2 * v));
+		(2 / 3d) * (cosU * sin2V - SQRT_2 * sinU * sinV) * cosU
+			/ denominator;
+	sample[2] = SQRT_2 * cosU * cosU / (SQRT_2 - sin2U * sin2V);
 
 	for (int i = 3; i < dimensions; i++) {
-	    sample[i] = (Math.cos(u) + Math.cos(v)) / 2d;
+	    sample[i] = (cosU + cosV) / 2d;
 	}
 
 	// Scale & translate
@@ -68,15 +61,5 @@ public class BoySurfaceSampler implements ComponentSampler {
 	for (int i = 3; i < dimensions; i++) {
 	    sample[i] = sample[i] * BASIC_SCALE;
 	}
-
-	return sample;
-    }
-
-    public int getDimensions() {
-	return dimensions;
-    }
-
-    public double getArea() {
-	throw new RuntimeException("Method not implemented");
     }
 }
@@ -16,7 +16,6 @@
 
 package soam.sampling;
 
-import java.util.ArrayList;
 import java.util.Random;
 import java.awt.image.BufferedImage;
 
@@ -94,7 +93,7 @@ public class CurveIn3DSampler implements Sampler {
 	return null;
     }
 
-    public ArrayList<double[]> getPointCloud() {
+    public PointCloud getPointCloud() {
 	return null;
     }
 
@@ -0,0 +1,290 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.sampling;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Random;
+
+import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
+
+import soam.algorithms.Algorithm;
+
+/**
+ * Samples a measured curve, read by DatafileCurveSampling from a file of x
+ * and a file of z coordinates, uniformly along its arc length rather than
+ * per vertex, so that unevenly spaced measurements do not bias the density.
+ * The curve lies in the middle x, z plane of the usual cubic box.
+ */
+public class DatafileCurveSampler implements Sampler {
+    protected final static double CUBE_SIZE = 256d;
+
+    // Draws within a radius, before clipping every segment
+    protected static final int MAX_REJECTION = 32;
+
+    protected static String defaultPath = System.getProperty("user.dir");
+
+    protected File xFile;
+    protected File zFile;
+
+    protected Random random;
+
+    // Scaled to fit the box
+    protected DatafileCurveSampling curve;
+
+    protected PointCloud pointCloud;
+
+    public boolean initialize(Algorithm algorithm) {
+
+	random = new Random();
+
+	while (true) {
+	    xFile = chooseFile("X data file");
+	    if (xFile == null) {
+		return false;
+	    }
+
+	    zFile = chooseFile("Z data file");
+	    if (zFile == null) {
+		return false;
+	    }
+
+	    try {
+		DatafileCurveSampling loaded =
+			DatafileCurveSampling.createFrom(xFile.getPath(), zFile
+				.getPath());
+
+		if (loaded.size() < 2) {
+		    throw new RuntimeException("Not enough vertices");
+		}
+
+		curve = fit(loaded);
+
+	    } catch (Exception e) {
+		JOptionPane.showMessageDialog(null, "Could not load curve from \""
+			+ xFile.getPath() + "\" and \"" + zFile.getPath()
+			+ "\"", "Error", JOptionPane.ERROR_MESSAGE);
+		continue;
+	    }
+
+	    break;
+	}
+
+	pointCloud = null;
+
+	return true;
+    }
+
+    protected File chooseFile(String title) {
+	JFileChooser fc = new JFileChooser(defaultPath);
+	fc.setDialogTitle(this.getClass().getName() + " : " + title);
+
+	if (fc.showOpenDialog(null) != JFileChooser.APPROVE_OPTION) {
+	    return null;
+	}
+
+	File file = fc.getSelectedFile();
+	defaultPath = file.getAbsolutePath();
+
+	return file;
+    }
+
+    /**
+     * Moves and rescales a curve to fit the cubic box, preserving its
+     * proportions
+     *
+     * @return the new curve, with its arc lengths
+     */
+    protected static DatafileCurveSampling fit(DatafileCurveSampling loaded) {
+	double minX = Double.MAX_VALUE;
+	double maxX = -Double.MAX_VALUE;
+	double minZ = Double.MAX_VALUE;
+	double maxZ = -Double.MAX_VALUE;
+
+	for (int i = 0; i < loaded.size(); i++) {
+	    minX = Math.min(minX, loaded.X[i]);
+	    maxX = Math.max(maxX, loaded.X[i]);
+	    minZ = Math.min(minZ, loaded.Z[i]);
+	    maxZ = Math.max(maxZ, loaded.Z[i]);
+	}
+
+	double extent = Math.max(maxX - minX, maxZ - minZ);
+	double scale = extent > 0d ? CUBE_SIZE / extent : 1d;
+
+	DatafileCurveSampling fitted = new DatafileCurveSampling();
+	fitted.X = new double[loaded.size()];
+	fitted.Z = new double[loaded.size()];
+
+	for (int i = 0; i < loaded.size(); i++) {
+	    fitted.X[i] =
+		    (loaded.X[i] - (minX + maxX) / 2) * scale + CUBE_SIZE / 2;
+	    fitted.Z[i] =
+		    (loaded.Z[i] - (minZ + maxZ) / 2) * scale + CUBE_SIZE / 2;
+	}
+
+	fitted.computeArcLengths();
+
+	return fitted;
+    }
+
+    public void reset() {
+	return;
+    }
+
+    public int getDimensions() {
+	return 3;
+    }
+
+    public String getDescription() {
+	return "";
+    }
+
+    public BufferedImage getBufferedImage() {
+	return null;
+    }
+
+    /**
+     * Gets the vertices of the curve
+     *
+     * @return the point cloud
+     */
+    public PointCloud getPointCloud() {
+	if (pointCloud == null) {
+	    double[] coordinates = new double[3 * curve.size()];
+
+	    for (int i = 0; i < curve.size(); i++) {
+		coordinates[3 * i] = curve.X[i];
+		coordinates[3 * i + 1] = CUBE_SIZE / 2;
+		coordinates[3 * i + 2] = curve.Z[i];
+	    }
+
+	    pointCloud = new FlatPointCloud(0, 3, curve.size(), coordinates);
+	}
+
+	return pointCloud;
+    }
+
+    public double[] nextSample() {
+	double[] planar = new double[2];
+	curve.nextPoint(random, planar);
+
+	return new double[] { planar[0], CUBE_SIZE / 2, planar[1] };
+    }
+
+    /**
+     * Draws a point uniformly along the part of the curve within a sphere.
+     * A few uniform draws are tried first; if they all miss, the segments are
+     * clipped to the sphere and the point is drawn from the clipped lengths.
+     */
+    public double[] nextSample(final double[] point, double radius) {
+	double dy = point[1] - CUBE_SIZE / 2;
+	double squared = radius * radius - dy * dy;
+
+	if (!(squared > 0d)) {
+	    // The sphere does not reach the curve: any point will do
+	    return nextSample();
+	}
+
+	double[] planar = new double[2];
+	for (int r = 0; r < MAX_REJECTION; r++) {
+	    curve.nextPoint(random, planar);
+
+	    double dx = planar[0] - point[0];
+	    double dz = planar[1] - point[2];
+	    if (dx * dx + dz * dz <= squared) {
+		return new double[] { planar[0], CUBE_SIZE / 2, planar[1] };
+	    }
+	}
+
+	double[] clip = new double[2];
+
+	double total = 0d;
+	for (int i = 0; i < curve.size() - 1; i++) {
+	    total += clipSegment(i, point[0], point[2], squared, clip);
+	}
+
+	if (!(total > 0d)) {
+	    return nextSample();
+	}
+
+	double target = random.nextDouble() * total;
+	int last = -1;
+	for (int i = 0; i < curve.size() - 1; i++) {
+	    double length = clipSegment(i, point[0], point[2], squared, clip);
+	    if (length > 0d) {
+		last = i;
+		if (target < length) {
+		    return segmentPoint(i, clip[0] + target / length
+			    * (clip[1] - clip[0]));
+		}
+		target -= length;
+	    }
+	}
+
+	// Rounding, the target is just past the last piece
+	clipSegment(last, point[0], point[2], squared, clip);
+	return segmentPoint(last, clip[1]);
+    }
+
+    /**
+     * Clips a segment of the curve to a disc
+     *
+     * @param clip
+     *            the parameters, between 0 and 1, where the segment enters
+     *            and leaves the disc
+     * @return the length of the segment within the disc
+     */
+    protected double clipSegment(int i, double x, double z, double squared,
+	    double[] clip) {
+	double fx = curve.X[i] - x;
+	double fz = curve.Z[i] - z;
+	double dx = curve.X[i + 1] - curve.X[i];
+	double dz = curve.Z[i + 1] - curve.Z[i];
+
+	double a = dx * dx + dz * dz;
+	if (!(a > 0d)) {
+	    return 0d;
+	}
+
+	double b = fx * dx + fz * dz;
+	double c = fx * fx + fz * fz - squared;
+	double discriminant = b * b - a * c;
+	if (discriminant <= 0d) {
+	    return 0d;
+	}
+
+	double root = Math.sqrt(discriminant);
+	clip[0] = Math.max((-b - root) / a, 0d);
+	clip[1] = Math.min((-b + root) / a, 1d);
+
+	return clip[0] < clip[1] ? (clip[1] - clip[0]) * Math.sqrt(a) : 0d;
+    }
+
+    protected double[] segmentPoint(int i, double t) {
+	return new double[] {
+		curve.X[i] + t * (curve.X[i + 1] - curve.X[i]),
+		CUBE_SIZE / 2,
+		curve.Z[i] + t * (curve.Z[i + 1] - curve.Z[i]) };
+    }
+
+    public String toString() {
+	return this.getClass().getSimpleName() + "(\"" + xFile.getPath()
+		+ "\", \"" + zFile.getPath() + "\")";
+    }
+}
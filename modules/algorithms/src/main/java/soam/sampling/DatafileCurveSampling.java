@@ -17,56 +17,128 @@
 package soam.sampling;
 
 import java.io.*;
+import java.util.Random;
 import java.util.StringTokenizer;
 import java.util.ArrayList;
 
+import soam.utils.NumberStreamParser;
+
+/**
+ * A curve in the x, z plane, measured as a polyline whose vertex coordinates
+ * are read from two separate data files. The cumulative arc length at each
+ * vertex is kept in a table, so that points can be located, and drawn
+ * uniformly along the curve, by binary search.
+ */
 public class DatafileCurveSampling {
 
 	public double[] X;
 	public double[] Z;
-	
-	
+
+	// The length of the polyline up to each vertex
+	public double[] arcLengths;
+
 	public static DatafileCurveSampling createFrom(String xinv, String zinv)
 			throws IOException {
 
 		DatafileCurveSampling sample = new DatafileCurveSampling();
 
-		File inputFile;
-		FileReader fr;
-		BufferedReader in;
-		ArrayList<Double> list;
+		sample.X = NumberStreamParser.parse(new File(xinv));
+		sample.Z = NumberStreamParser.parse(new File(zinv));
 
-		// Load Xinv file
-		inputFile = new File(xinv);
+		if (sample.X.length != sample.Z.length) {
+			throw new IOException("Files \"" + xinv + "\" and \"" + zinv
+					+ "\" have different numbers of values");
+		}
 
-		fr = new FileReader(inputFile);
-		in = new BufferedReader(fr);
-		list = createFrom(in.readLine());
+		sample.computeArcLengths();
 
-		sample.X = new double[list.size()];
-		for (int i = 0; i < sample.X.length; i++) {
-			sample.X[i] = list.get(i).doubleValue();
+		return sample;
+	}
+
+	/**
+	 * Fills the table of cumulative arc lengths. Must be called again
+	 * whenever the coordinates change.
+	 */
+	public void computeArcLengths() {
+		arcLengths = new double[X.length];
+
+		for (int i = 1; i < X.length; i++) {
+			double dx = X[i] - X[i - 1];
+			double dz = Z[i] - Z[i - 1];
+			arcLengths[i] = arcLengths[i - 1] + Math.sqrt(dx * dx + dz * dz);
 		}
+	}
 
-		in.close();
-		fr.close();
+	public int size() {
+		return X.length;
+	}
 
-		// Load Zinv file
-		inputFile = new File(zinv);
+	/**
+	 * Gets the total length of the polyline
+	 * 
+	 * @return the length
+	 */
+	public double getLength() {
+		return arcLengths.length > 0 ? arcLengths[arcLengths.length - 1] : 0d;
+	}
 
-		fr = new FileReader(inputFile);
-		in = new BufferedReader(fr);
-		list = createFrom(in.readLine());
+	/**
+	 * Finds the segment of the polyline that contains a given arc length
+	 * 
+	 * @param s
+	 *            the arc length from the first vertex
+	 * @return the index of the first vertex of the segment
+	 */
+	public int segment(double s) {
+		// The last vertex, but one, whose arc length does not exceed s
+		int low = 0;
+		int high = arcLengths.length - 2;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (arcLengths[middle] <= s) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		return low;
+	}
 
-		sample.Z = new double[list.size()];
-		for (int i = 0; i < sample.Z.length; i++) {
-			sample.Z[i] = list.get(i).doubleValue();
+	/**
+	 * Gets the point at a given arc length from the first vertex
+	 * 
+	 * @param s
+	 *            the arc length, clamped to the curve
+	 * @param point
+	 *            the x and z coordinates, overwritten
+	 */
+	public void getPoint(double s, double[] point) {
+		if (X.length == 1) {
+			point[0] = X[0];
+			point[1] = Z[0];
+			return;
 		}
 
-		in.close();
-		fr.close();
+		int i = segment(s);
 
-		return sample;
+		double length = arcLengths[i + 1] - arcLengths[i];
+		double t = length > 0d ? (s - arcLengths[i]) / length : 0d;
+		t = Math.max(0d, Math.min(t, 1d));
+
+		point[0] = X[i] + t * (X[i + 1] - X[i]);
+		point[1] = Z[i] + t * (Z[i + 1] - Z[i]);
+	}
+
+	/**
+	 * Draws a point uniformly along the curve
+	 * 
+	 * @param random
+	 * @param point
+	 *            the x and z coordinates, overwritten
+	 */
+	public void nextPoint(Random random, double[] point) {
+		getPoint(random.nextDouble() * getLength(), point);
 	}
 
 	public static ArrayList<Double> createFrom(String row) {
@@ -97,7 +169,8 @@ public class DatafileCurveSampling {
 		}
 
 		DatafileCurveSampling sample = DatafileCurveSampling.createFrom(args[0], args[1]);
-		System.out.println(sample);
+		System.out.println(sample.size() + " vertices, length "
+				+ sample.getLength());
 
 		System.out.println("Ok");
 	}
@@ -17,7 +17,6 @@
 
 package soam.sampling;
 
-import java.util.ArrayList;
 import java.util.Random;
 import java.awt.image.BufferedImage;
 
@@ -29,6 +28,21 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
     protected final static double CUBE_SIZE = 256d;
     protected final static int MAX_RETRIES = 1024;
 
+    // Surface patches, as indexes of the patch selector
+    protected final static int PATCH_C1_SPHERICAL_CAP = 0;
+    protected final static int PATCH_C1_BASE = 1;
+    protected final static int PATCH_C1_SIDE = 2;
+    protected final static int PATCH_C1_TOROIDAL = 3;
+    protected final static int PATCH_C2_SPHERICAL_CAP = 4;
+    protected final static int PATCH_C2_BASE = 5;
+    protected final static int PATCH_C2_SIDE = 6;
+    protected final static int PATCH_C2_TOROIDAL = 7;
+    protected final static int PATCH_C1_TOROIDAL_HS = 8;
+    protected final static int PATCH_C2_TOROIDAL_HS = 9;
+    protected final static int PATCH_HOT_SPOT_1 = 10;
+    protected final static int PATCH_HOT_SPOT_2 = 11;
+    protected final static int PATCHES = 12;
+
     protected Algorithm algorithm;
 
     protected double C1_HEIGHT = 50d;
@@ -91,6 +105,9 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
     protected double cone1ToroidalHsArea;
     protected double cone2ToroidalHsArea;
 
+    // Null if no patch can be sampled
+    protected volatile AliasTable patchSelector;
+
     protected Random random;
 
     public boolean initialize(Algorithm algorithm) {
@@ -122,14 +139,14 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
 	return null;
     }
 
-    public ArrayList<double[]> getPointCloud() {
+    public PointCloud getPointCloud() {
 	return null;
     }
 
     /**
-     * This method must ensure a non-null sample. Retries are performed only
-     * when sampling of some surface patches is disabled. It will not happen
-     * under normal circumstances.
+     * This method must ensure a non-null sample. Disabled surface patches are
+     * never selected, hence sampling fails only when all of them are
+     * disabled.
      */
     public double[] nextSample() {
 	for (int r = 0; r < MAX_RETRIES; r++) {
@@ -150,99 +167,73 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
     }
 
     protected double[] basicNextSample() {
-	double v = random.nextDouble() * totalArea;
+	AliasTable selector = patchSelector;
+	if (selector == null) {
+	    return null;
+	}
 
-	if (v < cone1SphericalCapArea) {
-	    if (SAMPLE_C1_SPHERICAL_CAP) {
-		return sampleCone1SphericalCap();
-	    } else {
-		return null;
-	    }
-	} else if (v < cone1SphericalCapArea + cone1BaseArea) {
-	    if (SAMPLE_C1_BASE) {
-		return sampleCone1Base();
-	    } else {
-		return null;
-	    }
-	} else if (v < cone1SphericalCapArea + cone1BaseArea + cone1SideArea) {
-	    if (SAMPLE_C1_SIDE) {
-		return sampleCone1Side();
-	    } else {
-		return null;
-	    }
-	} else if (v < cone1SphericalCapArea + cone1BaseArea + cone1SideArea
-		+ cone1ToroidalPatchArea) {
-	    if (SAMPLE_C1_TOROIDAL) {
-		return sampleCone1ToroidalPatch(false);
-	    } else {
-		return null;
-	    }
-	} else if (v < cone1SphericalCapArea + cone1BaseArea + cone1SideArea
-		+ cone1ToroidalPatchArea + cone1SphericalCapArea) {
-	    if (SAMPLE_C2_SPHERICAL_CAP) {
-		return sampleCone2SphericalCap();
-	    } else {
-		return null;
-	    }
-	} else if (v < cone1SphericalCapArea + cone1BaseArea + cone1SideArea
-		+ cone1ToroidalPatchArea + cone1SphericalCapArea
-		+ cone2BaseArea) {
-	    if (SAMPLE_C2_BASE) {
-		return sampleCone2Base();
-	    } else {
-		return null;
-	    }
-	} else if (v < cone1SphericalCapArea + cone1BaseArea + cone1SideArea
-		+ cone1ToroidalPatchArea + cone1SphericalCapArea
-		+ cone2BaseArea + cone2SideArea) {
-	    if (SAMPLE_C2_SIDE) {
-		return sampleCone2Side();
-	    } else {
-		return null;
-	    }
-	} else if (v < cone1SphericalCapArea + cone1BaseArea + cone1SideArea
-		+ cone1ToroidalPatchArea + cone1SphericalCapArea
-		+ cone2BaseArea + cone2SideArea + cone2ToroidalPatchArea) {
-	    if (SAMPLE_C2_TOROIDAL) {
-		return sampleCone2ToroidalPatch(false);
-	    } else {
-		return null;
-	    }
-	} else if (v < cone1SphericalCapArea + cone1BaseArea + cone1SideArea
-		+ cone1ToroidalPatchArea + cone1SphericalCapArea
-		+ cone2BaseArea + cone2SideArea + cone2ToroidalPatchArea
-		+ cone1ToroidalHsArea) {
-	    if (SAMPLE_C1_TOROIDAL_HS) {
-		return sampleCone1ToroidalPatch(true);
-	    } else {
-		return null;
-	    }
-	} else if (v < cone1SphericalCapArea + cone1BaseArea + cone1SideArea
-		+ cone1ToroidalPatchArea + cone1SphericalCapArea
-		+ cone2BaseArea + cone2SideArea + cone2ToroidalPatchArea
-		+ cone1ToroidalHsArea + cone2ToroidalHsArea) {
-	    if (SAMPLE_C2_TOROIDAL_HS) {
-		return sampleCone2ToroidalPatch(true);
-	    } else {
-		return null;
-	    }
-	} else {
-	    v = random.nextDouble();
-	    if (v < 0.5d) {
-		if (SAMPLE_HOT_SPOT_1) {
-		    return sampleHotSpot(cone1hs1Theta, cone2hs1Theta,
-			    hs1Normal);
-		} else {
-		    return null;
-		}
-	    } else {
-		if (SAMPLE_HOT_SPOT_2) {
-		    return sampleHotSpot(cone1hs2Theta, cone2hs2Theta,
-			    hs2Normal);
-		} else {
-		    return null;
-		}
-	    }
+	switch (selector.next(random)) {
+	case PATCH_C1_SPHERICAL_CAP:
+	    return sampleCone1SphericalCap();
+	case PATCH_C1_BASE:
+	    return sampleCone1Base();
+	case PATCH_C1_SIDE:
+	    return sampleCone1Side();
+	case PATCH_C1_TOROIDAL:
+	    return sampleCone1ToroidalPatch(false);
+	case PATCH_C2_SPHERICAL_CAP:
+	    return sampleCone2SphericalCap();
+	case PATCH_C2_BASE:
+	    return sampleCone2Base();
+	case PATCH_C2_SIDE:
+	    return sampleCone2Side();
+	case PATCH_C2_TOROIDAL:
+	    return sampleCone2ToroidalPatch(false);
+	case PATCH_C1_TOROIDAL_HS:
+	    return sampleCone1ToroidalPatch(true);
+	case PATCH_C2_TOROIDAL_HS:
+	    return sampleCone2ToroidalPatch(true);
+	case PATCH_HOT_SPOT_1:
+	    return sampleHotSpot(cone1hs1Theta, cone2hs1Theta, hs1Normal);
+	default:
+	    return sampleHotSpot(cone1hs2Theta, cone2hs2Theta, hs2Normal);
+	}
+    }
+
+    /**
+     * Rebuilds the patch selector: the probability of each enabled patch is
+     * proportional to its area, disabled patches are never selected
+     */
+    protected void buildPatchSelector() {
+	double[] weights = new double[PATCHES];
+
+	weights[PATCH_C1_SPHERICAL_CAP] =
+		SAMPLE_C1_SPHERICAL_CAP ? cone1SphericalCapArea : 0d;
+	weights[PATCH_C1_BASE] = SAMPLE_C1_BASE ? cone1BaseArea : 0d;
+	weights[PATCH_C1_SIDE] = SAMPLE_C1_SIDE ? cone1SideArea : 0d;
+	weights[PATCH_C1_TOROIDAL] =
+		SAMPLE_C1_TOROIDAL ? cone1ToroidalPatchArea : 0d;
+	weights[PATCH_C2_SPHERICAL_CAP] =
+		SAMPLE_C2_SPHERICAL_CAP ? cone2SphericalCapArea : 0d;
+	weights[PATCH_C2_BASE] = SAMPLE_C2_BASE ? cone2BaseArea : 0d;
+	weights[PATCH_C2_SIDE] = SAMPLE_C2_SIDE ? cone2SideArea : 0d;
+	weights[PATCH_C2_TOROIDAL] =
+		SAMPLE_C2_TOROIDAL ? cone2ToroidalPatchArea : 0d;
+	weights[PATCH_C1_TOROIDAL_HS] =
+		SAMPLE_C1_TOROIDAL_HS ? cone1ToroidalHsArea : 0d;
+	weights[PATCH_C2_TOROIDAL_HS] =
+		SAMPLE_C2_TOROIDAL_HS ? cone2ToroidalHsArea : 0d;
+
+	// The two hot spots share the same area
+	weights[PATCH_HOT_SPOT_1] =
+		SAMPLE_HOT_SPOT_1 ? 0.5d * coneSideHsArea : 0d;
+	weights[PATCH_HOT_SPOT_2] =
+		SAMPLE_HOT_SPOT_2 ? 0.5d * coneSideHsArea : 0d;
+
+	try {
+	    patchSelector = new AliasTable(weights);
+	} catch (IllegalArgumentException e) {
+	    patchSelector = null;
 	}
     }
 
@@ -434,6 +425,8 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
 			+ cone2BaseArea + cone2SideArea
 			+ cone2ToroidalPatchArea + cone1ToroidalHsArea
 			+ cone2ToroidalHsArea + coneSideHsArea;
+
+	buildPatchSelector();
     }
 
     protected double[] sampleCone1SphericalCap() {
@@ -864,6 +857,7 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
 
     public void setSAMPLE_C1_SPHERICAL_CAP(boolean sample_c1_spherical_cap) {
         SAMPLE_C1_SPHERICAL_CAP = sample_c1_spherical_cap;
+	buildPatchSelector();
     }
 
     public boolean isSAMPLE_C1_BASE() {
@@ -872,6 +866,7 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
 
     public void setSAMPLE_C1_BASE(boolean sample_c1_base) {
         SAMPLE_C1_BASE = sample_c1_base;
+	buildPatchSelector();
     }
 
     public boolean isSAMPLE_C1_SIDE() {
@@ -880,6 +875,7 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
 
     public void setSAMPLE_C1_SIDE(boolean sample_c1_side) {
         SAMPLE_C1_SIDE = sample_c1_side;
+	buildPatchSelector();
     }
 
     public boolean isSAMPLE_C1_TOROIDAL() {
@@ -888,6 +884,7 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
 
     public void setSAMPLE_C1_TOROIDAL(boolean sample_c1_toroidal) {
         SAMPLE_C1_TOROIDAL = sample_c1_toroidal;
+	buildPatchSelector();
     }
 
     public boolean isSAMPLE_C2_SPHERICAL_CAP() {
@@ -896,6 +893,7 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
 
     public void setSAMPLE_C2_SPHERICAL_CAP(boolean sample_c2_spherical_cap) {
         SAMPLE_C2_SPHERICAL_CAP = sample_c2_spherical_cap;
+	buildPatchSelector();
     }
 
     public boolean isSAMPLE_C2_BASE() {
@@ -904,6 +902,7 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
 
     public void setSAMPLE_C2_BASE(boolean sample_c2_base) {
         SAMPLE_C2_BASE = sample_c2_base;
+	buildPatchSelector();
     }
 
     public boolean isSAMPLE_C2_SIDE() {
@@ -912,6 +911,7 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
 
     public void setSAMPLE_C2_SIDE(boolean sample_c2_side) {
         SAMPLE_C2_SIDE = sample_c2_side;
+	buildPatchSelector();
     }
 
     public boolean isSAMPLE_C2_TOROIDAL() {
@@ -920,6 +920,7 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
 
     public void setSAMPLE_C2_TOROIDAL(boolean sample_c2_toroidal) {
         SAMPLE_C2_TOROIDAL = sample_c2_toroidal;
+	buildPatchSelector();
     }
 
     public boolean isSAMPLE_C1_TOROIDAL_HS() {
@@ -928,6 +929,7 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
 
     public void setSAMPLE_C1_TOROIDAL_HS(boolean sample_c1_toroidal_hs) {
         SAMPLE_C1_TOROIDAL_HS = sample_c1_toroidal_hs;
+	buildPatchSelector();
     }
 
     public boolean isSAMPLE_C2_TOROIDAL_HS() {
@@ -936,6 +938,7 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
 
     public void setSAMPLE_C2_TOROIDAL_HS(boolean sample_c2_toroidal_hs) {
         SAMPLE_C2_TOROIDAL_HS = sample_c2_toroidal_hs;
+	buildPatchSelector();
     }
 
     public boolean isSAMPLE_HOT_SPOT_1() {
@@ -944,6 +947,7 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
 
     public void setSAMPLE_HOT_SPOT_1(boolean sample_hot_spot_1) {
         SAMPLE_HOT_SPOT_1 = sample_hot_spot_1;
+	buildPatchSelector();
     }
 
     public boolean isSAMPLE_HOT_SPOT_2() {
@@ -952,5 +956,6 @@ public class ExcludedRegionSpheroConesSampler implements Sampler {
 
     public void setSAMPLE_HOT_SPOT_2(boolean sample_hot_spot_2) {
         SAMPLE_HOT_SPOT_2 = sample_hot_spot_2;
+	buildPatchSelector();
     }
 }
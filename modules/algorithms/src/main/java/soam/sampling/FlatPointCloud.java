@@ -0,0 +1,84 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.sampling;
+
+/**
+ * An immutable point cloud, stored as a single array of interleaved
+ * coordinates. Instances can be shared between threads without locking: the
+ * version records the state of the sampler it has been built from, so that
+ * stale clouds can be detected and rebuilt.
+ */
+public class FlatPointCloud extends AbstractPointCloud {
+
+    protected final int version;
+    protected final int dimensions;
+    protected final int size;
+    protected final double[] coordinates;
+
+    /**
+     * The constructor: the array is not copied, and must not be modified
+     * afterwards
+     *
+     * @param version
+     * @param dimensions
+     * @param size
+     * @param coordinates
+     *            at least size * dimensions interleaved coordinates
+     */
+    public FlatPointCloud(int version, int dimensions, int size,
+	    double[] coordinates) {
+	this.version = version;
+	this.dimensions = dimensions;
+	this.size = size;
+	this.coordinates = coordinates;
+    }
+
+    public int getVersion() {
+	return version;
+    }
+
+    public int getDimensions() {
+	return dimensions;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public double get(int i, int d) {
+	return coordinates[i * dimensions + d];
+    }
+
+    public void getPoint(int i, double[] point) {
+	System.arraycopy(coordinates, i * dimensions, point, 0, dimensions);
+    }
+
+    public void copy(int from, int count, double[] coordinates, int offset) {
+	System.arraycopy(this.coordinates, from * dimensions, coordinates,
+		offset, count * dimensions);
+    }
+
+    public void copy(int from, int count, float[] coordinates, int offset) {
+	int start = from * dimensions;
+
+	for (int k = 0; k < count * dimensions; k++) {
+	    coordinates[offset + k] = (float) this.coordinates[start + k];
+	}
+    }
+
+}
@@ -17,6 +17,8 @@
 
 package soam.sampling;
 
+import java.util.Random;
+
 import javax.swing.JOptionPane;
 
 import soam.algorithms.Algorithm;
@@ -26,6 +28,14 @@ public class GrayscaleImageSampler extends ImageSampler {
     protected double UPPER_THRESHOLD = -1d;
     protected double LOWER_THRESHOLD = -1d;
 
+    // Sample pixels with probability proportional to their intensity
+    protected boolean INTENSITY_WEIGHTED = false;
+
+    /**
+     * The pixels passing the thresholds, built on first use
+     */
+    protected volatile PixelIndex pixelIndex;
+
     public boolean initialize(Algorithm algorithm) {
 
 	if (!super.initialize(algorithm)) {
@@ -37,6 +47,7 @@ public class GrayscaleImageSampler extends ImageSampler {
 	}
 
 	numBands = 1;
+	pixelIndex = null;
 
 	return true;
     }
@@ -47,17 +58,19 @@ public class GrayscaleImageSampler extends ImageSampler {
      * @return A sampled point
      */
     public double[] nextSample() {
-	if (UPPER_THRESHOLD < 0 && LOWER_THRESHOLD < 0) {
+	if (!isFiltered() || NEXT_SAMPLE != null) {
 	    return super.nextSample();
-	} else {
-	    while (true) {
-		double[] sample = super.nextSample();
-		if ((UPPER_THRESHOLD < 0 || sample[2] <= UPPER_THRESHOLD)
-			&& (LOWER_THRESHOLD < 0 || sample[2] >= LOWER_THRESHOLD)) {
-		    return sample;
-		}
-	    }
 	}
+
+	PixelIndex index = pixelIndex();
+	int pixel = index.next(random);
+
+	if (pixel < 0) {
+	    // Nothing passes the thresholds: do not filter at all
+	    return super.nextSample();
+	}
+
+	return pixelSample(pixel, index.getWidth(), random);
     }
 
     /**
@@ -66,17 +79,110 @@ public class GrayscaleImageSampler extends ImageSampler {
      * @return A sampled point
      */
     public double[] nextSample(final double[] point, double radius) {
-	if (UPPER_THRESHOLD < 0 && LOWER_THRESHOLD < 0) {
+	if (!isFiltered() || NEXT_SAMPLE != null) {
 	    return super.nextSample(point, radius);
-	} else {
-	    while (true) {
-		double[] sample = super.nextSample(point, radius);
-		if ((UPPER_THRESHOLD < 0 || sample[2] <= UPPER_THRESHOLD)
-			&& (LOWER_THRESHOLD < 0 || sample[2] >= LOWER_THRESHOLD)) {
-		    return sample;
+	}
+
+	PixelIndex index = pixelIndex();
+	int pixel = index.next(point[0], point[1], radius, random);
+
+	if (pixel < 0) {
+	    // Nothing viable nearby
+	    return nextSample();
+	}
+
+	return pixelSample(pixel, index.getWidth(), random);
+    }
+
+    protected boolean isFiltered() {
+	return UPPER_THRESHOLD >= 0 || LOWER_THRESHOLD >= 0
+		|| INTENSITY_WEIGHTED;
+    }
+
+    /**
+     * Gets a sample uniformly distributed within a pixel
+     * 
+     * @param pixel
+     *            the pixel, as y * width + x
+     * @return A sampled point
+     */
+    protected double[] pixelSample(int pixel, int width, Random random) {
+	int x = pixel % width;
+	int y = pixel / width;
+
+	double[] sample = new double[3];
+	sample[0] = x + random.nextDouble();
+	sample[1] = y + random.nextDouble();
+	sample[2] = bands()[0][pixel];
+
+	return sample;
+    }
+
+    protected PixelIndex pixelIndex() {
+	PixelIndex index = pixelIndex;
+
+	if (index == null) {
+	    index = selectViablePixels();
+	    pixelIndex = index;
+	}
+
+	return index;
+    }
+
+    /**
+     * Collects the pixels that pass the thresholds, weighted by their
+     * intensity if required
+     * 
+     * @return the index of the viable pixels
+     */
+    protected PixelIndex selectViablePixels() {
+	int width = raster.getWidth();
+	int height = raster.getHeight();
+
+	int[] pixels = new int[width * height];
+	double[] weights = INTENSITY_WEIGHTED ? new double[width * height] : null;
+	int count = 0;
+
+	double[] values = new double[width];
+	for (int y = 0; y < height; y++) {
+	    raster.getSamples(0, y, width, 1, 0, values);
+
+	    for (int x = 0; x < width; x++) {
+		if (isViable(x, y, values[x])) {
+		    if (weights != null) {
+			weights[count] = values[x];
+		    }
+		    pixels[count++] = y * width + x;
 		}
 	    }
-	}	
+	}
+
+	if (count == 0) {
+	    System.err.println("\"" + file.getPath()
+		    + "\" : Could not find a viable pixel.");
+	}
+
+	return new PixelIndex(width, height, pixels, count, weights);
+    }
+
+    /**
+     * Tells whether a pixel passes the thresholds. As in uniform sampling
+     * over image space, the last row and column are never selected.
+     * 
+     * @param x
+     * @param y
+     * @param value
+     *            the value of the pixel in the image, not scaled
+     */
+    protected boolean isViable(int x, int y, double value) {
+	if (x == raster.getWidth() - 1 || y == raster.getHeight() - 1) {
+	    return false;
+	}
+
+	double intensity = value * SCALE_FACTOR;
+
+	return (UPPER_THRESHOLD < 0 || intensity <= UPPER_THRESHOLD)
+		&& (LOWER_THRESHOLD < 0 || intensity >= LOWER_THRESHOLD);
     }
 
     public int getDimensions() {
@@ -91,6 +197,7 @@ public class GrayscaleImageSampler extends ImageSampler {
         UPPER_THRESHOLD = upper_threshold;
         
         pointCloud = null;
+        pixelIndex = null;
     }
 
     public double getLOWER_THRESHOLD() {
@@ -101,6 +208,23 @@ public class GrayscaleImageSampler extends ImageSampler {
         LOWER_THRESHOLD = lower_threshold;
         
         pointCloud = null;
+        pixelIndex = null;
+    }
+
+    public boolean isINTENSITY_WEIGHTED() {
+	return INTENSITY_WEIGHTED;
+    }
+
+    public void setINTENSITY_WEIGHTED(boolean intensity_weighted) {
+	INTENSITY_WEIGHTED = intensity_weighted;
+
+	pixelIndex = null;
+    }
+
+    public void setSCALE_FACTOR(double scale_factor) {
+	super.setSCALE_FACTOR(scale_factor);
+
+	pixelIndex = null;
     }
 
 }
@@ -0,0 +1,65 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.sampling;
+
+/**
+ * The pixels of an image seen as a point cloud, one point (x, y, band values)
+ * per pixel in row order, without copying anything: coordinates are read
+ * from the band arrays on demand.
+ */
+public class ImagePointCloud extends AbstractPointCloud {
+
+    protected final int width;
+    protected final int height;
+    protected final float[][] bands;
+
+    /**
+     * The constructor: the arrays are not copied, and must not be modified
+     * afterwards
+     *
+     * @param width
+     * @param height
+     * @param bands
+     *            the values of each band, as already scaled, indexed by
+     *            y * width + x
+     */
+    public ImagePointCloud(int width, int height, float[][] bands) {
+	this.width = width;
+	this.height = height;
+	this.bands = bands;
+    }
+
+    public int getDimensions() {
+	return 2 + bands.length;
+    }
+
+    public int size() {
+	return width * height;
+    }
+
+    public double get(int i, int d) {
+	switch (d) {
+	case 0:
+	    return i % width;
+	case 1:
+	    return i / width;
+	default:
+	    return bands[d - 2][i];
+	}
+    }
+}
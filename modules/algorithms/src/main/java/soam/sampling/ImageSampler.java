@@ -19,7 +19,6 @@ package soam.sampling;
 
 import java.io.File;
 
-import java.util.ArrayList;
 import java.util.Random;
 
 import java.awt.Graphics;
@@ -57,7 +56,15 @@ public class ImageSampler implements Sampler {
     protected int numBands;
     protected int dimension;
 
-    protected ArrayList<double[]> pointCloud;
+    protected volatile PointCloud pointCloud;
+
+    /**
+     * The values of each band, scaled, indexed by y * width + x: built on
+     * first use
+     */
+    protected volatile float[][] bands;
+    protected int width;
+    protected int height;
 
     protected Random random;
 
@@ -84,6 +91,11 @@ public class ImageSampler implements Sampler {
 		    numBands = raster.getNumBands();
 		    dimension = numBands + 2;
 
+		    width = raster.getWidth();
+		    height = raster.getHeight();
+		    bands = null;
+		    pointCloud = null;
+
 		} catch (Exception e) {
 		    JOptionPane.showMessageDialog(null,
 			    "Could not load image \"" + file.getPath() + "\"",
@@ -131,36 +143,73 @@ public class ImageSampler implements Sampler {
     }
 
     /**
-     * Gets the point cloud, as an array of vectors
+     * Gets the point cloud, built once
      * 
-     * @return dimension
+     * @return the point cloud
      */
-    public ArrayList<double[]> getPointCloud() {
+    public PointCloud getPointCloud() {
+	PointCloud tmp = pointCloud;
+
+	if (tmp == null) {
+	    tmp = buildPointCloud();
+	    pointCloud = tmp;
+	}
+
+	return tmp;
+    }
 
-	if (pointCloud == null) {
-	    pointCloud = new ArrayList<double[]>();
+    /**
+     * Gets the pixels as a point cloud, without any per pixel vector
+     * 
+     * @return the point cloud
+     */
+    protected PointCloud buildPointCloud() {
+	float[][] bands = bands();
 
-	    for (int i = 0; i < raster.getWidth(); i++) {
-		for (int j = 0; j < raster.getHeight(); j++) {
-		    double[] point = new double[2 + numBands];
+	float[][] tmp = new float[numBands][];
+	System.arraycopy(bands, 0, tmp, 0, numBands);
 
-		    point[0] = i;
-		    point[1] = j;
+	return new ImagePointCloud(width, height, tmp);
+    }
 
-		    for (int b = 0; b < numBands; b++) {
-			point[2 + b] =
-				raster.getSampleDouble((int) point[0],
-					(int) point[1], b);
+    /**
+     * Gets the values of the bands in use, scaled
+     * 
+     * @return the band arrays, indexed by y * width + x
+     */
+    protected float[][] bands() {
+	float[][] tmp = bands;
 
-			point[2 + b] *= SCALE_FACTOR;
-		    }
+	if (tmp == null || tmp.length < numBands) {
+	    tmp = extractBands();
+	    bands = tmp;
+	}
 
-		    pointCloud.add(point);
+	return tmp;
+    }
+
+    /**
+     * Copies the bands in use out of the raster, one row at a time, and
+     * scales them
+     * 
+     * @return the band arrays, indexed by y * width + x
+     */
+    protected float[][] extractBands() {
+	float[][] tmp = new float[numBands][width * height];
+	float[] row = new float[width];
+
+	for (int b = 0; b < numBands; b++) {
+	    for (int y = 0; y < height; y++) {
+		raster.getSamples(0, y, width, 1, b, row);
+
+		int offset = y * width;
+		for (int x = 0; x < width; x++) {
+		    tmp[b][offset + x] = (float) (row[x] * SCALE_FACTOR);
 		}
 	    }
 	}
 
-	return pointCloud;
+	return tmp;
     }
 
     /**
@@ -182,25 +231,16 @@ public class ImageSampler implements Sampler {
 
 	// Uniform sampling over image space
 	if (NEXT_SAMPLE == null) {
-	    sample[0] = random.nextDouble() * (raster.getWidth() - 1);
-	    sample[1] = random.nextDouble() * (raster.getHeight() - 1);
+	    sample[0] = random.nextDouble() * (width - 1);
+	    sample[1] = random.nextDouble() * (height - 1);
 	} else {
 	    // Enforce image boundaries
-	    sample[0] =
-		    Math.min(Math.max(NEXT_SAMPLE.x, 0d), (double) raster
-			    .getWidth() - 1);
-	    sample[1] =
-		    Math.min(Math.max(NEXT_SAMPLE.y, 0d), (double) raster
-			    .getHeight() - 1);
+	    sample[0] = Math.min(Math.max(NEXT_SAMPLE.x, 0d), width - 1d);
+	    sample[1] = Math.min(Math.max(NEXT_SAMPLE.y, 0d), height - 1d);
 	    NEXT_SAMPLE = null;
 	}
 
-	for (int i = 0; i < numBands; i++) {
-	    sample[2 + i] =
-		    raster.getSampleDouble((int) sample[0], (int) sample[1], i);
-
-	    sample[2 + i] *= SCALE_FACTOR;
-	}
+	loadBands(sample);
 
 	return sample;
     }
@@ -225,23 +265,28 @@ public class ImageSampler implements Sampler {
 	sample[1] = point[1] + (distance * Math.sin(angle));
 
 	// Enforce image boundaries
-	sample[0] =
-		Math.min(Math.max(sample[0], 0d),
-			(double) raster.getWidth() - 1);
-	sample[1] =
-		Math.min(Math.max(sample[1], 0d),
-			(double) raster.getHeight() - 1);
-
-	for (int i = 0; i < numBands; i++) {
-	    sample[2 + i] =
-		    raster.getSampleDouble((int) sample[0], (int) sample[1], i);
-
-	    sample[2 + i] *= SCALE_FACTOR;
-	}
+	sample[0] = Math.min(Math.max(sample[0], 0d), width - 1d);
+	sample[1] = Math.min(Math.max(sample[1], 0d), height - 1d);
+
+	loadBands(sample);
 
 	return sample;
     }
 
+    /**
+     * Sets the band values of a sample from its position
+     * 
+     * @param sample
+     */
+    protected void loadBands(double[] sample) {
+	float[][] bands = bands();
+	int pixel = (int) sample[1] * width + (int) sample[0];
+
+	for (int b = 0; b < numBands; b++) {
+	    sample[2 + b] = bands[b][pixel];
+	}
+    }
+
     public String toString() {
 	return this.getClass().getSimpleName() + "(\"" + file.getPath() + "\")";
     }
@@ -334,6 +379,7 @@ public class ImageSampler implements Sampler {
 	SCALE_FACTOR = scale_factor;
 	
 	pointCloud = null;
+	bands = null;
     }
 
     public double getNOISE_STDEV() {
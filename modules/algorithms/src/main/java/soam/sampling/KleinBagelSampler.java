@@ -1,45 +1,32 @@
 
 package soam.sampling;
 
-import java.util.Random;
-
-public class KleinBagelSampler implements ComponentSampler {
+public class KleinBagelSampler extends ParametricSurfaceSampler {
     protected static final double BASIC_SCALE = 256;
     protected static final double SCALE = BASIC_SCALE / (Math.PI * 4);
 
-    protected int dimensions;
-
-    protected Random random;
-
     public KleinBagelSampler(int dimensions) {
-	if (dimensions < 3) {
-	    throw new RuntimeException("Unsupported dimensions: " + dimensions);
-	}
-
-	this.dimensions = dimensions;
-	random = new Random();
+	super(dimensions, 0d, 2 * Math.PI, 0d, 2 * Math.PI);
     }
 
-    public double[] nextSample() {
-	double u = random.nextDouble() * 2 * Math.PI;
-	double v = random.nextDouble() * 2 * Math.PI;
+    protected void evaluate(double u, double v, double[] sample) {
+	double cosU = Math.cos(u);
+	double sinU = Math.sin(u);
+	double cosV = Math.cos(v);
+	double sinV = Math.sin(v);
+	double cosHalfV = Math.cos(v / 2);
+	double sinHalfV = Math.sin(v / 2);
+
+	double sin2U = 2 * sinU * cosU;
 
-	double[] sample = new double[dimensions];
+	double radius = 2 + cosHalfV * sinU - sinHalfV * sin2U;
 
-	sample[0] =
-		(2 + Math.cos(v / 2) * Math.sin(u) - Math.sin(v / 2)
-			* Math.sin(2 * u))
-			* Math.cos(v);
-	sample[1] =
-		(2 + Math.cos(v / 2) * Math.sin(u) - Math.sin(v / 2)
-			* Math.sin(2 * u))
-			* Math.sin(v);
-	sample[2] =
-		Math.sin(v / 2) * Math.sin(u) + Math.cos(v / 2)
-			* Math.sin(2 * u);
+	sample[0] = radius * cosV;
+	sample[1] = radius * sinV;
+	sample[2] = sinHalfV * sinU + cosHalfV * sin2U;
 
 	for (int i = 3; i < dimensions; i++) {
-	    sample[i] = Math.cos(u);
+	    sample[i] = cosU;
 	}
 
 	// Scale & translate
@@ -50,15 +37,5 @@ public class KleinBagelSampler implements ComponentSampler {
 	for (int i = 3; i < dimensions; i++) {
 	    sample[i] = sample[i] * BASIC_SCALE / 2d + BASIC_SCALE / 2d;
 	}
-
-	return sample;
-    }
-
-    public int getDimensions() {
-	return dimensions;
-    }
-
-    public double getArea() {
-	throw new RuntimeException("Method not implemented");
     }
 }
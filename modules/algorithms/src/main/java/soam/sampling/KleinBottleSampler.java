@@ -1,43 +1,28 @@
 
 package soam.sampling;
 
-import java.util.Random;
-
-public class KleinBottleSampler implements ComponentSampler {
+public class KleinBottleSampler extends ParametricSurfaceSampler {
     protected static final double BASIC_SCALE = 256;
     protected static final double SCALE = BASIC_SCALE / (Math.PI * 4);
 
-    protected int dimensions;
-
-    protected Random random;
-
     public KleinBottleSampler(int dimensions) {
-	if (dimensions < 3) {
-	    throw new RuntimeException("Unsupported dimensions: " + dimensions);
-	}
-
-	this.dimensions = dimensions;
-	random = new Random();
-
+	super(dimensions, 0d, 2 * Math.PI, 0d, 2 * Math.PI);
     }
 
-    public double[] nextSample() {
+    protected void evaluate(double u, double v, double[] sample) {
+	double cosU = Math.cos(u);
+	double sinU = Math.sin(u);
+	double cosV = Math.cos(v);
+	double sinV = Math.sin(v);
 
-	double u = random.nextDouble() * 2 * Math.PI;
-	double v = random.nextDouble() * 2 * Math.PI;
+	double radius = 2 * (1 - cosV / 2d);
 
-	double[] sample = new double[dimensions];
-
-	sample[0] =
-		(3 * (1 + Math.sin(v)) + 2 * (1 - Math.cos(v) / 2d)
-			* Math.cos(u))
-			* Math.cos(v);
-	sample[1] =
-		(4 + 2 * (1 - Math.cos(v) / 2d) * Math.cos(u)) * Math.sin(v);
-	sample[2] = -2 * (1 - Math.cos(v) / 2d) * Math.sin(u);
+	sample[0] = (3 * (1 + sinV) + radius * cosU) * cosV;
+	sample[1] = (4 + radius * cosU) * sinV;
+	sample[2] = -radius * sinU;
 
 	for (int i = 3; i < dimensions; i++) {
-	    sample[i] = (0.02d * Math.cos(v) + 1.98d * Math.cos(u)) / 2d;
+	    sample[i] = (0.02d * cosV + 1.98d * cosU) / 2d;
 	}
 
 	// Scale & translate
@@ -48,15 +33,5 @@ public class KleinBottleSampler implements ComponentSampler {
 	for (int i = 3; i < dimensions; i++) {
 	    sample[i] = sample[i] * BASIC_SCALE / 2d + BASIC_SCALE / 2d;
 	}
-
-	return sample;
-    }
-
-    public int getDimensions() {
-	return dimensions;
-    }
-
-    public double getArea() {
-	throw new RuntimeException("Method not implemented");
     }
 }
@@ -0,0 +1,356 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.sampling;
+
+import java.util.Random;
+import java.io.File;
+import java.awt.image.BufferedImage;
+
+import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+import soam.algorithms.Algorithm;
+import soam.algorithms.AlgebraicOperatorsNd;
+import soam.utils.PointCloudFile;
+
+/**
+ * Samples point clouds too large for the heap, stored as PointCloudFile and
+ * accessed through memory mappings: only the pages touched by samples are
+ * read, and the OS page cache keeps them around.
+ * <p>
+ * PLY files can be selected as well: they are converted once into a point
+ * cloud file alongside the original.
+ */
+public class MappedPointCloudSampler implements Sampler {
+    protected final static double CUBE_SIZE = 256d;
+
+    protected int MAX_REJECTION = 100;
+
+    // Size of the random subset returned as the point cloud
+    protected int POINT_CLOUD_SIZE = 100000;
+
+    protected double NOISE_STDEV = 0d;
+    protected double NOISE_BOUND = 0d;
+
+    protected static String defaultPath = System.getProperty("user.dir");
+
+    protected PointCloudFile cloud;
+
+    protected Random random;
+
+    protected PointCloud pointCloud;
+
+    protected double MOVE_X;
+    protected double MOVE_Y;
+    protected double MOVE_Z;
+    protected double SCALE;
+    protected double NORMAL_PROJECTION;
+
+    public boolean initialize(Algorithm algorithm) {
+
+	random = new Random();
+
+	while (true) {
+	    JFileChooser fc = new JFileChooser(defaultPath);
+	    fc.addChoosableFileFilter(new FileNameExtensionFilter(
+		    "Point cloud or PLY Files", PointCloudFile.EXTENSION,
+		    "ply"));
+	    fc.setDialogTitle(this.getClass().getName()
+		    + " : point cloud file");
+
+	    if (fc.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
+		File file = fc.getSelectedFile();
+		defaultPath = file.getAbsolutePath();
+
+		try {
+		    cloud = new PointCloudFile(convertIfNeeded(file));
+		} catch (Exception e) {
+		    JOptionPane.showMessageDialog(null,
+			    "Could not load point cloud file \""
+				    + file.getPath() + "\"", "Error",
+			    JOptionPane.ERROR_MESSAGE);
+		    continue;
+		}
+
+		if (cloud.size() == 0) {
+		    JOptionPane.showMessageDialog(null, "Point cloud file \""
+			    + file.getPath() + "\" is empty", "Error",
+			    JOptionPane.ERROR_MESSAGE);
+		    continue;
+		}
+
+		break;
+
+	    } else {
+		return false;
+	    }
+	}
+
+	// Establish translation and rescaling:
+	// preserve object proportions but make it fit the cubic box
+	double[] min = new double[3];
+	double[] max = new double[3];
+	for (int d = 0; d < 3; d++) {
+	    min[d] = cloud.getMin(d);
+	    max[d] = cloud.getMax(d);
+	}
+
+	SCALE =
+		CUBE_SIZE
+			/ Math.max(max[0] - min[0], Math.max(max[1] - min[1],
+				max[2] - min[2]));
+
+	MOVE_X = -(min[0] + (max[0] - min[0]) / 2);
+	MOVE_Y = -(min[1] + (max[1] - min[1]) / 2);
+	MOVE_Z = -(min[2] + (max[2] - min[2]) / 2);
+
+	NORMAL_PROJECTION = 0d;
+
+	pointCloud = null;
+
+	return true;
+    }
+
+    /**
+     * Converts a PLY file into a point cloud file, unless an up to date
+     * conversion exists already
+     *
+     * @param file
+     * @return the point cloud file
+     * @throws Exception
+     */
+    protected static File convertIfNeeded(File file) throws Exception {
+	String name = file.getName();
+	if (!name.toLowerCase().endsWith(".ply")) {
+	    return file;
+	}
+
+	File converted =
+		new File(file.getParentFile(), name.substring(0,
+			name.length() - 4)
+			+ "." + PointCloudFile.EXTENSION);
+
+	if (!converted.exists()
+		|| converted.lastModified() < file.lastModified()) {
+	    PointCloudFile.convert(file, converted);
+	}
+
+	return converted;
+    }
+
+    public void reset() {
+	return;
+    }
+
+    public int getDimensions() {
+	return 3;
+    }
+
+    public String getDescription() {
+	return "";
+    }
+
+    public BufferedImage getBufferedImage() {
+	return null;
+    }
+
+    /**
+     * Gets a random subset of at most POINT_CLOUD_SIZE points, since the
+     * whole cloud would not fit in the heap
+     *
+     * @return the point cloud
+     */
+    public PointCloud getPointCloud() {
+
+	if (pointCloud == null) {
+	    int size = (int) Math.min(cloud.size(), POINT_CLOUD_SIZE);
+	    double[] coordinates = new double[3 * size];
+
+	    Random subset = new Random(0);
+	    for (int i = 0; i < size; i++) {
+		long j =
+			cloud.size() <= POINT_CLOUD_SIZE ? i : (long) (subset
+				.nextDouble() * cloud.size());
+
+		System.arraycopy(point(j), 0, coordinates, 3 * i, 3);
+	    }
+
+	    pointCloud = new FlatPointCloud(0, 3, size, coordinates);
+	}
+
+	return pointCloud;
+    }
+
+    /**
+     * Reads and normalizes a point
+     */
+    protected double[] point(long i) {
+	double[] point = new double[3];
+
+	cloud.getVertex(i, point);
+
+	if (NORMAL_PROJECTION != 0d && cloud.hasNormals()) {
+	    double[] normal = new double[3];
+	    cloud.getNormal(i, normal);
+
+	    point[0] += normal[0] * NORMAL_PROJECTION;
+	    point[1] += normal[1] * NORMAL_PROJECTION;
+	    point[2] += normal[2] * NORMAL_PROJECTION;
+	}
+
+	point[0] = (point[0] + MOVE_X) * SCALE + CUBE_SIZE / 2;
+	point[1] = (point[1] + MOVE_Y) * SCALE + CUBE_SIZE / 2;
+	point[2] = (point[2] + MOVE_Z) * SCALE + CUBE_SIZE / 2;
+
+	return point;
+    }
+
+    private double[] basicNextSample() {
+	return point((long) (random.nextDouble() * cloud.size()));
+    }
+
+    public double[] nextSample() {
+
+	double[] sample = basicNextSample();
+
+	// Add noise, if requested
+	if (NOISE_STDEV > 0d) {
+	    double[] noise =
+		    GaussianNoise.gaussianNoise(3, NOISE_STDEV, NOISE_BOUND);
+	    if (noise != null) {
+		sample[0] += noise[0];
+		sample[1] += noise[1];
+		sample[2] += noise[2];
+	    }
+	}
+
+	return sample;
+    }
+
+    /**
+     * Rejection sampling: the cloud is not indexed, since that would take
+     * memory in proportion to its size
+     */
+    public double[] nextSample(final double[] point, double radius) {
+	double radiusSquare = radius * radius;
+	double[] sample = null;
+	for (int i = 0; i < MAX_REJECTION; i++) {
+	    sample = basicNextSample();
+	    if (AlgebraicOperatorsNd.normSquare(point, sample) < radiusSquare) {
+		break;
+	    }
+	}
+
+	// Add noise, if requested
+	if (NOISE_STDEV > 0d) {
+	    double[] noise =
+		    GaussianNoise.gaussianNoise(3, NOISE_STDEV, NOISE_BOUND);
+	    if (noise != null) {
+		sample[0] += noise[0];
+		sample[1] += noise[1];
+		sample[2] += noise[2];
+	    }
+	}
+
+	return sample;
+    }
+
+    public String toString() {
+	return this.getClass().getSimpleName() + "(\""
+		+ cloud.getFile().getPath() + "\")";
+    }
+
+    public double getNOISE_STDEV() {
+	return NOISE_STDEV;
+    }
+
+    public void setNOISE_STDEV(double noise_stdev) {
+	NOISE_STDEV = noise_stdev;
+    }
+
+    public double getNOISE_BOUND() {
+	return NOISE_BOUND;
+    }
+
+    public void setNOISE_BOUND(double noise_bound) {
+	NOISE_BOUND = noise_bound;
+    }
+
+    public int getMAX_REJECTION() {
+	return MAX_REJECTION;
+    }
+
+    public void setMAX_REJECTION(int max_rejection) {
+	MAX_REJECTION = max_rejection;
+    }
+
+    public int getPOINT_CLOUD_SIZE() {
+	return POINT_CLOUD_SIZE;
+    }
+
+    public void setPOINT_CLOUD_SIZE(int point_cloud_size) {
+	POINT_CLOUD_SIZE = point_cloud_size;
+	pointCloud = null;
+    }
+
+    public double getMOVE_X() {
+	return MOVE_X;
+    }
+
+    public void setMOVE_X(double move_x) {
+	MOVE_X = move_x;
+	pointCloud = null;
+    }
+
+    public double getMOVE_Y() {
+	return MOVE_Y;
+    }
+
+    public void setMOVE_Y(double move_y) {
+	MOVE_Y = move_y;
+	pointCloud = null;
+    }
+
+    public double getMOVE_Z() {
+	return MOVE_Z;
+    }
+
+    public void setMOVE_Z(double move_z) {
+	MOVE_Z = move_z;
+	pointCloud = null;
+    }
+
+    public double getSCALE() {
+	return SCALE;
+    }
+
+    public void setSCALE(double scale) {
+	SCALE = scale;
+	pointCloud = null;
+    }
+
+    public double getNORMAL_PROJECTION() {
+	return NORMAL_PROJECTION;
+    }
+
+    public void setNORMAL_PROJECTION(double normal_projection) {
+	NORMAL_PROJECTION = normal_projection;
+	pointCloud = null;
+    }
+}
@@ -5,10 +5,16 @@ package soam.sampling;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Random;
 import java.util.Vector;
-import java.util.Hashtable;
-import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
@@ -16,29 +22,46 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 
 import soam.algorithms.AlgebraicOperatorsNd;
 import soam.algorithms.Algorithm;
-import soam.utils.FortranFormat;
+import soam.utils.Element;
+import soam.utils.PDBAtoms;
 
 public class MolecularSurfaceSampler implements Sampler {
 
-    static FortranFormat formatter;
-    static Hashtable<String, Double> atomicRadiusTable;
+    protected static final int THREADS =
+	    Runtime.getRuntime().availableProcessors();
 
-    static {
+    /**
+     * Fewer faces than this are trilaterated on the calling thread
+     */
+    protected static final int PARALLEL_THRESHOLD = 1024;
 
-	// Set up formatter and set to automatically add carriage returns to the
-	// end of lines when formatting
-	try {
-	    formatter =
-		    new FortranFormat(
-			    "(A6,I5,1X,A4,A1,A3,1X,A1,I4,A1,3X,3F8.3,2F6.2,10X,2A2)");
-	} catch (ParseException e) {
-	    e.printStackTrace();
-	}
+    /**
+     * Directions, or angles, along which the accessible part of spherical and
+     * toroidal patches is estimated
+     */
+    protected static final int AREA_SAMPLES = 64;
+
+    protected static final int MAX_REJECTION = 1000;
+
+    protected final static double CUBE_SIZE = 256d;
 
-	formatter.setAddReturn(true);
+    // Size of the fixed sample set returned as the point cloud
+    protected static final int POINT_CLOUD_SIZE = 10000;
+
+    // Nearly uniform directions, on a Fibonacci spiral
+    protected static final double[][] DIRECTIONS = new double[AREA_SAMPLES][3];
+
+    static {
+	double golden = Math.PI * (3d - Math.sqrt(5d));
 
-	// Setup the Hashtable for atomic radii
-	initalizeAtomicRadiusTable();
+	for (int i = 0; i < AREA_SAMPLES; i++) {
+	    double z = 1d - (2d * i + 1d) / AREA_SAMPLES;
+	    double r = Math.sqrt(1d - z * z);
+
+	    DIRECTIONS[i][0] = r * Math.cos(golden * i);
+	    DIRECTIONS[i][1] = r * Math.sin(golden * i);
+	    DIRECTIONS[i][2] = z;
+	}
     }
 
     protected static String defaultPath = System.getProperty("user.dir");
@@ -60,6 +83,33 @@ public class MolecularSurfaceSampler implements Sampler {
     protected double maxY;
     protected double maxZ;
 
+    protected double maxRadius;
+
+    // Translation and rescaling from angstroms to the cubic box
+    protected double MOVE_X;
+    protected double MOVE_Y;
+    protected double MOVE_Z;
+    protected double SCALE;
+
+    // Uniform cell list over the atoms: atoms of cell c are
+    // cellAtoms[cellStart[c]] to cellAtoms[cellStart[c + 1] - 1]
+    protected double cellSize;
+    protected int[] resolution = new int[3];
+    protected int[] cellStart;
+    protected Atom[] cellAtoms;
+
+    // The patches of the surface, sorted by the cell of their atom: patches
+    // of cell c are patches[patchStart[c]] to patches[patchStart[c + 1] - 1]
+    protected Patch[] patches;
+    protected int[] patchStart;
+
+    // Cumulative areas of the patches, in the same order
+    protected double[] cumulativeAreas;
+
+    protected AliasTable patchSelector;
+
+    protected PointCloud pointCloud;
+
     public boolean initialize(Algorithm algorithm) {
 
 	random = new Random();
@@ -75,7 +125,7 @@ public class MolecularSurfaceSampler implements Sampler {
 		defaultPath = file.getAbsolutePath();
 
 		try {
-		    atoms = parsePDB(new BufferedReader(new FileReader(file)));
+		    atoms = loadPDB(file);
 
 		} catch (Exception e) {
 		    JOptionPane.showMessageDialog(null,
@@ -92,8 +142,17 @@ public class MolecularSurfaceSampler implements Sampler {
 	}
 
 	findNeighbors();
+	fit();
 	constructSimplicialComplex();
 	computeTrilaterations();
+	buildPatches();
+
+	if (patches.length == 0) {
+	    JOptionPane.showMessageDialog(null, "\"" + file.getPath()
+		    + "\" has no solvent excluded surface", "Error",
+		    JOptionPane.ERROR_MESSAGE);
+	    return false;
+	}
 
 	return true;
     }
@@ -114,70 +173,98 @@ public class MolecularSurfaceSampler implements Sampler {
 	return null;
     }
 
-    public ArrayList<double[]> getPointCloud() {
-	return null;
-    }
-
     /**
-     * Function to read PDB files, returns a Vector of Atoms, requires a
-     * BufferedReader wrapping some input source (maybe a FileReader or an
-     * InputStreamReader)
+     * Gets a fixed set of POINT_CLOUD_SIZE samples, drawn with a constant
+     * seed so that quantization errors are comparable between runs
      * 
-     * @see "Adapted from: ICLkevin, <a href="
-     *      http://www.ichemlabs.com/content/reading
-     *      -and-writing-pdb-and-smd-files-exercise-fortranformat" > Reading and
-     *      Writing PDB and SMD Files: An Exercise with FortranFormat</a>,
-     *      <i>iChemLabs</i>"
-     * 
-     * @param br
-     *            A buffered reader on a PDB file
-     * @return A vector of atoms in the PDB file
-     * @throws IOException
+     * @return the point cloud
      */
-    protected Vector<Atom> parsePDB(BufferedReader br) throws IOException {
-	// Vector of Atoms to be returned
-	Vector<Atom> atoms = new Vector<Atom>();
-	String line = null;
+    public PointCloud getPointCloud() {
 
-	// read lines from the BufferedReader
-	while ((line = br.readLine()) != null) {
+	if (pointCloud == null) {
+	    double[] coordinates = new double[3 * POINT_CLOUD_SIZE];
 
-	    // check if the line is an atom record
-	    if (line.startsWith("ATOM") || line.startsWith("HETATM")) {
+	    Random subset = new Random(0);
+	    for (int i = 0; i < POINT_CLOUD_SIZE; i++) {
+		System.arraycopy(toBox(sampleSurface(subset)), 0, coordinates,
+			3 * i, 3);
+	    }
 
-		// use FortranFormat to parse the line, avoiding the tedious
-		// substrings and casts!
-		Vector<Object> objects = formatter.parse(line);
+	    pointCloud = new FlatPointCloud(0, 3, POINT_CLOUD_SIZE, coordinates);
+	}
 
-		// create the Atom object from the objects in the Vector, they
-		// are in an order identical to the Fortran Format specification
-		// string
-		Atom a = new Atom();
+	return pointCloud;
+    }
 
-		a.index = atoms.size();
+    /**
+     * Moves and rescales to fit the bounding box of the atoms in the cubic
+     * box: the surface itself is constructed in angstroms and only the
+     * samples are transformed
+     */
+    protected void fit() {
+	SCALE =
+		CUBE_SIZE
+			/ Math.max(maxX - minX, Math.max(maxY - minY, maxZ
+				- minZ));
 
-		// set up the Atom object
+	MOVE_X = -(minX + (maxX - minX) / 2);
+	MOVE_Y = -(minY + (maxY - minY) / 2);
+	MOVE_Z = -(minZ + (maxZ - minZ) / 2);
 
-		// notice that Java 1.5 Autounboxing allows us to quickly assign
-		// the object values to the primitive values
-		a.position = new double[3];
+	pointCloud = null;
+    }
 
-		a.position[0] = (Double) objects.get(8);
-		a.position[1] = (Double) objects.get(9);
-		a.position[2] = (Double) objects.get(10);
+    /**
+     * Transforms a point from angstroms to the cubic box, in place
+     */
+    protected double[] toBox(double[] point) {
+	point[0] = (point[0] + MOVE_X) * SCALE + CUBE_SIZE / 2;
+	point[1] = (point[1] + MOVE_Y) * SCALE + CUBE_SIZE / 2;
+	point[2] = (point[2] + MOVE_Z) * SCALE + CUBE_SIZE / 2;
 
-		a.symbol = (String) objects.get(13);
+	return point;
+    }
 
-		// Added radius reading (pmarco@unipv.it)
-		a.radius = atomicRadiusTable.get(a.symbol);
+    /**
+     * Transforms a point from the cubic box to angstroms
+     */
+    protected double[] fromBox(double[] point) {
+	return new double[] { (point[0] - CUBE_SIZE / 2) / SCALE - MOVE_X,
+		(point[1] - CUBE_SIZE / 2) / SCALE - MOVE_Y,
+		(point[2] - CUBE_SIZE / 2) / SCALE - MOVE_Z };
+    }
 
-		atoms.add(a);
-	    }
+    /**
+     * Reads the atoms of a PDB file, parsing it only if it is not in the
+     * parsed input cache
+     * 
+     * @param file
+     *            A PDB file
+     * @return A vector of atoms in the PDB file
+     * @throws IOException
+     */
+    protected Vector<Atom> loadPDB(File file) throws IOException {
+	PDBAtoms pdb = PDBAtoms.load(file);
+
+	Vector<Atom> atoms = new Vector<Atom>(pdb.size());
+	for (int i = 0; i < pdb.size(); i++) {
+	    Element element = pdb.getElement(i);
+
+	    Atom a = new Atom();
+	    a.index = i;
+	    System.arraycopy(pdb.positions, 3 * i, a.position, 0, 3);
+	    a.symbol = element.getSymbol();
+	    a.radius = element.getRadius();
+	    atoms.add(a);
 	}
 
 	return atoms;
     }
 
+    /**
+     * Finds the pairs of atoms that a probe can touch at the same time. Only
+     * the atoms in the adjacent cells of the cell list are tested.
+     */
     protected void findNeighbors() {
 	minX = Float.MAX_VALUE;
 	minY = Float.MAX_VALUE;
@@ -187,6 +274,8 @@ public class MolecularSurfaceSampler implements Sampler {
 	maxY = -Float.MAX_VALUE;
 	maxZ = -Float.MAX_VALUE;
 
+	maxRadius = 0d;
+
 	for (int i = 0; i < atoms.size(); i++) {
 	    Atom thisAtom = atoms.get(i);
 
@@ -211,16 +300,121 @@ public class MolecularSurfaceSampler implements Sampler {
 		maxZ = thisAtom.position[2] + thisAtom.radius;
 	    }
 
-	    for (int j = i + 1; j < atoms.size(); j++) {
-		Atom otherAtom = atoms.get(j);
+	    maxRadius = Math.max(maxRadius, thisAtom.radius);
+	}
+
+	buildCells(2 * (maxRadius + probeRadius));
+
+	ArrayList<Atom> found = new ArrayList<Atom>();
+	int[] from = new int[3];
+	int[] to = new int[3];
+
+	for (int i = 0; i < atoms.size(); i++) {
+	    Atom thisAtom = atoms.get(i);
+
+	    cellRange(thisAtom.position, from, to);
+
+	    found.clear();
+	    for (int cx = from[0]; cx <= to[0]; cx++) {
+		for (int cy = from[1]; cy <= to[1]; cy++) {
+		    for (int cz = from[2]; cz <= to[2]; cz++) {
+			int c = cell(cx, cy, cz);
+
+			for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+			    Atom otherAtom = cellAtoms[k];
 
-		if (AlgebraicOperatorsNd.norm(thisAtom.position,
-			otherAtom.position) <= thisAtom.radius + 2
-			* probeRadius + otherAtom.radius) {
-		    thisAtom.neighbors.add(otherAtom);
-		    otherAtom.neighbors.add(thisAtom);
+			    if (otherAtom.index > thisAtom.index
+				    && AlgebraicOperatorsNd.norm(
+					    thisAtom.position,
+					    otherAtom.position) <= thisAtom.radius
+					    + 2 * probeRadius + otherAtom.radius) {
+				found.add(otherAtom);
+			    }
+			}
+		    }
 		}
 	    }
+
+	    // Keep neighbor lists sorted by index, as with an all pairs scan
+	    Collections.sort(found, new Comparator<Atom>() {
+		public int compare(Atom a, Atom b) {
+		    return a.index - b.index;
+		}
+	    });
+
+	    for (Atom otherAtom : found) {
+		thisAtom.neighbors.add(otherAtom);
+		otherAtom.neighbors.add(thisAtom);
+	    }
+	}
+    }
+
+    /**
+     * Sorts the atoms into cells no smaller than the given size, which must
+     * be at least the largest distance of interest
+     * 
+     * @param size
+     */
+    protected void buildCells(double size) {
+	double[] extent = new double[] { maxX - minX, maxY - minY, maxZ - minZ };
+
+	// Scattered atoms would make for a huge, mostly empty, grid
+	int cells;
+	do {
+	    cells = 1;
+	    for (int d = 0; d < 3; d++) {
+		resolution[d] = Math.max(1, (int) Math.ceil(extent[d] / size));
+		cells *= resolution[d];
+	    }
+	    size *= 2;
+	} while (cells > 8 * atoms.size() + 64);
+	cellSize = size / 2;
+
+	int[] atomCells = new int[atoms.size()];
+	cellStart = new int[cells + 1];
+	for (int i = 0; i < atoms.size(); i++) {
+	    double[] position = atoms.get(i).position;
+
+	    atomCells[i] =
+		    cell(cellIndex(position[0] - minX, 0), cellIndex(
+			    position[1] - minY, 1), cellIndex(position[2]
+			    - minZ, 2));
+	    cellStart[atomCells[i] + 1]++;
+	}
+
+	for (int c = 0; c < cells; c++) {
+	    cellStart[c + 1] += cellStart[c];
+	}
+
+	int[] next = new int[cells];
+	System.arraycopy(cellStart, 0, next, 0, cells);
+
+	cellAtoms = new Atom[atoms.size()];
+	for (int i = 0; i < atoms.size(); i++) {
+	    cellAtoms[next[atomCells[i]]++] = atoms.get(i);
+	}
+    }
+
+    protected int cellIndex(double offset, int d) {
+	int index = (int) Math.floor(offset / cellSize);
+	return Math.max(0, Math.min(resolution[d] - 1, index));
+    }
+
+    protected int cell(int cx, int cy, int cz) {
+	return (cx * resolution[1] + cy) * resolution[2] + cz;
+    }
+
+    /**
+     * Gets the range of cells adjacent to the cell of a position, which
+     * contain all the atoms closer than the cell size
+     */
+    protected void cellRange(double[] position, int[] from, int[] to) {
+	double[] min = new double[] { minX, minY, minZ };
+
+	for (int d = 0; d < 3; d++) {
+	    int index = cellIndex(position[d] - min[d], d);
+	    from[d] = Math.max(0, index - 1);
+	    to[d] = Math.min(resolution[d] - 1, index + 1);
 	}
     }
 
@@ -259,35 +453,120 @@ public class MolecularSurfaceSampler implements Sampler {
 	}
     }
 
+    /**
+     * Computes the probe positions of all the faces, and which of them are
+     * buried, spreading faces across threads
+     */
     protected void computeTrilaterations() {
+	final ArrayList<Face> faces = new ArrayList<Face>();
+
 	for (int i = 0; i < atoms.size(); i++) {
 	    Atom thisAtom = atoms.get(i);
 
-	    boolean allBuried = true;
 	    for (int j = 0; j < thisAtom.faces.size(); j++) {
 		Face face = thisAtom.faces.get(j);
 
+		// Each face is handled once, by its first atom
 		if (face.one.index >= thisAtom.index
 			&& face.two.index >= thisAtom.index
 			&& face.three.index >= thisAtom.index) {
-
-		    computeTrilaterations(face);
-		    checkBuriedVertices(face);
-
-		    if (!face.isBuried()) {
-			allBuried = false;
-		    }
+		    faces.add(face);
 		}
 	    }
+	}
+
+	forEachRange(faces.size(), new Range() {
+	    public void run(int from, int to) {
+		computeTrilaterations(faces, from, to);
+	    }
+	});
+
+	for (int i = 0; i < atoms.size(); i++) {
+	    Atom thisAtom = atoms.get(i);
 
 	    if (thisAtom.edges.size() > 0 || thisAtom.faces.size() == 0) {
 		continue;
-	    } else if (allBuried) {
+	    }
+
+	    boolean allBuried = true;
+	    for (int j = 0; j < thisAtom.faces.size(); j++) {
+		if (!thisAtom.faces.get(j).isBuried()) {
+		    allBuried = false;
+		    break;
+		}
+	    }
+
+	    if (allBuried) {
 		thisAtom.isBuried = true;
 	    }
 	}
     }
 
+    protected void computeTrilaterations(List<Face> faces, int from, int to) {
+	for (int i = from; i < to; i++) {
+	    Face face = faces.get(i);
+
+	    computeTrilaterations(face);
+	    checkBuriedVertices(face);
+	}
+    }
+
+    /**
+     * A range of items to process, independently of any other
+     */
+    interface Range {
+	void run(int from, int to);
+    }
+
+    /**
+     * Splits items into ranges, a few per thread to balance the load, and
+     * waits for all of them to complete. Few items are processed on the
+     * calling thread.
+     * 
+     * @param size
+     *            the number of items
+     * @param range
+     */
+    protected void forEachRange(int size, final Range range) {
+	if (size < PARALLEL_THRESHOLD || THREADS == 1) {
+	    range.run(0, size);
+	    return;
+	}
+
+	ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+	try {
+	    int chunk = (size + 4 * THREADS - 1) / (4 * THREADS);
+
+	    List<Future<Object>> futures = new ArrayList<Future<Object>>();
+	    for (int i = 0; i < size; i += chunk) {
+		final int from = i;
+		final int to = Math.min(size, i + chunk);
+
+		futures.add(pool.submit(new Callable<Object>() {
+		    public Object call() {
+			range.run(from, to);
+			return null;
+		    }
+		}));
+	    }
+
+	    for (Future<Object> future : futures) {
+		future.get();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new RuntimeException(e);
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof RuntimeException) {
+		throw (RuntimeException) e.getCause();
+	    }
+	    throw new RuntimeException(e.getCause());
+	} finally {
+	    pool.shutdownNow();
+	}
+    }
+
     /**
      * Compute the two 3D trilaterations of a face
      * 
@@ -330,191 +609,390 @@ public class MolecularSurfaceSampler implements Sampler {
 	double z = r1sq - x * x - y * y;
 
 	if (z < 0) {
-	    throw new RuntimeException("Trilateration failed (z = " + z + ")");
+	    // The three probe spheres do not meet: no probe can touch all of
+	    // the atoms at once
+	    face.firstVertex.isBuried = true;
+	    face.secondVertex.isBuried = true;
+	    return;
 	}
 
 	z = Math.sqrt(z);
 
-	face.firstVertex.position[0] = face.one.position[0] + x;
-	face.firstVertex.position[1] = face.one.position[1] + y;
-	face.firstVertex.position[2] = face.one.position[2] + z;
+	// x, y and z are relative to the frame of the face
+	double[] ex = new double[3];
+	double[] ey = new double[3];
+	double[] ez = new double[3];
+	for (int k = 0; k < 3; k++) {
+	    ex[k] = (face.two.position[k] - face.one.position[k]) / d;
+	    ey[k] =
+		    ((face.three.position[k] - face.one.position[k]) - i
+			    * ex[k])
+			    / j;
+	}
+	ez[0] = ex[1] * ey[2] - ex[2] * ey[1];
+	ez[1] = ex[2] * ey[0] - ex[0] * ey[2];
+	ez[2] = ex[0] * ey[1] - ex[1] * ey[0];
+
+	for (int k = 0; k < 3; k++) {
+	    double center = face.one.position[k] + x * ex[k] + y * ey[k];
 
-	face.secondVertex.position[0] = face.one.position[0] + x;
-	face.secondVertex.position[1] = face.one.position[1] + y;
-	face.secondVertex.position[2] = face.one.position[2] - z;
+	    face.firstVertex.position[k] = center + z * ez[k];
+	    face.secondVertex.position[k] = center - z * ez[k];
+	}
     }
 
+    /**
+     * Checks whether the probe positions of a face intersect any other atom:
+     * only the atoms in the adjacent cells can
+     */
     protected void checkBuriedVertices(Face face) {
-	for (int i = 0; i < atoms.size(); i++) {
-	    Atom thisAtom = atoms.get(i);
+	checkBuriedVertex(face, face.firstVertex);
+	checkBuriedVertex(face, face.secondVertex);
+    }
 
-	    if (thisAtom == face.one || thisAtom == face.two
-		    || thisAtom == face.three) {
-		continue;
+    protected void checkBuriedVertex(Face face, Vertex vertex) {
+	int[] from = new int[3];
+	int[] to = new int[3];
+
+	cellRange(vertex.position, from, to);
+
+	for (int cx = from[0]; cx <= to[0]; cx++) {
+	    for (int cy = from[1]; cy <= to[1]; cy++) {
+		for (int cz = from[2]; cz <= to[2]; cz++) {
+		    int c = cell(cx, cy, cz);
+
+		    for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+			Atom thisAtom = cellAtoms[k];
+
+			if (thisAtom == face.one || thisAtom == face.two
+				|| thisAtom == face.three) {
+			    continue;
+			}
+
+			double d =
+				AlgebraicOperatorsNd.norm(vertex.position,
+					thisAtom.position);
+			if (d < thisAtom.radius + probeRadius) {
+			    vertex.isBuried = true;
+			    return;
+			}
+		    }
+		}
 	    }
+	}
+    }
+
+    /**
+     * Builds the table of the patches of the solvent excluded surface: the
+     * accessible parts of atoms (spherical), the saddles swept by the probe
+     * rolling between two atoms (toroidal), and the parts of the probe
+     * touching three atoms at once (concave).
+     * <p>
+     * The area of concave patches is exact, while the accessible parts of
+     * spherical and toroidal patches are estimated from AREA_SAMPLES
+     * directions or angles. Intersections between patches of different
+     * probes are ignored.
+     */
+    protected void buildPatches() {
+	final Patch[][] atomPatches = new Patch[atoms.size()][];
 
-	    if (!face.firstVertex.isBuried) {
-		double d1 =
-			AlgebraicOperatorsNd.norm(face.firstVertex.position,
-				thisAtom.position);
-		if (d1 < thisAtom.radius + probeRadius) {
-		    face.firstVertex.isBuried = true;
+	forEachRange(atoms.size(), new Range() {
+	    public void run(int from, int to) {
+		for (int i = from; i < to; i++) {
+		    atomPatches[i] = buildPatches(atoms.get(i));
 		}
 	    }
+	});
+
+	// Patches follow the order of the cell list
+	int cells = cellStart.length - 1;
+	patchStart = new int[cells + 1];
+
+	ArrayList<Patch> sorted = new ArrayList<Patch>();
+	for (int c = 0; c < cells; c++) {
+	    patchStart[c] = sorted.size();
+	    for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+		for (Patch patch : atomPatches[cellAtoms[k].index]) {
+		    sorted.add(patch);
+		}
+	    }
+	}
+	patchStart[cells] = sorted.size();
+
+	patches = sorted.toArray(new Patch[sorted.size()]);
+
+	double[] areas = new double[patches.length];
+	cumulativeAreas = new double[patches.length + 1];
+	for (int i = 0; i < patches.length; i++) {
+	    areas[i] = patches[i].area;
+	    cumulativeAreas[i + 1] = cumulativeAreas[i] + areas[i];
+	}
 
-	    if (!face.secondVertex.isBuried) {
-		double d2 =
-			AlgebraicOperatorsNd.norm(face.secondVertex.position,
-				thisAtom.position);
-		if (d2 < thisAtom.radius + probeRadius) {
-		    face.secondVertex.isBuried = true;
+	patchSelector = patches.length > 0 ? new AliasTable(areas) : null;
+    }
+
+    /**
+     * Builds the patches of an atom: its spherical patch, the toroidal
+     * patches with its neighbors of higher index, and the concave patches of
+     * the faces it is the first atom of
+     */
+    protected Patch[] buildPatches(Atom atom) {
+	ArrayList<Patch> patches = new ArrayList<Patch>();
+
+	if (!atom.isBuried) {
+	    int accessible = 0;
+	    for (int k = 0; k < AREA_SAMPLES; k++) {
+		if (isAccessible(atom, DIRECTIONS[k])) {
+		    accessible++;
 		}
 	    }
 
-	    if (face.firstVertex.isBuried && face.secondVertex.isBuried) {
-		break;
+	    if (accessible > 0) {
+		patches.add(new SphericalPatch(atom, accessible
+			/ (double) AREA_SAMPLES));
+	    }
+	}
+
+	for (Atom neighbor : atom.neighbors) {
+	    if (neighbor.index > atom.index) {
+		ToroidalPatch patch = new ToroidalPatch(atom, neighbor);
+		if (patch.area > 0) {
+		    patches.add(patch);
+		}
+	    }
+	}
+
+	for (Face face : atom.faces) {
+	    if (face.one == atom) {
+		for (Vertex vertex : new Vertex[] { face.firstVertex,
+			face.secondVertex }) {
+		    if (!vertex.isBuried) {
+			ConcavePatch patch = new ConcavePatch(face, vertex);
+			if (patch.area > 0) {
+			    patches.add(patch);
+			}
+		    }
+		}
 	    }
 	}
+
+	return patches.toArray(new Patch[patches.size()]);
     }
 
-    public double[] nextSample() {
-	double[] sample = new double[] { 0d, 0d, 0d };
+    /**
+     * Tells whether a probe touching an atom along a direction intersects
+     * any of its neighbors
+     */
+    protected boolean isAccessible(Atom atom, double[] direction) {
+	double distance = atom.radius + probeRadius;
+
+	double x = atom.position[0] + distance * direction[0];
+	double y = atom.position[1] + distance * direction[1];
+	double z = atom.position[2] + distance * direction[2];
 
-	// Just for now
-	return sample;
+	return isAccessible(x, y, z, atom.neighbors, null);
     }
 
+    /**
+     * Tells whether a probe centered in (x, y, z) intersects any of the given
+     * atoms, but one
+     */
+    protected boolean isAccessible(double x, double y, double z,
+	    List<Atom> atoms, Atom excluded) {
+	for (int k = 0; k < atoms.size(); k++) {
+	    Atom other = atoms.get(k);
+	    if (other == excluded) {
+		continue;
+	    }
+
+	    double dx = x - other.position[0];
+	    double dy = y - other.position[1];
+	    double dz = z - other.position[2];
+	    double distance = other.radius + probeRadius;
+
+	    if (dx * dx + dy * dy + dz * dz < distance * distance) {
+		return false;
+	    }
+	}
+
+	return true;
+    }
+
+    /**
+     * Gets a sample uniformly distributed over the solvent excluded surface,
+     * in constant time with respect to the size of the molecule
+     * 
+     * @return A sampled point, in the cubic box
+     */
+    public double[] nextSample() {
+	return toBox(sampleSurface(random));
+    }
+
+    /**
+     * Gets a sample on the patches that may come within radius of a point
+     * 
+     * @return A sampled point, in the cubic box
+     */
     public double[] nextSample(double[] point, double radius) {
+	return toBox(sampleSurface(fromBox(point), radius / SCALE));
+    }
+
+    /**
+     * Gets a sample uniformly distributed over the solvent excluded surface
+     * 
+     * @return A sampled point, in angstroms
+     */
+    protected double[] sampleSurface(Random random) {
+	double[] sample = new double[3];
+
+	while (true) {
+	    Patch patch = patches[patchSelector.next(random)];
 
-	// Just for now
-	return nextSample();
+	    for (int k = 0; k < MAX_REJECTION; k++) {
+		if (patch.sample(random, sample)) {
+		    return sample;
+		}
+	    }
+	}
     }
 
     /**
-     * Default table of van der Waals Atomic Radii.</br> Values taken from
-     * OpenBabel.
+     * Gets a sample on the patches that may come within radius of a point.
+     * Patches are found through the cell list: all the points of a patch are
+     * within maxRadius + 2 * probeRadius of its atom.
      * 
-     * @see <a
-     *      href="http://openbabel.sourceforge.net">openbabel.sourceforge.net</a>
-     * @see <a
-     *      href="http://jmol.svn.sourceforge.net/viewvc/jmol/trunk/Jmol/src/org/jmol/_documents/vdw_comparison.xls">vdw_comparison.xls</a>
+     * @return A sampled point, in angstroms
      */
-    private static void initalizeAtomicRadiusTable() {
-	atomicRadiusTable = new Hashtable<String, Double>();
-
-	atomicRadiusTable.put("H", 1.2d);
-	atomicRadiusTable.put("He", 1.4d);
-	atomicRadiusTable.put("Li", 1.82d);
-	atomicRadiusTable.put("Be", 1.7d);
-	atomicRadiusTable.put("B", 2.08d);
-	atomicRadiusTable.put("C", 1.95d);
-	atomicRadiusTable.put("N", 1.85d);
-	atomicRadiusTable.put("O", 1.7d);
-	atomicRadiusTable.put("F", 1.73d);
-	atomicRadiusTable.put("Ne", 1.54d);
-	atomicRadiusTable.put("Na", 2.27d);
-	atomicRadiusTable.put("Mg", 1.73d);
-	atomicRadiusTable.put("Al", 2.05d);
-	atomicRadiusTable.put("Si", 2.1d);
-	atomicRadiusTable.put("P", 2.08d);
-	atomicRadiusTable.put("S", 2d);
-	atomicRadiusTable.put("Cl", 1.97d);
-	atomicRadiusTable.put("Ar", 1.88d);
-	atomicRadiusTable.put("K", 2.75d);
-	atomicRadiusTable.put("Ca", 1.973d);
-	atomicRadiusTable.put("Sc", 1.7d);
-	atomicRadiusTable.put("Ti", 1.7d);
-	atomicRadiusTable.put("V", 1.7d);
-	atomicRadiusTable.put("Cr", 1.7d);
-	atomicRadiusTable.put("Mn", 1.7d);
-	atomicRadiusTable.put("Fe", 1.7d);
-	atomicRadiusTable.put("Co", 1.7d);
-	atomicRadiusTable.put("Ni", 1.63d);
-	atomicRadiusTable.put("Cu", 1.4d);
-	atomicRadiusTable.put("Zn", 1.39d);
-	atomicRadiusTable.put("Ga", 1.87d);
-	atomicRadiusTable.put("Ge", 1.7d);
-	atomicRadiusTable.put("As", 1.85d);
-	atomicRadiusTable.put("Se", 1.9d);
-	atomicRadiusTable.put("Br", 2.1d);
-	atomicRadiusTable.put("Kr", 2.02d);
-	atomicRadiusTable.put("Rb", 1.7d);
-	atomicRadiusTable.put("Sr", 1.7d);
-	atomicRadiusTable.put("Y", 1.7d);
-	atomicRadiusTable.put("Zr", 1.7d);
-	atomicRadiusTable.put("Nb", 1.7d);
-	atomicRadiusTable.put("Mo", 1.7d);
-	atomicRadiusTable.put("Tc", 1.7d);
-	atomicRadiusTable.put("Ru", 1.7d);
-	atomicRadiusTable.put("Rh", 1.7d);
-	atomicRadiusTable.put("Pd", 1.63d);
-	atomicRadiusTable.put("Ag", 1.72d);
-	atomicRadiusTable.put("Cd", 1.58d);
-	atomicRadiusTable.put("In", 1.93d);
-	atomicRadiusTable.put("Sn", 2.17d);
-	atomicRadiusTable.put("Sb", 2.2d);
-	atomicRadiusTable.put("Te", 2.06d);
-	atomicRadiusTable.put("I", 2.15d);
-	atomicRadiusTable.put("Xe", 2.16d);
-	atomicRadiusTable.put("Cs", 1.7d);
-	atomicRadiusTable.put("Ba", 1.7d);
-	atomicRadiusTable.put("La", 1.7d);
-	atomicRadiusTable.put("Ce", 1.7d);
-	atomicRadiusTable.put("Pr", 1.7d);
-	atomicRadiusTable.put("Nd", 1.7d);
-	atomicRadiusTable.put("Pm", 1.7d);
-	atomicRadiusTable.put("Sm", 1.7d);
-	atomicRadiusTable.put("Eu", 1.7d);
-	atomicRadiusTable.put("Gd", 1.7d);
-	atomicRadiusTable.put("Tb", 1.7d);
-	atomicRadiusTable.put("Dy", 1.7d);
-	atomicRadiusTable.put("Ho", 1.7d);
-	atomicRadiusTable.put("Er", 1.7d);
-	atomicRadiusTable.put("Tm", 1.7d);
-	atomicRadiusTable.put("Yb", 1.7d);
-	atomicRadiusTable.put("Lu", 1.7d);
-	atomicRadiusTable.put("Hf", 1.7d);
-	atomicRadiusTable.put("Ta", 1.7d);
-	atomicRadiusTable.put("W", 1.7d);
-	atomicRadiusTable.put("Re", 1.7d);
-	atomicRadiusTable.put("Os", 1.7d);
-	atomicRadiusTable.put("Ir", 1.7d);
-	atomicRadiusTable.put("Pt", 1.72d);
-	atomicRadiusTable.put("Au", 1.66d);
-	atomicRadiusTable.put("Hg", 1.55d);
-	atomicRadiusTable.put("Tl", 1.96d);
-	atomicRadiusTable.put("Pb", 2.02d);
-	atomicRadiusTable.put("Bi", 1.7d);
-	atomicRadiusTable.put("Po", 1.7d);
-	atomicRadiusTable.put("At", 1.7d);
-	atomicRadiusTable.put("Rn", 1.7d);
-	atomicRadiusTable.put("Fr", 1.7d);
-	atomicRadiusTable.put("Ra", 1.7d);
-	atomicRadiusTable.put("Ac", 1.7d);
-	atomicRadiusTable.put("Th", 1.7d);
-	atomicRadiusTable.put("Pa", 1.7d);
-	atomicRadiusTable.put("U", 1.86d);
-	atomicRadiusTable.put("Np", 1.7d);
-	atomicRadiusTable.put("Pu", 1.7d);
-	atomicRadiusTable.put("Am", 1.7d);
-	atomicRadiusTable.put("Cm", 1.7d);
-	atomicRadiusTable.put("Bk", 1.7d);
-	atomicRadiusTable.put("Cf", 1.7d);
-	atomicRadiusTable.put("Es", 1.7d);
-	atomicRadiusTable.put("Fm", 1.7d);
-	atomicRadiusTable.put("Md", 1.7d);
-	atomicRadiusTable.put("No", 1.7d);
-	atomicRadiusTable.put("Lr", 1.7d);
-	atomicRadiusTable.put("Rf", 1.7d);
-	atomicRadiusTable.put("Db", 1.7d);
-	atomicRadiusTable.put("Sg", 1.7d);
-	atomicRadiusTable.put("Bh", 1.7d);
-	atomicRadiusTable.put("Hs", 1.7d);
-	atomicRadiusTable.put("Mt", 1.7d);
+    protected double[] sampleSurface(double[] point, double radius) {
+	double reach = radius + maxRadius + 2 * probeRadius;
+	double[] min = new double[] { minX, minY, minZ };
+
+	int[] from = new int[3];
+	int[] to = new int[3];
+	for (int d = 0; d < 3; d++) {
+	    from[d] = cellIndex(point[d] - reach - min[d], d);
+	    to[d] = cellIndex(point[d] + reach - min[d], d);
+	}
+
+	// Cells along z are contiguous, and so are their patches
+	double total = 0d;
+	for (int cx = from[0]; cx <= to[0]; cx++) {
+	    for (int cy = from[1]; cy <= to[1]; cy++) {
+		total +=
+			cumulativeAreas[patchStart[cell(cx, cy, to[2]) + 1]]
+				- cumulativeAreas[patchStart[cell(cx, cy,
+					from[2])]];
+	    }
+	}
+
+	if (!(total > 0d)) {
+	    return sampleSurface(random);
+	}
+
+	double[] sample = new double[3];
+	double[] closest = null;
+	double closestDistance = Double.MAX_VALUE;
+
+	for (int k = 0; k < MAX_REJECTION; k++) {
+	    Patch patch =
+		    patches[pickPatch(from, to, random.nextDouble() * total)];
+
+	    if (patch.sample(random, sample)) {
+		double distance = AlgebraicOperatorsNd.norm(sample, point);
+
+		if (distance <= radius) {
+		    return sample;
+		} else if (distance < closestDistance) {
+		    closest = sample.clone();
+		    closestDistance = distance;
+		}
+	    }
+	}
+
+	return closest != null ? closest : sampleSurface(random);
+    }
+
+    /**
+     * Finds the patch, within a range of cells, where the cumulative area
+     * reaches a target
+     */
+    protected int pickPatch(int[] from, int[] to, double target) {
+	for (int cx = from[0]; cx <= to[0]; cx++) {
+	    for (int cy = from[1]; cy <= to[1]; cy++) {
+		int first = patchStart[cell(cx, cy, from[2])];
+		int last = patchStart[cell(cx, cy, to[2]) + 1];
+
+		double area = cumulativeAreas[last] - cumulativeAreas[first];
+		if (target >= area) {
+		    target -= area;
+		    continue;
+		} else if (first == last) {
+		    continue;
+		}
+
+		// The last patch whose cumulative area does not exceed the
+		// target
+		double value = cumulativeAreas[first] + target;
+		int low = first;
+		int high = last - 1;
+		while (low < high) {
+		    int middle = (low + high + 1) >>> 1;
+		    if (cumulativeAreas[middle] <= value) {
+			low = middle;
+		    } else {
+			high = middle - 1;
+		    }
+		}
+
+		return low;
+	    }
+	}
+
+	// Rounding, the target is just past the last patch
+	int last = patchStart[cell(to[0], to[1], to[2]) + 1] - 1;
+	for (int i = last; i > 0; i--) {
+	    if (patches[i].area > 0) {
+		return i;
+	    }
+	}
+	return 0;
+    }
+
+    protected static void randomDirection(Random random, double[] direction) {
+	double z = 2d * random.nextDouble() - 1d;
+	double phi = 2d * Math.PI * random.nextDouble();
+	double r = Math.sqrt(1d - z * z);
+
+	direction[0] = r * Math.cos(phi);
+	direction[1] = r * Math.sin(phi);
+	direction[2] = z;
+    }
+
+    /**
+     * Normalizes a vector, unless it is null
+     */
+    protected static void normalize(double[] u) {
+	double norm = Math.sqrt(u[0] * u[0] + u[1] * u[1] + u[2] * u[2]);
+
+	if (norm > 0d) {
+	    u[0] /= norm;
+	    u[1] /= norm;
+	    u[2] /= norm;
+	}
+    }
+
+    protected static double dot(double[] u, double[] v) {
+	return u[0] * v[0] + u[1] * v[1] + u[2] * v[2];
+    }
+
+    protected static void cross(double[] u, double[] v, double[] result) {
+	result[0] = u[1] * v[2] - u[2] * v[1];
+	result[1] = u[2] * v[0] - u[0] * v[2];
+	result[2] = u[0] * v[1] - u[1] * v[0];
     }
 
     /**
-     * @see #parsePDB(BufferedReader br)
+     * @see PDBAtoms
      */
     class Atom {
 	int index;
@@ -566,6 +1044,303 @@ public class MolecularSurfaceSampler implements Sampler {
 	boolean isBuried = false;
     }
 
+    /**
+     * A patch of the solvent excluded surface
+     */
+    abstract class Patch {
+	double area;
+
+	/**
+	 * Tries to sample the patch uniformly. Patches may have to reject some
+	 * samples, which are not on their accessible part.
+	 * 
+	 * @param random
+	 * @param point
+	 *            the sampled point, overwritten
+	 * @return true if a point has been sampled
+	 */
+	abstract boolean sample(Random random, double[] point);
+    }
+
+    /**
+     * The part of an atom that a probe can touch
+     */
+    class SphericalPatch extends Patch {
+	Atom atom;
+
+	SphericalPatch(Atom atom, double accessibleFraction) {
+	    this.atom = atom;
+
+	    area = 4 * Math.PI * atom.radius * atom.radius * accessibleFraction;
+	}
+
+	boolean sample(Random random, double[] point) {
+	    double[] direction = new double[3];
+	    randomDirection(random, direction);
+
+	    if (!isAccessible(atom, direction)) {
+		return false;
+	    }
+
+	    for (int k = 0; k < 3; k++) {
+		point[k] = atom.position[k] + atom.radius * direction[k];
+	    }
+
+	    return true;
+	}
+    }
+
+    /**
+     * The saddle swept by a probe rolling around two atoms, as long as it
+     * does not intersect any other atom. The centers of the probe lie on a
+     * circle around the axis of the atoms; in each plane through the axis,
+     * the patch is the arc of the probe between its contact points.
+     */
+    class ToroidalPatch extends Patch {
+	Atom one;
+	Atom two;
+
+	// The atoms which may block the probe
+	ArrayList<Atom> blocking = new ArrayList<Atom>();
+
+	double[] center = new double[3];
+	double[] axis = new double[3];
+	double[] u = new double[3];
+	double[] v = new double[3];
+
+	// Radius of the circle of probe centers
+	double rho;
+
+	// Angles of the contact points, in the plane through the axis
+	double fromAngle;
+	double toAngle;
+
+	ToroidalPatch(Atom one, Atom two) {
+	    this.one = one;
+	    this.two = two;
+
+	    double r1 = one.radius + probeRadius;
+	    double r2 = two.radius + probeRadius;
+
+	    double d = AlgebraicOperatorsNd.norm(two.position, one.position);
+	    if (d >= r1 + r2 || d <= Math.abs(r1 - r2)) {
+		// No circle, hence no patch
+		return;
+	    }
+
+	    for (int k = 0; k < 3; k++) {
+		axis[k] = (two.position[k] - one.position[k]) / d;
+	    }
+
+	    double a = (d * d + r1 * r1 - r2 * r2) / (2 * d);
+	    rho = Math.sqrt(r1 * r1 - a * a);
+
+	    for (int k = 0; k < 3; k++) {
+		center[k] = one.position[k] + a * axis[k];
+	    }
+
+	    // Any two directions orthogonal to the axis
+	    double[] other =
+		    Math.abs(axis[0]) < 0.9d ? new double[] { 1d, 0d, 0d }
+			    : new double[] { 0d, 1d, 0d };
+	    cross(axis, other, u);
+	    normalize(u);
+	    cross(axis, u, v);
+
+	    fromAngle = Math.atan2(-rho, -a);
+	    toAngle = Math.atan2(-rho, d - a);
+
+	    // Only atoms next to both can touch the probe
+	    for (Atom atom : one.neighbors) {
+		if (atom != two && two.neighbors.contains(atom)) {
+		    blocking.add(atom);
+		}
+	    }
+
+	    int accessible = 0;
+	    for (int k = 0; k < AREA_SAMPLES; k++) {
+		double phi = 2 * Math.PI * (k + 0.5d) / AREA_SAMPLES;
+		double cos = rho * Math.cos(phi);
+		double sin = rho * Math.sin(phi);
+
+		if (isAccessible(center[0] + cos * u[0] + sin * v[0],
+			center[1] + cos * u[1] + sin * v[1], center[2] + cos
+				* u[2] + sin * v[2], blocking, null)) {
+		    accessible++;
+		}
+	    }
+
+	    // Points of the arc at angle t are rho + probeRadius * sin(t) away
+	    // from the axis, or on it where the torus intersects itself
+	    double arc = 0d;
+	    double step = (toAngle - fromAngle) / AREA_SAMPLES;
+	    for (int k = 0; k < AREA_SAMPLES; k++) {
+		double t = fromAngle + (k + 0.5d) * step;
+		arc += Math.max(0d, rho + probeRadius * Math.sin(t)) * step;
+	    }
+
+	    area =
+		    2 * Math.PI * probeRadius * arc * accessible
+			    / AREA_SAMPLES;
+	}
+
+	boolean sample(Random random, double[] point) {
+	    double phi = 2 * Math.PI * random.nextDouble();
+	    double cos = Math.cos(phi);
+	    double sin = Math.sin(phi);
+
+	    double[] radial = new double[3];
+	    double[] probe = new double[3];
+	    for (int k = 0; k < 3; k++) {
+		radial[k] = cos * u[k] + sin * v[k];
+		probe[k] = center[k] + rho * radial[k];
+	    }
+
+	    if (!isAccessible(probe[0], probe[1], probe[2], blocking, null)) {
+		return false;
+	    }
+
+	    // The area element is proportional to the distance from the axis,
+	    // which is largest at either end of the arc
+	    double max =
+		    Math.max(rho + probeRadius * Math.sin(fromAngle), rho
+			    + probeRadius * Math.sin(toAngle));
+
+	    double t;
+	    int tries = 0;
+	    do {
+		if (tries++ == MAX_REJECTION) {
+		    return false;
+		}
+		t = fromAngle + random.nextDouble() * (toAngle - fromAngle);
+	    } while (random.nextDouble() * max > rho + probeRadius
+		    * Math.sin(t));
+
+	    for (int k = 0; k < 3; k++) {
+		point[k] =
+			probe[k]
+				+ probeRadius
+				* (Math.cos(t) * axis[k] + Math.sin(t)
+					* radial[k]);
+	    }
+
+	    return true;
+	}
+    }
+
+    /**
+     * The spherical triangle of a probe touching the three atoms of a face
+     * 
+     * @see "Arvo, J., <i>Stratified Sampling of Spherical Triangles</i>,
+     *      Proceedings of SIGGRAPH '95, 1995"
+     */
+    class ConcavePatch extends Patch {
+	double[] probe;
+
+	// Directions of the contact points, the vertices of the triangle
+	double[] a = new double[3];
+	double[] b = new double[3];
+	double[] c = new double[3];
+
+	// Angle at vertex a, and its sine and cosine
+	double alpha;
+	double sinAlpha;
+	double cosAlpha;
+
+	// Spherical excess, the area of the triangle on the unit sphere
+	double excess;
+
+	ConcavePatch(Face face, Vertex vertex) {
+	    probe = vertex.position;
+
+	    for (int k = 0; k < 3; k++) {
+		a[k] = face.one.position[k] - probe[k];
+		b[k] = face.two.position[k] - probe[k];
+		c[k] = face.three.position[k] - probe[k];
+	    }
+	    normalize(a);
+	    normalize(b);
+	    normalize(c);
+
+	    alpha = angle(a, b, c);
+	    double beta = angle(b, c, a);
+	    double gamma = angle(c, a, b);
+
+	    excess = alpha + beta + gamma - Math.PI;
+	    if (!(excess > 0d)) {
+		// Degenerate
+		return;
+	    }
+
+	    sinAlpha = Math.sin(alpha);
+	    cosAlpha = Math.cos(alpha);
+
+	    area = probeRadius * probeRadius * excess;
+	}
+
+	/**
+	 * Gets the angle at vertex p of the triangle p, q, r
+	 */
+	double angle(double[] p, double[] q, double[] r) {
+	    double[] tq = new double[3];
+	    double[] tr = new double[3];
+
+	    double pq = dot(p, q);
+	    double pr = dot(p, r);
+	    for (int k = 0; k < 3; k++) {
+		tq[k] = q[k] - pq * p[k];
+		tr[k] = r[k] - pr * p[k];
+	    }
+	    normalize(tq);
+	    normalize(tr);
+
+	    return Math.acos(Math.max(-1d, Math.min(1d, dot(tq, tr))));
+	}
+
+	boolean sample(Random random, double[] point) {
+	    // Sub-triangle a, b, c' of the area wanted
+	    double subArea = random.nextDouble() * excess;
+
+	    double s = Math.sin(subArea - alpha);
+	    double t = Math.cos(subArea - alpha);
+	    double uu = t - cosAlpha;
+	    double vv = s + sinAlpha * dot(a, b);
+
+	    double q =
+		    ((vv * t - uu * s) * cosAlpha - vv)
+			    / ((vv * s + uu * t) * sinAlpha);
+	    q = Math.max(-1d, Math.min(1d, q));
+
+	    double[] tmp = new double[3];
+	    double ac = dot(c, a);
+	    for (int k = 0; k < 3; k++) {
+		tmp[k] = c[k] - ac * a[k];
+	    }
+	    normalize(tmp);
+
+	    double[] cc = new double[3];
+	    double sq = Math.sqrt(1d - q * q);
+	    for (int k = 0; k < 3; k++) {
+		cc[k] = q * a[k] + sq * tmp[k];
+	    }
+
+	    // Then a point along the arc from b to c'
+	    double z = 1d - random.nextDouble() * (1d - dot(cc, b));
+	    double bc = dot(cc, b);
+	    for (int k = 0; k < 3; k++) {
+		tmp[k] = cc[k] - bc * b[k];
+	    }
+	    normalize(tmp);
+
+	    double sz = Math.sqrt(Math.max(0d, 1d - z * z));
+	    for (int k = 0; k < 3; k++) {
+		point[k] = probe[k] + probeRadius * (z * b[k] + sz * tmp[k]);
+	    }
+
+	    return true;
+	}
+    }
+
     public String toString() {
 	return this.getClass().getSimpleName() + "(\"" + file.getPath() + "\")";
     }
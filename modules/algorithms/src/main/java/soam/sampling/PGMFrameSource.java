@@ -0,0 +1,344 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.sampling;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.awt.image.BufferedImage;
+
+import soam.utils.PGMImageIO;
+import soam.utils.ParsedInputCache;
+import soam.utils.RasterKernels;
+
+/**
+ * Streams the frames of a distance/reflectance PGM sequence from disk. Only a
+ * sliding window of decoded frames is kept in memory: the current frame, the
+ * previous one (required by the distance difference threshold) and the next
+ * one, which is prefetched by a separate loader thread.
+ */
+public class PGMFrameSource {
+
+    protected static final String CACHE_KIND = "PGM pixels";
+
+    /**
+     * A decoded pair of distance and reflectance images
+     */
+    public static class Frame {
+	public final int index;
+	public final BufferedImage distanceImage;
+	public final BufferedImage reflectanceImage;
+
+	public Frame(int index, BufferedImage distanceImage,
+		BufferedImage reflectanceImage) {
+	    this.index = index;
+	    this.distanceImage = distanceImage;
+	    this.reflectanceImage = reflectanceImage;
+	}
+    }
+
+    /**
+     * A frame in the window, being loaded or loaded
+     */
+    protected static class Slot {
+	protected final Future<Frame> future;
+
+	// Whether the frame has already been consumed, and counted
+	protected boolean counted;
+
+	protected Slot(Future<Frame> future) {
+	    this.future = future;
+	}
+    }
+
+    protected File[] distanceFiles;
+    protected File[] reflectanceFiles;
+
+    protected ExecutorService loader;
+
+    protected Map<Integer, Slot> window = new HashMap<Integer, Slot>();
+
+    // Just statistics (times are in nanoseconds)
+    protected AtomicLong framesLoaded = new AtomicLong();
+    protected AtomicLong framesPrefetched = new AtomicLong();
+    protected AtomicLong timeElapsedOnLoad = new AtomicLong();
+    protected AtomicLong timeElapsedOnDecode = new AtomicLong();
+    protected AtomicLong timeElapsedOnWait = new AtomicLong();
+    protected AtomicLong lastLoadTime = new AtomicLong();
+    protected AtomicLong lastDecodeTime = new AtomicLong();
+
+    public PGMFrameSource(File[] distanceFiles, File[] reflectanceFiles) {
+	this.distanceFiles = distanceFiles;
+	this.reflectanceFiles = reflectanceFiles;
+
+	loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	    public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "PGMFrameSource loader");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+    }
+
+    /**
+     * Gets the number of frames in the sequence
+     *
+     * @return the number of frames
+     */
+    public int size() {
+	return distanceFiles.length;
+    }
+
+    /**
+     * Makes the given frame the current one: frames outside the window are
+     * released and the neighbors of the frame are scheduled for loading. The
+     * call blocks until the current frame has been decoded.
+     *
+     * @param index
+     * @return the current frame
+     * @throws IOException
+     */
+    public synchronized Frame moveTo(int index) throws IOException {
+
+	Iterator<Map.Entry<Integer, Slot>> iterator =
+		window.entrySet().iterator();
+	while (iterator.hasNext()) {
+	    Map.Entry<Integer, Slot> entry = iterator.next();
+	    int i = entry.getKey();
+
+	    if (i < index - 1 || i > index + 1) {
+		entry.getValue().future.cancel(false);
+		iterator.remove();
+	    }
+	}
+
+	// The loader is single-threaded: the current frame comes first
+	Slot current = schedule(index);
+	if (index > 0) {
+	    schedule(index - 1);
+	}
+	if (index < size() - 1) {
+	    schedule(index + 1);
+	}
+
+	return await(current);
+    }
+
+    /**
+     * Gets a frame. Frames outside the window are loaded synchronously and are
+     * not retained.
+     *
+     * @param index
+     * @return the frame
+     * @throws IOException
+     */
+    public synchronized Frame get(int index) throws IOException {
+	Slot slot = window.get(index);
+
+	if (slot == null) {
+	    return load(index);
+	} else {
+	    return await(slot);
+	}
+    }
+
+    /**
+     * Stops the loader thread and releases all frames
+     *
+     */
+    public synchronized void close() {
+	loader.shutdownNow();
+	window.clear();
+    }
+
+    protected Slot schedule(final int index) {
+	Slot slot = window.get(index);
+
+	if (slot == null) {
+	    slot = new Slot(loader.submit(new Callable<Frame>() {
+		public Frame call() throws Exception {
+		    return load(index);
+		}
+	    }));
+	    window.put(index, slot);
+	}
+
+	return slot;
+    }
+
+    /**
+     * Waits for a frame in the window. A frame counts as prefetched only the
+     * first time it is consumed, if it was already loaded by then.
+     */
+    protected Frame await(Slot slot) throws IOException {
+	if (!slot.counted) {
+	    slot.counted = true;
+
+	    if (slot.future.isDone()) {
+		framesPrefetched.incrementAndGet();
+	    }
+	}
+
+	long start = System.nanoTime();
+	try {
+	    return slot.future.get();
+
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException();
+
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof IOException) {
+		throw (IOException) e.getCause();
+	    } else {
+		throw new IOException(e.getCause());
+	    }
+
+	} finally {
+	    timeElapsedOnWait.addAndGet(System.nanoTime() - start);
+	}
+    }
+
+    protected Frame load(int index) throws IOException {
+	long start = System.nanoTime();
+
+	byte[] distanceBytes = readFully(distanceFiles[index]);
+	byte[] reflectanceBytes = readFully(reflectanceFiles[index]);
+
+	long loaded = System.nanoTime();
+
+	BufferedImage distanceImage =
+		decode(distanceFiles[index], distanceBytes);
+	BufferedImage reflectanceImage =
+		decode(reflectanceFiles[index], reflectanceBytes);
+
+	long decoded = System.nanoTime();
+
+	framesLoaded.incrementAndGet();
+	timeElapsedOnLoad.addAndGet(loaded - start);
+	timeElapsedOnDecode.addAndGet(decoded - loaded);
+	lastLoadTime.set(loaded - start);
+	lastDecodeTime.set(decoded - loaded);
+
+	return new Frame(index, distanceImage, reflectanceImage);
+    }
+
+    /**
+     * Decodes an image. Plain images, whose parsing is expensive, go through
+     * the parsed input cache.
+     */
+    protected static BufferedImage decode(File file, byte[] bytes)
+	    throws IOException {
+
+	boolean plain = bytes.length > 1 && bytes[0] == 'P' && bytes[1] == '2';
+	if (!plain) {
+	    return PGMImageIO.read(ByteBuffer.wrap(bytes));
+	}
+
+	ParsedInputCache cache = ParsedInputCache.getDefault();
+	ParsedInputCache.Key key = cache.key(file, CACHE_KIND, bytes);
+
+	Object[] arrays = cache.get(key);
+	if (arrays != null) {
+	    int[] size = (int[]) arrays[0];
+	    short[] pixels = (short[]) arrays[1];
+
+	    BufferedImage image =
+		    new BufferedImage(size[0], size[1],
+			    BufferedImage.TYPE_USHORT_GRAY);
+	    System.arraycopy(pixels, 0, RasterKernels.ushortPixels(image
+		    .getRaster()), 0, pixels.length);
+
+	    return image;
+	}
+
+	BufferedImage image = PGMImageIO.read(ByteBuffer.wrap(bytes));
+
+	cache.put(key, new int[] { image.getWidth(), image.getHeight() },
+		RasterKernels.ushortPixels(image.getRaster()));
+
+	return image;
+    }
+
+    protected static byte[] readFully(File file) throws IOException {
+	byte[] bytes = new byte[(int) file.length()];
+
+	DataInputStream in = new DataInputStream(new FileInputStream(file));
+	try {
+	    in.readFully(bytes);
+	} finally {
+	    in.close();
+	}
+
+	return bytes;
+    }
+
+    public long getFramesLoaded() {
+	return framesLoaded.get();
+    }
+
+    public long getFramesPrefetched() {
+	return framesPrefetched.get();
+    }
+
+    public long getTimeElapsedOnLoad() {
+	return timeElapsedOnLoad.get();
+    }
+
+    public long getTimeElapsedOnDecode() {
+	return timeElapsedOnDecode.get();
+    }
+
+    public long getTimeElapsedOnWait() {
+	return timeElapsedOnWait.get();
+    }
+
+    public long getLastLoadTime() {
+	return lastLoadTime.get();
+    }
+
+    public long getLastDecodeTime() {
+	return lastDecodeTime.get();
+    }
+
+    public double getAverageLoadTime() {
+	long frames = framesLoaded.get();
+	return frames > 0 ? timeElapsedOnLoad.get() / (double) frames : 0d;
+    }
+
+    public double getAverageDecodeTime() {
+	long frames = framesLoaded.get();
+	return frames > 0 ? timeElapsedOnDecode.get() / (double) frames : 0d;
+    }
+
+}
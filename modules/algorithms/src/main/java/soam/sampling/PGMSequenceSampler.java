@@ -3,10 +3,11 @@ package soam.sampling;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 
-import java.util.ArrayList;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
@@ -15,7 +16,7 @@ import java.awt.image.WritableRaster;
 import javax.swing.*;
 
 import soam.algorithms.Algorithm;
-import soam.utils.PGMImageIO;
+import soam.utils.RasterKernels;
 
 @SuppressWarnings("unused")
 public class PGMSequenceSampler implements Sampler {
@@ -54,10 +55,21 @@ public class PGMSequenceSampler implements Sampler {
     protected BufferedImage currentReflectanceImage;
     protected Raster currentReflectanceRaster;
 
-    protected ArrayList<double[]> currentPointCloud;
+    /**
+     * Published without locks, rebuilt only when the frame version changes
+     */
+    protected volatile FlatPointCloud currentPointCloud;
+
+    protected AtomicInteger frameVersion = new AtomicInteger();
 
-    protected BufferedImage[] distanceImages;
-    protected BufferedImage[] reflectanceImages;
+    /**
+     * Indices of the pixels passing the thresholds in the current frame
+     */
+    protected int[] viablePixels;
+
+    protected Raster previousDistanceRaster;
+
+    protected PGMFrameSource frameSource;
 
     protected File directory;
 
@@ -114,19 +126,13 @@ public class PGMSequenceSampler implements Sampler {
 			throw new RuntimeException();
 		    }
 
-		    distanceImages =
-			    new BufferedImage[distanceImageFiles.length];
-		    for (int i = 0; i < distanceImageFiles.length; i++) {
-			distanceImages[i] =
-				PGMImageIO.read(distanceImageFiles[i]);
-		    }
-
-		    reflectanceImages =
-			    new BufferedImage[reflectanceImageFiles.length];
-		    for (int i = 0; i < reflectanceImageFiles.length; i++) {
-			reflectanceImages[i] =
-				PGMImageIO.read(reflectanceImageFiles[i]);
+		    // Frames are decoded on demand, within a sliding window
+		    if (frameSource != null) {
+			frameSource.close();
 		    }
+		    frameSource =
+			    new PGMFrameSource(distanceImageFiles,
+				    reflectanceImageFiles);
 
 		    reset();
 
@@ -147,14 +153,17 @@ public class PGMSequenceSampler implements Sampler {
 
     public void reset() {
 
-	startAtFrame = Math.min(START_AT_FRAME - 1, distanceImages.length - 1);
-	endAtFrame = Math.min(END_AT_FRAME - 1, distanceImages.length - 1);
+	startAtFrame = Math.min(START_AT_FRAME - 1, frameSource.size() - 1);
+	endAtFrame = Math.min(END_AT_FRAME - 1, frameSource.size() - 1);
 
 	currentFrame = startAtFrame;
 
 	sampleCounter = 0;
 
-	currentDistanceImage = distanceImages[currentFrame];
+	if (!loadFrame(currentFrame)) {
+	    throw new RuntimeException("Could not load frame "
+		    + (currentFrame + 1));
+	}
 
 	algorithm.enableVertexCreation();
 	
@@ -164,16 +173,7 @@ public class PGMSequenceSampler implements Sampler {
 	    currentDistanceRaster = currentDistanceImage.getRaster();
 	}
 
-	currentReflectanceImage = reflectanceImages[currentFrame];
-	currentReflectanceRaster = currentReflectanceImage.getRaster();
-
-	if (currentPointCloud != null) {
-	    synchronized (currentPointCloud) {
-		currentPointCloud = new ArrayList<double[]>();
-	    }
-	} else {
-	    currentPointCloud = new ArrayList<double[]>();
-	}
+	frameChanged();
     }
 
     /**
@@ -210,49 +210,70 @@ public class PGMSequenceSampler implements Sampler {
     /**
      * Gets the point cloud
      * 
-     * @return the array list of points
+     * @return the point cloud
      */
-    public ArrayList<double[]> getPointCloud() {
+    public PointCloud getPointCloud() {
+	return pointCloud();
+    }
 
-	synchronized (currentPointCloud) {
+    /**
+     * Gets the point cloud of the current frame, which is built only once per
+     * frame version
+     * 
+     * @return the point cloud
+     */
+    public FlatPointCloud pointCloud() {
+	FlatPointCloud pointCloud = currentPointCloud;
+	int version = frameVersion.get();
 
-	    if (currentPointCloud.size() == 0) {
-		for (int i = 0; i < currentDistanceRaster.getWidth(); i++) {
-		    for (int j = 0; j < currentDistanceRaster.getHeight(); j++) {
+	if (pointCloud == null || pointCloud.getVersion() != version) {
+	    pointCloud = buildPointCloud(version);
+	    currentPointCloud = pointCloud;
+	}
 
-			double[] point;
-			if (USE_4D_SAMPLES) {
-			    point = new double[4];
-			} else {
-			    point = new double[3];
-			}
+	return pointCloud;
+    }
 
-			// Uniform sampling over image space
-			point[0] = i;
-			point[1] = j;
+    protected FlatPointCloud buildPointCloud(int version) {
+	int width = currentDistanceRaster.getWidth();
+	int height = currentDistanceRaster.getHeight();
+	int dimensions = getDimensions();
 
-			loadPoint(point);
+	double[] coordinates = new double[width * height * dimensions];
+	int size = 0;
 
-			double reflectance;
-			if (USE_4D_SAMPLES) {
-			    reflectance = point[3];
-			} else {
-			    reflectance =
-				    currentReflectanceRaster.getSampleDouble(
-					    (int) point[0], (int) point[1], 0)
-					    * REFLECTANCE_SCALE_FACTOR;
-			}
+	double[] point = new double[dimensions];
+	for (int i = 0; i < width; i++) {
+	    for (int j = 0; j < height; j++) {
+		point[0] = i;
+		point[1] = j;
 
-			if (isViable(point, reflectance)) {
-			    currentPointCloud.add(point);
-			}
-		    }
+		loadPoint(point);
+
+		double reflectance;
+		if (USE_4D_SAMPLES) {
+		    reflectance = point[3];
+		} else {
+		    reflectance =
+			    currentReflectanceRaster.getSampleDouble(i, j, 0)
+				    * REFLECTANCE_SCALE_FACTOR;
+		}
+
+		if (isViable(point, reflectance)) {
+		    System.arraycopy(point, 0, coordinates, size * dimensions,
+			    dimensions);
+		    size++;
 		}
 	    }
+	}
 
-	    return currentPointCloud;
+	if (size * dimensions < coordinates.length) {
+	    double[] tmp = new double[size * dimensions];
+	    System.arraycopy(coordinates, 0, tmp, 0, tmp.length);
+	    coordinates = tmp;
 	}
 
+	return new FlatPointCloud(version, dimensions, size, coordinates);
     }
 
     /**
@@ -276,28 +297,18 @@ public class PGMSequenceSampler implements Sampler {
 		&& DISTANCE_DIFFERENCE_THRESHOLD < 0) {
 	    return basicNextSample();
 	} else {
-	    int maxTries = currentDistanceRaster.getWidth() * currentDistanceRaster.getHeight();
-	    
-	    for (int i = 0; i < maxTries; i++) {
-		double[] sample = basicNextSample();
-
-		double reflectance;
-		if (USE_4D_SAMPLES) {
-		    reflectance = sample[3];
-		} else {
-		    reflectance =
-			    currentReflectanceRaster.getSampleDouble(
-				    (int) sample[0], (int) sample[1], 0)
-				    * REFLECTANCE_SCALE_FACTOR;
-		}
+	    int[] pixels = viablePixels;
+	    if (pixels == null) {
+		pixels = selectViablePixels();
+		viablePixels = pixels;
+	    }
 
-		if (isViable(sample, reflectance)) {
-		    return sample;
-		}
+	    if (pixels.length == 0) {
+		// Nothing passes the thresholds: do not filter at all
+		return basicNextSample();
 	    }
-	    
-	    System.err.println("nextSample() : Could not find a viable sample.");
-	    return null;
+
+	    return viableNextSample(pixels);
 	}
     }
 
@@ -347,39 +358,32 @@ public class PGMSequenceSampler implements Sampler {
 	    if ((currentFrame == startAtFrame && sampleCounter > SAMPLES_PER_INITIAL_FRAME)
 		    || (currentFrame > startAtFrame && sampleCounter > SAMPLES_PER_FRAME)) {
 
-		++currentFrame;
-
 		sampleCounter = 0;
 
+		if (!loadFrame(currentFrame + 1)) {
+		    // Just keep sampling the current frame
+		    return;
+		}
+
+		++currentFrame;
+
 		if (DISHABILITATION_FRACTION > 0) {
 		    algorithm.disableVertexCreation();
 		}
 
-		currentDistanceImage = distanceImages[currentFrame];
 		if (EXPONENTIAL_SMOOTHING > 0) {
-		    Raster raster = currentDistanceImage.getRaster();
-
-		    for (int x = 0; x < currentDistanceRaster.getWidth(); x++) {
-			for (int y = 0; y < currentDistanceRaster.getHeight(); y++) {
-			    double s =
-				    currentDistanceRaster.getSampleDouble(x, y,
-					    0);
-			    double v = raster.getSampleDouble(x, y, 0);
-
-			    s =
-				    (1 - EXPONENTIAL_SMOOTHING) * v
-					    + EXPONENTIAL_SMOOTHING * s;
-
-			    currentDistanceRaster.setSample(x, y, 0, s);
-			}
-		    }
+		    // The next frame is already being decoded by the frame source
+		    RasterKernels.exponentialSmoothing(RasterKernels
+			    .ushortPixels(currentDistanceRaster), RasterKernels
+			    .ushortPixels(currentDistanceImage.getRaster()),
+			    currentDistanceRaster.getWidth(),
+			    1 - EXPONENTIAL_SMOOTHING, EXPONENTIAL_SMOOTHING);
 
 		} else {
 		    currentDistanceRaster = currentDistanceImage.getRaster();
 		}
 
-		currentReflectanceImage = reflectanceImages[currentFrame];
-		currentReflectanceRaster = currentReflectanceImage.getRaster();
+		frameChanged();
 	    }
 	}
 	
@@ -388,10 +392,120 @@ public class PGMSequenceSampler implements Sampler {
 		* DISHABILITATION_FRACTION)) {
 	    algorithm.enableVertexCreation();
 	}
+    }
+
+    /**
+     * Makes the given frame the current one: the frame source will release the
+     * frames that are no longer required and prefetch the next one
+     * 
+     * @param frame
+     * @return true if the frame could be loaded
+     */
+    protected boolean loadFrame(int frame) {
+	try {
+	    PGMFrameSource.Frame current = frameSource.moveTo(frame);
+
+	    currentDistanceImage = current.distanceImage;
+	    currentReflectanceImage = current.reflectanceImage;
+	    currentReflectanceRaster = currentReflectanceImage.getRaster();
+
+	    if (frame > 0) {
+		previousDistanceRaster =
+			frameSource.get(frame - 1).distanceImage.getRaster();
+	    } else {
+		previousDistanceRaster = null;
+	    }
+
+	} catch (IOException e) {
+	    System.err.println("When loading frame " + (frame + 1));
+	    e.printStackTrace();
+
+	    return false;
+	}
+
+	return true;
+    }
+
+    /**
+     * Invalidates the viable pixels and the point cloud of the current frame
+     * 
+     */
+    protected void frameChanged() {
+	viablePixels = null;
+	frameVersion.incrementAndGet();
+    }
+
+    /**
+     * Collects the indices of the pixels in the current frame that pass the
+     * reflectance and distance difference thresholds. As in uniform sampling
+     * over image space, the last row and column are never selected.
+     * 
+     * @return the indices of the viable pixels
+     */
+    protected int[] selectViablePixels() {
+	int width = currentDistanceRaster.getWidth();
+	int height = currentDistanceRaster.getHeight();
+
+	int[] pixels = new int[Math.max(width - 1, 0) * Math.max(height - 1, 0)];
+	int count = 0;
+
+	double[] point = new double[getDimensions()];
+	for (int y = 0; y < height - 1; y++) {
+	    for (int x = 0; x < width - 1; x++) {
+		point[0] = x;
+		point[1] = y;
+
+		loadPoint(point);
+
+		double reflectance;
+		if (USE_4D_SAMPLES) {
+		    reflectance = point[3];
+		} else {
+		    reflectance =
+			    currentReflectanceRaster.getSampleDouble(x, y, 0)
+				    * REFLECTANCE_SCALE_FACTOR;
+		}
+
+		if (isViable(point, reflectance)) {
+		    pixels[count++] = y * width + x;
+		}
+	    }
+	}
+
+	if (count == 0) {
+	    System.err.println("Frame " + (currentFrame + 1)
+		    + " : Could not find a viable sample.");
+	}
+
+	int[] tmp = new int[count];
+	System.arraycopy(pixels, 0, tmp, 0, count);
+
+	return tmp;
+    }
+
+    /**
+     * Gets a sample uniformly distributed over the viable pixels
+     * 
+     * @param pixels
+     * @return A sampled point
+     */
+    protected double[] viableNextSample(int[] pixels) {
+	int width = currentDistanceRaster.getWidth();
+	int pixel = pixels[random.nextInt(pixels.length)];
 
-	synchronized (currentPointCloud) {
-	    currentPointCloud = new ArrayList<double[]>();
+	double[] sample;
+	if (USE_4D_SAMPLES) {
+	    sample = new double[4];
+	} else {
+	    sample = new double[3];
 	}
+
+	sample[0] = pixel % width + random.nextDouble();
+	sample[1] = pixel / width + random.nextDouble();
+
+	loadPoint(sample);
+
+	return sample;
     }
 
     protected boolean isViable(double[] sample, double reflectance) {
@@ -406,9 +520,8 @@ public class PGMSequenceSampler implements Sampler {
 	if (reflectance_OK && DISTANCE_DIFFERENCE_THRESHOLD >= 0
 		&& currentFrame > 0) {
 	    double previousValue =
-		    distanceImages[currentFrame - 1].getRaster()
-			    .getSampleDouble((int) sample[0], (int) sample[1],
-				    0)
+		    previousDistanceRaster.getSampleDouble((int) sample[0],
+			    (int) sample[1], 0)
 			    * DISTANCE_SCALE_FACTOR;
 
 	    if (Math.abs(sample[2] - previousValue) > DISTANCE_DIFFERENCE_THRESHOLD) {
@@ -512,7 +625,7 @@ public class PGMSequenceSampler implements Sampler {
 		    && isDistanceWithinThreshold(currentFrame + i, x, y)) {
 		pixels++;
 		tmp +=
-			distanceImages[currentFrame + i].getRaster()
+			frame(currentFrame + i).distanceImage.getRaster()
 				.getSampleDouble(x, y, 0)
 				* DISTANCE_SCALE_FACTOR;
 	    }
@@ -524,7 +637,7 @@ public class PGMSequenceSampler implements Sampler {
 	    return tmp / (double) pixels;
 	}
 
-	// if (currentFrame == 0 || currentFrame == distanceImages.length - 1) {
+	// if (currentFrame == 0 || currentFrame == frameSource.size() - 1) {
 	// // No way
 	// return sample[2];
 	// }
@@ -587,11 +700,12 @@ public class PGMSequenceSampler implements Sampler {
 	}
 
 	double distance =
-		distanceImages[frame].getRaster().getSampleDouble(x, y, 0)
+		frame(frame).distanceImage.getRaster().getSampleDouble(x, y, 0)
 			* DISTANCE_SCALE_FACTOR;
 
 	distance -=
-		distanceImages[frame - 1].getRaster().getSampleDouble(x, y, 0)
+		frame(frame - 1).distanceImage.getRaster()
+			.getSampleDouble(x, y, 0)
 			* DISTANCE_SCALE_FACTOR;
 
 	return Math.abs(distance) <= DISTANCE_DIFFERENCE_THRESHOLD;
@@ -599,18 +713,36 @@ public class PGMSequenceSampler implements Sampler {
 
     private boolean isReflectanceWithinThreshold(int frame, int x, int y) {
 	double reflectance =
-		reflectanceImages[frame].getRaster().getSampleDouble(x, y, 0)
+		frame(frame).reflectanceImage.getRaster().getSampleDouble(x, y,
+			0)
 			* REFLECTANCE_SCALE_FACTOR;
 
 	return (REFLECTANCE_UPPER_THRESHOLD < 0 || reflectance <= REFLECTANCE_UPPER_THRESHOLD)
 		&& (REFLECTANCE_LOWER_THRESHOLD < 0 || reflectance >= REFLECTANCE_LOWER_THRESHOLD);
     }
 
+    private PGMFrameSource.Frame frame(int frame) {
+	try {
+	    return frameSource.get(frame);
+	} catch (IOException e) {
+	    throw new RuntimeException(e);
+	}
+    }
+
     private boolean areWithinImage(int x, int y) {
 	return x >= 0 && x < currentDistanceRaster.getWidth() && y >= 0
 		&& y < currentDistanceRaster.getHeight();
     }
 
+    /**
+     * Gets the frame source, with its load and decode statistics
+     * 
+     * @return the frame source
+     */
+    public PGMFrameSource frameSource() {
+	return frameSource;
+    }
+
     public String toString() {
 	return this.getClass().getSimpleName() + "(\"" + directory.getPath()
 		+ "\")";
@@ -652,6 +784,8 @@ public class PGMSequenceSampler implements Sampler {
 
     public void setDISTANCE_SCALE_FACTOR(double distance_scale_factor) {
 	DISTANCE_SCALE_FACTOR = distance_scale_factor;
+
+	frameChanged();
     }
 
     public double getREFLECTANCE_SCALE_FACTOR() {
@@ -660,6 +794,8 @@ public class PGMSequenceSampler implements Sampler {
 
     public void setREFLECTANCE_SCALE_FACTOR(double reflectance_scale_factor) {
 	REFLECTANCE_SCALE_FACTOR = reflectance_scale_factor;
+
+	frameChanged();
     }
 
     public double getREFLECTANCE_UPPER_THRESHOLD() {
@@ -669,6 +805,8 @@ public class PGMSequenceSampler implements Sampler {
     public void setREFLECTANCE_UPPER_THRESHOLD(
 	    double reflectance_upper_threshold) {
 	REFLECTANCE_UPPER_THRESHOLD = reflectance_upper_threshold;
+
+	frameChanged();
     }
 
     public double getREFLECTANCE_LOWER_THRESHOLD() {
@@ -678,6 +816,8 @@ public class PGMSequenceSampler implements Sampler {
     public void setREFLECTANCE_LOWER_THRESHOLD(
 	    double reflectance_lower_threshold) {
 	REFLECTANCE_LOWER_THRESHOLD = reflectance_lower_threshold;
+
+	frameChanged();
     }
 
     public int getSAMPLES_PER_INITIAL_FRAME() {
@@ -718,6 +858,8 @@ public class PGMSequenceSampler implements Sampler {
 
     public void setUSE_REFLECTANCE_SAMPLES(boolean use_reflectance_samples) {
 	USE_REFLECTANCE_SAMPLES = use_reflectance_samples;
+
+	frameChanged();
     }
 
     public double getDISTANCE_DIFFERENCE_THRESHOLD() {
@@ -727,6 +869,8 @@ public class PGMSequenceSampler implements Sampler {
     public void setDISTANCE_DIFFERENCE_THRESHOLD(
 	    double distance_difference_threshold) {
 	DISTANCE_DIFFERENCE_THRESHOLD = distance_difference_threshold;
+
+	frameChanged();
     }
 
     public double getEXPONENTIAL_SMOOTHING() {
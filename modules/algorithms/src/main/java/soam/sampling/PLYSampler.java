@@ -1,10 +1,9 @@
 
 package soam.sampling;
 
-import java.util.ArrayList;
 import java.util.Random;
-import java.util.Vector;
 import java.io.File;
+import java.io.IOException;
 import java.awt.image.BufferedImage;
 
 import javax.swing.JFileChooser;
@@ -12,15 +11,11 @@ import javax.swing.JOptionPane;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import soam.algorithms.Algorithm;
-import soam.algorithms.AlgebraicOperatorsNd;
-import soam.utils.PLY;
+import soam.utils.PLYPoints;
 
-@SuppressWarnings("unchecked")
 public class PLYSampler implements Sampler {
     protected final static double CUBE_SIZE = 256d;
 
-    protected int MAX_REJECTION = 100;
-
     protected double NOISE_STDEV = 0d;
     protected double NOISE_BOUND = 0d;
 
@@ -30,19 +25,21 @@ public class PLYSampler implements Sampler {
 
     protected Random random;
 
-    // Vertices
-    protected Vector x;
-    protected Vector y;
-    protected Vector z;
+    // Vertices, as interleaved x, y, z coordinates
+    protected float[] vertices;
+
+    // Normals, interleaved as vertices (null if the file has none)
+    protected float[] normals;
 
-    // Normals
-    protected Vector nx;
-    protected Vector ny;
-    protected Vector nz;
+    // Vertices, moved, scaled and projected along normals
+    protected float[] points;
 
-    protected long size;
+    protected int size;
 
-    protected ArrayList<double[]> pointCloud;
+    protected PointCloud pointCloud;
+
+    // Built on demand, for focalized sampling
+    protected volatile PointGrid grid;
 
     protected double MOVE_X;
     protected double MOVE_Y;
@@ -65,22 +62,7 @@ public class PLYSampler implements Sampler {
 		defaultPath = file.getAbsolutePath();
 
 		try {
-		    PLY plyObj = new PLY();
-		    plyObj.loadfile(file.getAbsolutePath());
-
-		    x = (Vector) plyObj.getProperty("x", "vertex");
-		    y = (Vector) plyObj.getProperty("y", "vertex");
-		    z = (Vector) plyObj.getProperty("z", "vertex");
-
-		    try {
-			nx = (Vector) plyObj.getProperty("nx", "vertex");
-			ny = (Vector) plyObj.getProperty("ny", "vertex");
-			nz = (Vector) plyObj.getProperty("nz", "vertex");
-		    } catch (Exception e) {
-			// Oh well, no normals
-		    }
-
-		    size = x.size();
+		    load(file);
 
 		} catch (Exception e) {
 		    JOptionPane.showMessageDialog(null,
@@ -96,6 +78,51 @@ public class PLYSampler implements Sampler {
 	    }
 	}
 
+	fit();
+
+	return true;
+    }
+
+    /**
+     * Loads a PLY file without any dialog, for headless runs
+     * 
+     * @param file
+     * @throws IOException
+     */
+    public void initialize(File file) throws IOException {
+	if (random == null) {
+	    random = new Random();
+	}
+
+	load(file);
+	this.file = file;
+
+	fit();
+    }
+
+    /**
+     * Sets the seed of the random samples, for repeatable runs
+     * 
+     * @param seed
+     */
+    public void setSeed(long seed) {
+	random = new Random(seed);
+    }
+
+    protected void load(File file) throws IOException {
+	PLYPoints plyPoints = PLYPoints.load(file);
+
+	vertices = plyPoints.vertices;
+	normals = plyPoints.normals;
+
+	size = vertices.length / 3;
+    }
+
+    /**
+     * Moves and rescales the vertices to fit the cubic box
+     */
+    protected void fit() {
+
 	// Establish translation and rescaling:
 	// preserve object proportions but make it fit the cubic box
 	double minX = Double.MAX_VALUE;
@@ -109,10 +136,10 @@ public class PLYSampler implements Sampler {
 	double tmpY;
 	double tmpZ;
 
-	for (int i = 0; i < size; i++) {
-	    tmpX = ((Float) x.elementAt(i)).doubleValue();
-	    tmpY = ((Float) y.elementAt(i)).doubleValue();
-	    tmpZ = ((Float) z.elementAt(i)).doubleValue();
+	for (int i = 0; i < 3 * size; i += 3) {
+	    tmpX = vertices[i];
+	    tmpY = vertices[i + 1];
+	    tmpZ = vertices[i + 2];
 
 	    if (tmpX < minX) {
 		minX = tmpX;
@@ -145,7 +172,39 @@ public class PLYSampler implements Sampler {
 
 	NORMAL_PROJECTION = 0d;
 
-	return true;
+	normalize();
+    }
+
+    /**
+     * Applies normal projection, translation and rescaling to all vertices.
+     * Called whenever one of these parameters changes.
+     */
+    protected void normalize() {
+	if (vertices == null) {
+	    return;
+	}
+
+	float[] normalized = new float[3 * size];
+
+	for (int i = 0; i < 3 * size; i += 3) {
+	    double pX = vertices[i];
+	    double pY = vertices[i + 1];
+	    double pZ = vertices[i + 2];
+
+	    if (NORMAL_PROJECTION != 0d && normals != null) {
+		pX += normals[i] * NORMAL_PROJECTION;
+		pY += normals[i + 1] * NORMAL_PROJECTION;
+		pZ += normals[i + 2] * NORMAL_PROJECTION;
+	    }
+
+	    normalized[i] = (float) ((pX + MOVE_X) * SCALE + CUBE_SIZE / 2);
+	    normalized[i + 1] = (float) ((pY + MOVE_Y) * SCALE + CUBE_SIZE / 2);
+	    normalized[i + 2] = (float) ((pZ + MOVE_Z) * SCALE + CUBE_SIZE / 2);
+	}
+
+	points = normalized;
+	pointCloud = null;
+	grid = null;
     }
 
     public void reset() {
@@ -165,71 +224,45 @@ public class PLYSampler implements Sampler {
     }
 
     /**
-     * Gets the point cloud, as an array of vectors
+     * Gets the point cloud, as a view of the normalized points
      * 
-     * @return dimension
+     * @return the point cloud
      */
-    public ArrayList<double[]> getPointCloud() {
+    public PointCloud getPointCloud() {
 
 	if (pointCloud == null) {
-	    pointCloud = new ArrayList<double[]>();
-
-	    for (int i = 0; i < size; i++) {
-		double[] point = new double[3];
-
-		point[0] = ((Float) x.elementAt(i)).doubleValue();
-		point[1] = ((Float) y.elementAt(i)).doubleValue();
-		point[2] = ((Float) z.elementAt(i)).doubleValue();
-
-		if (NORMAL_PROJECTION != 0d && nx != null) {
-		    point[0] +=
-			    (((Float) nx.elementAt(i)).doubleValue())
-				    * NORMAL_PROJECTION;
-		    point[1] +=
-			    (((Float) ny.elementAt(i)).doubleValue())
-				    * NORMAL_PROJECTION;
-		    point[2] +=
-			    (((Float) nz.elementAt(i)).doubleValue())
-				    * NORMAL_PROJECTION;
-		}
+	    float[] normalized = points;
 
-		point[0] = (point[0] + MOVE_X) * SCALE + CUBE_SIZE / 2;
-		point[1] = (point[1] + MOVE_Y) * SCALE + CUBE_SIZE / 2;
-		point[2] = (point[2] + MOVE_Z) * SCALE + CUBE_SIZE / 2;
-
-		pointCloud.add(point);
-	    }
+	    pointCloud =
+		    new FloatPointCloud(3, normalized.length / 3, normalized);
 	}
 
 	return pointCloud;
     }
 
-    private double[] basicNextSample() {
-	double[] sample = new double[3];
-
-	int i = (int) (random.nextDouble() * size);
-
-	sample[0] = ((Float) x.elementAt(i)).doubleValue();
-	sample[1] = ((Float) y.elementAt(i)).doubleValue();
-	sample[2] = ((Float) z.elementAt(i)).doubleValue();
-
-	if (NORMAL_PROJECTION != 0d && nx != null) {
-	    sample[0] +=
-		    (((Float) nx.elementAt(i)).doubleValue())
-			    * NORMAL_PROJECTION;
-	    sample[1] +=
-		    (((Float) ny.elementAt(i)).doubleValue())
-			    * NORMAL_PROJECTION;
-	    sample[2] +=
-		    (((Float) nz.elementAt(i)).doubleValue())
-			    * NORMAL_PROJECTION;
+    /**
+     * Gets the spatial index of the normalized points
+     * 
+     * @return the grid
+     */
+    protected PointGrid grid() {
+	PointGrid pointGrid = grid;
+
+	if (pointGrid == null) {
+	    pointGrid = new PointGrid(0, points, size);
+	    grid = pointGrid;
 	}
 
-	sample[0] = (sample[0] + MOVE_X) * SCALE + CUBE_SIZE / 2;
-	sample[1] = (sample[1] + MOVE_Y) * SCALE + CUBE_SIZE / 2;
-	sample[2] = (sample[2] + MOVE_Z) * SCALE + CUBE_SIZE / 2;
+	return pointGrid;
+    }
+
+    private double[] basicNextSample() {
+	float[] normalized = points;
+
+	int i = 3 * random.nextInt(size);
 
-	return sample;
+	return new double[] { normalized[i], normalized[i + 1],
+		normalized[i + 2] };
     }
 
     public double[] nextSample() {
@@ -251,13 +284,10 @@ public class PLYSampler implements Sampler {
     }
 
     public double[] nextSample(final double[] point, double radius) {
-	double radiusSquare = radius * radius;
-	double[] sample = null;
-	for (int i = 0; i < MAX_REJECTION; i++) {
+	double[] sample = grid().nextSample(point, radius, random);
+	if (sample == null) {
+	    // No points within radius: any point will do
 	    sample = basicNextSample();
-	    if (AlgebraicOperatorsNd.normSquare(point, sample) < radiusSquare) {
-		break;
-	    }
 	}
 
 	// Add noise, if requested
@@ -276,20 +306,16 @@ public class PLYSampler implements Sampler {
 
     // Debugging only
     public int points() {
-	return x.size();
+	return size;
     }
 
     // Debugging only
     public double[] pointAt(int i) {
 	double[] point = new double[3];
 
-	point[0] = ((Float) x.elementAt(i)).doubleValue();
-	point[1] = ((Float) y.elementAt(i)).doubleValue();
-	point[2] = ((Float) z.elementAt(i)).doubleValue();
-
-	point[0] = (point[0] + MOVE_X) * SCALE + CUBE_SIZE / 2;
-	point[1] = (point[1] + MOVE_Y) * SCALE + CUBE_SIZE / 2;
-	point[2] = (point[2] + MOVE_Z) * SCALE + CUBE_SIZE / 2;
+	point[0] = (vertices[3 * i] + MOVE_X) * SCALE + CUBE_SIZE / 2;
+	point[1] = (vertices[3 * i + 1] + MOVE_Y) * SCALE + CUBE_SIZE / 2;
+	point[2] = (vertices[3 * i + 2] + MOVE_Z) * SCALE + CUBE_SIZE / 2;
 
 	return point;
     }
@@ -314,20 +340,13 @@ public class PLYSampler implements Sampler {
 	NOISE_BOUND = noise_bound;
     }
 
-    public int getMAX_REJECTION() {
-	return MAX_REJECTION;
-    }
-
-    public void setMAX_REJECTION(int max_rejection) {
-	MAX_REJECTION = max_rejection;
-    }
-
     public double getMOVE_X() {
 	return MOVE_X;
     }
 
     public void setMOVE_X(double move_x) {
 	MOVE_X = move_x;
+	normalize();
     }
 
     public double getMOVE_Y() {
@@ -336,6 +355,7 @@ public class PLYSampler implements Sampler {
 
     public void setMOVE_Y(double move_y) {
 	MOVE_Y = move_y;
+	normalize();
     }
 
     public double getMOVE_Z() {
@@ -344,6 +364,7 @@ public class PLYSampler implements Sampler {
 
     public void setMOVE_Z(double move_z) {
 	MOVE_Z = move_z;
+	normalize();
     }
 
     public double getSCALE() {
@@ -352,6 +373,7 @@ public class PLYSampler implements Sampler {
 
     public void setSCALE(double scale) {
 	SCALE = scale;
+	normalize();
     }
 
     public double getNORMAL_PROJECTION() {
@@ -360,5 +382,6 @@ public class PLYSampler implements Sampler {
 
     public void setNORMAL_PROJECTION(double normal_projection) {
 	NORMAL_PROJECTION = normal_projection;
+	normalize();
     }
 }
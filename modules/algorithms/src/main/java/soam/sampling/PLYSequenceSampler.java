@@ -4,26 +4,21 @@ package soam.sampling;
 import java.io.File;
 import java.io.FilenameFilter;
 
-import java.util.ArrayList;
 import java.util.Random;
-import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.awt.image.BufferedImage;
 
 import javax.swing.*;
 
-import soam.algorithms.AlgebraicOperatorsNd;
 import soam.algorithms.Algorithm;
-import soam.utils.PLY;
+import soam.utils.PLYPoints;
 
-@SuppressWarnings("unchecked")
 public class PLYSequenceSampler implements Sampler {
     protected final static double CUBE_SIZE = 256d;
 
     protected static String defaultPath = System.getProperty("user.dir");
 
-    protected int MAX_REJECTION = 100;
-
     protected double NOISE_STDEV = 0d;
     protected double NOISE_BOUND = 0d;
 
@@ -36,14 +31,11 @@ public class PLYSequenceSampler implements Sampler {
 
     protected double DISHABILITATION_FRACTION = 0d;
 
-    protected PLY[] sequence;
-    protected PLY current;
-
-    protected Vector currentX;
-    protected Vector currentY;
-    protected Vector currentZ;
+    // Vertices of each frame, as interleaved x, y, z coordinates
+    protected float[][] sequence;
+    protected float[] current;
 
-    protected long currentSize;
+    protected int currentSize;
 
     protected double MOVE_X;
     protected double MOVE_Y;
@@ -61,7 +53,13 @@ public class PLYSequenceSampler implements Sampler {
     protected int currentFrame;
     protected int sampleCounter;
 
-    protected ArrayList<double[]> currentPointCloud;
+    /**
+     * Published without locks, rebuilt only when the frame version changes
+     */
+    protected volatile FlatPointCloud currentPointCloud;
+    protected volatile PointGrid currentGrid;
+
+    protected AtomicInteger frameVersion = new AtomicInteger();
 
     public boolean initialize(Algorithm algorithm) {
 
@@ -96,16 +94,12 @@ public class PLYSequenceSampler implements Sampler {
 			throw new RuntimeException();
 		    }
 
-		    sequence = new PLY[plyFiles.length];
+		    sequence = new float[plyFiles.length][];
 
 		    for (int i = 0; i < plyFiles.length; i++) {
-			PLY plyObj = new PLY();
-			plyObj.loadfile(plyFiles[i]);
-			sequence[i] = plyObj;
+			sequence[i] = PLYPoints.load(plyFiles[i]).vertices;
 		    }
 
-		    currentPointCloud = new ArrayList<double[]>();
-
 		    reset();
 
 		    // Establish translation and rescaling:
@@ -121,10 +115,10 @@ public class PLYSequenceSampler implements Sampler {
 		    double tmpY;
 		    double tmpZ;
 
-		    for (int i = 0; i < currentSize; i++) {
-			tmpX = ((Float) currentX.elementAt(i)).doubleValue();
-			tmpY = ((Float) currentY.elementAt(i)).doubleValue();
-			tmpZ = ((Float) currentZ.elementAt(i)).doubleValue();
+		    for (int i = 0; i < 3 * currentSize; i += 3) {
+			tmpX = current[i];
+			tmpY = current[i + 1];
+			tmpZ = current[i + 2];
 
 			if (tmpX < minX) {
 			    minX = tmpX;
@@ -155,6 +149,8 @@ public class PLYSequenceSampler implements Sampler {
 		    MOVE_Y = -(minY + (maxY - minY) / 2);
 		    MOVE_Z = -(minZ + (maxZ - minZ) / 2);
 
+		    frameChanged();
+
 		} catch (Exception e) {
 		    JOptionPane.showMessageDialog(null,
 			    "Could not load sequence \"" + directory.getPath()
@@ -180,28 +176,11 @@ public class PLYSequenceSampler implements Sampler {
 	sampleCounter = 0;
 
 	current = sequence[currentFrame];
-
-	try {
-	    currentX = (Vector) current.getProperty("x", "vertex");
-	    currentY = (Vector) current.getProperty("y", "vertex");
-	    currentZ = (Vector) current.getProperty("z", "vertex");
-
-	} catch (Exception e) {
-	    System.err.println("When initializing PLY sequence");
-	    e.printStackTrace();
-	}
-
-	currentSize = currentX.size();
+	currentSize = current.length / 3;
 
 	algorithm.enableVertexCreation();
-	
-	if (currentPointCloud != null) {
-	    synchronized (currentPointCloud) {
-		currentPointCloud = new ArrayList<double[]>();
-	    }
-	} else {
-	    currentPointCloud = new ArrayList<double[]>();
-	}
+
+	frameChanged();
     }
 
     /**
@@ -216,31 +195,70 @@ public class PLYSequenceSampler implements Sampler {
     /**
      * Gets the point cloud
      * 
-     * @return the array list of points
+     * @return the point cloud
      */
-    public ArrayList<double[]> getPointCloud() {
+    public PointCloud getPointCloud() {
+	return pointCloud();
+    }
 
-	synchronized (currentPointCloud) {
+    /**
+     * Gets the point cloud of the current frame, which is built only once per
+     * frame version
+     * 
+     * @return the point cloud
+     */
+    public FlatPointCloud pointCloud() {
+	FlatPointCloud pointCloud = currentPointCloud;
+	int version = frameVersion.get();
 
-	    if (currentPointCloud.size() == 0) {
-		for (int i = 0; i < currentSize; i++) {
-		    double[] point = new double[3];
+	if (pointCloud == null || pointCloud.getVersion() != version) {
+	    pointCloud = buildPointCloud(version);
+	    currentPointCloud = pointCloud;
+	}
 
-		    point[0] = ((Float) currentX.elementAt(i)).doubleValue();
-		    point[1] = ((Float) currentY.elementAt(i)).doubleValue();
-		    point[2] = ((Float) currentZ.elementAt(i)).doubleValue();
+	return pointCloud;
+    }
 
-		    point[0] = (point[0] + MOVE_X) * SCALE + CUBE_SIZE / 2;
-		    point[1] = (point[1] + MOVE_Y) * SCALE + CUBE_SIZE / 2;
-		    point[2] = (point[2] + MOVE_Z) * SCALE + CUBE_SIZE / 2;
+    /**
+     * Gets the spatial index of the current frame, which is built only once
+     * per frame version
+     * 
+     * @return the grid
+     */
+    protected PointGrid grid() {
+	FlatPointCloud pointCloud = pointCloud();
+	PointGrid grid = currentGrid;
 
-		    currentPointCloud.add(point);
-		}
-	    }
+	if (grid == null || grid.getVersion() != pointCloud.getVersion()) {
+	    grid = new PointGrid(pointCloud);
+	    currentGrid = grid;
+	}
 
-	    return currentPointCloud;
+	return grid;
+    }
+
+    protected FlatPointCloud buildPointCloud(int version) {
+	float[] vertices = current;
+	int size = vertices.length / 3;
+
+	double[] coordinates = new double[3 * size];
+	for (int i = 0; i < 3 * size; i += 3) {
+	    coordinates[i] = (vertices[i] + MOVE_X) * SCALE + CUBE_SIZE / 2;
+	    coordinates[i + 1] =
+		    (vertices[i + 1] + MOVE_Y) * SCALE + CUBE_SIZE / 2;
+	    coordinates[i + 2] =
+		    (vertices[i + 2] + MOVE_Z) * SCALE + CUBE_SIZE / 2;
 	}
 
+	return new FlatPointCloud(version, 3, size, coordinates);
+    }
+
+    /**
+     * Invalidates the point cloud of the current frame
+     * 
+     */
+    protected void frameChanged() {
+	frameVersion.incrementAndGet();
     }
 
     /**
@@ -283,13 +301,10 @@ public class PLYSequenceSampler implements Sampler {
     public double[] nextSample(final double[] point, double radius) {
 	updateSampleCounter();
 
-	double radiusSquare = radius * radius;
-	double[] sample = null;
-	for (int i = 0; i < MAX_REJECTION; i++) {
+	double[] sample = grid().nextSample(point, radius, random);
+	if (sample == null) {
+	    // No points within radius: any point will do
 	    sample = basicNextSample();
-	    if (AlgebraicOperatorsNd.normSquare(point, sample) < radiusSquare) {
-		break;
-	    }
 	}
 
 	// Add noise, if requested
@@ -327,17 +342,9 @@ public class PLYSequenceSampler implements Sampler {
 		}
 
 		current = sequence[currentFrame];
-		try {
-		    currentX = (Vector) current.getProperty("x", "vertex");
-		    currentY = (Vector) current.getProperty("y", "vertex");
-		    currentZ = (Vector) current.getProperty("z", "vertex");
-
-		    currentSize = currentX.size();
+		currentSize = current.length / 3;
 
-		} catch (Exception e) {
-		    System.err.println("When advancing PLY sequence");
-		    e.printStackTrace();
-		}
+		frameChanged();
 	    }
 	}
 
@@ -346,21 +353,19 @@ public class PLYSequenceSampler implements Sampler {
 		* DISHABILITATION_FRACTION)) {
 	    algorithm.enableVertexCreation();
 	}
-
-	synchronized (currentPointCloud) {
-	    currentPointCloud = new ArrayList<double[]>();
-	}
     }
 
     protected double[] basicNextSample() {
 
 	double[] sample = new double[3];
 
-	int i = (int) (random.nextDouble() * currentSize);
+	float[] vertices = current;
 
-	sample[0] = ((Float) currentX.elementAt(i)).doubleValue();
-	sample[1] = ((Float) currentY.elementAt(i)).doubleValue();
-	sample[2] = ((Float) currentZ.elementAt(i)).doubleValue();
+	int i = 3 * (int) (random.nextDouble() * (vertices.length / 3));
+
+	sample[0] = vertices[i];
+	sample[1] = vertices[i + 1];
+	sample[2] = vertices[i + 2];
 
 	sample[0] = (sample[0] + MOVE_X) * SCALE + CUBE_SIZE / 2;
 	sample[1] = (sample[1] + MOVE_Y) * SCALE + CUBE_SIZE / 2;
@@ -418,14 +423,6 @@ public class PLYSequenceSampler implements Sampler {
 	SEQUENCE_SAMPLING = sequence_sampling;
     }
 
-    public int getMAX_REJECTION() {
-	return MAX_REJECTION;
-    }
-
-    public void setMAX_REJECTION(int max_rejection) {
-	MAX_REJECTION = max_rejection;
-    }
-
     public double getDISHABILITATION_FRACTION() {
 	return DISHABILITATION_FRACTION;
     }
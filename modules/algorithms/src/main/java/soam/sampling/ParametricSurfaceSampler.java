@@ -0,0 +1,201 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.sampling;
+
+import java.util.Random;
+
+/**
+ * Samples a surface given in parametric form, with uniform density with
+ * respect to its area rather than to its parameters.
+ * <p>
+ * The parameter domain is divided into a grid of cells, and the area of each
+ * cell, as mapped onto the surface, is approximated with two triangles. A
+ * sample is drawn by selecting a cell with probability proportional to its
+ * area, through an alias table, then (u, v) uniformly within the cell.
+ */
+public abstract class ParametricSurfaceSampler implements ComponentSampler {
+
+    /**
+     * Number of cells of the area table along each parameter
+     */
+    public static final int RESOLUTION = 128;
+
+    protected int dimensions;
+
+    protected Random random;
+
+    protected double uMin;
+    protected double uMax;
+    protected double vMin;
+    protected double vMax;
+
+    // Built on first use
+    protected volatile AliasTable cellSelector;
+    protected double area;
+
+    /**
+     * The constructor
+     *
+     * @param dimensions
+     * @param uMin
+     * @param uMax
+     * @param vMin
+     * @param vMax
+     *            the parameter domain
+     */
+    protected ParametricSurfaceSampler(int dimensions, double uMin,
+	    double uMax, double vMin, double vMax) {
+	if (dimensions < 3) {
+	    throw new RuntimeException("Unsupported dimensions: " + dimensions);
+	}
+
+	this.dimensions = dimensions;
+	this.uMin = uMin;
+	this.uMax = uMax;
+	this.vMin = vMin;
+	this.vMax = vMax;
+
+	random = new Random();
+    }
+
+    /**
+     * Computes the point of the surface for the given parameters, already
+     * scaled and translated
+     *
+     * @param u
+     * @param v
+     * @param point
+     *            the point, overwritten
+     */
+    protected abstract void evaluate(double u, double v, double[] point);
+
+    public double[] nextSample() {
+	AliasTable selector = cellSelector();
+
+	int cell = selector.next(random);
+
+	double u =
+		uMin + (cell / RESOLUTION + random.nextDouble())
+			* (uMax - uMin) / RESOLUTION;
+	double v =
+		vMin + (cell % RESOLUTION + random.nextDouble())
+			* (vMax - vMin) / RESOLUTION;
+
+	double[] sample = new double[dimensions];
+	evaluate(u, v, sample);
+
+	return sample;
+    }
+
+    /**
+     * Sets the seed of the random samples, for repeatable runs
+     * 
+     * @param seed
+     */
+    public void setSeed(long seed) {
+	random = new Random(seed);
+    }
+
+    public int getDimensions() {
+	return dimensions;
+    }
+
+    /**
+     * Gets the area of the surface, in the space of samples
+     *
+     * @return the area
+     */
+    public double getArea() {
+	cellSelector();
+	return area;
+    }
+
+    protected AliasTable cellSelector() {
+	AliasTable selector = cellSelector;
+
+	if (selector == null) {
+	    synchronized (this) {
+		if (cellSelector == null) {
+		    buildCellSelector();
+		}
+		selector = cellSelector;
+	    }
+	}
+
+	return selector;
+    }
+
+    /**
+     * Builds the area table: the surface is evaluated once at each corner of
+     * the grid
+     *
+     */
+    protected void buildCellSelector() {
+	double[][][] corners = new double[RESOLUTION + 1][RESOLUTION + 1][];
+
+	for (int i = 0; i <= RESOLUTION; i++) {
+	    double u = uMin + i * (uMax - uMin) / RESOLUTION;
+	    for (int j = 0; j <= RESOLUTION; j++) {
+		double v = vMin + j * (vMax - vMin) / RESOLUTION;
+
+		corners[i][j] = new double[dimensions];
+		evaluate(u, v, corners[i][j]);
+	    }
+	}
+
+	double[] areas = new double[RESOLUTION * RESOLUTION];
+	double total = 0d;
+	for (int i = 0; i < RESOLUTION; i++) {
+	    for (int j = 0; j < RESOLUTION; j++) {
+		double cellArea =
+			triangleArea(corners[i][j], corners[i + 1][j],
+				corners[i + 1][j + 1])
+				+ triangleArea(corners[i][j],
+					corners[i + 1][j + 1],
+					corners[i][j + 1]);
+
+		areas[i * RESOLUTION + j] = cellArea;
+		total += cellArea;
+	    }
+	}
+
+	area = total;
+	cellSelector = new AliasTable(areas);
+    }
+
+    /**
+     * Computes the area of a triangle in any number of dimensions, from the
+     * Gram determinant of two of its sides
+     */
+    protected static double triangleArea(double[] a, double[] b, double[] c) {
+	double ab = 0d;
+	double ac = 0d;
+	double abac = 0d;
+
+	for (int k = 0; k < a.length; k++) {
+	    double x = b[k] - a[k];
+	    double y = c[k] - a[k];
+
+	    ab += x * x;
+	    ac += y * y;
+	    abac += x * y;
+	}
+
+	return 0.5d * Math.sqrt(Math.max(0d, ab * ac - abac * abac));
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.sampling;
+
+import java.util.Random;
+
+/**
+ * A compact index of the pixels of an image that pass some criterion, for
+ * sampling them in constant time, either uniformly or with probability
+ * proportional to a weight such as their intensity.
+ * <p>
+ * Pixels are stored as y * width + x in ascending order, so the pixels of a
+ * row within a given range of columns are contiguous and can be found by
+ * binary search. This also allows sampling within a disc, in time
+ * proportional to its radius rather than to its area.
+ * <p>
+ * Instances are immutable: a new index must be built whenever the criterion
+ * or the image changes.
+ */
+public class PixelIndex {
+
+    protected final int width;
+    protected final int height;
+
+    protected final int[] pixels;
+
+    // Both null if not weighted
+    protected final AliasTable selector;
+    protected final double[] cumulative;
+
+    /**
+     * The constructor
+     *
+     * @param width
+     * @param height
+     *            the size of the image
+     * @param pixels
+     *            the selected pixels, as y * width + x in ascending order
+     * @param count
+     *            the number of pixels used
+     * @param weights
+     *            the weights of the pixels, negative weights count as zero;
+     *            if null, or if they are all zero, pixels are selected
+     *            uniformly
+     */
+    public PixelIndex(int width, int height, int[] pixels, int count,
+	    double[] weights) {
+	this.width = width;
+	this.height = height;
+
+	this.pixels = new int[count];
+	System.arraycopy(pixels, 0, this.pixels, 0, count);
+
+	double[] sums = null;
+	if (weights != null) {
+	    sums = new double[count + 1];
+
+	    double[] tmp = new double[count];
+	    for (int i = 0; i < count; i++) {
+		tmp[i] = Math.max(weights[i], 0d);
+		sums[i + 1] = sums[i] + tmp[i];
+	    }
+
+	    if (sums[count] > 0d) {
+		selector = new AliasTable(tmp);
+	    } else {
+		sums = null;
+		selector = null;
+	    }
+	} else {
+	    selector = null;
+	}
+
+	cumulative = sums;
+    }
+
+    public int size() {
+	return pixels.length;
+    }
+
+    public int getWidth() {
+	return width;
+    }
+
+    public int getHeight() {
+	return height;
+    }
+
+    public boolean isWeighted() {
+	return selector != null;
+    }
+
+    /**
+     * Gets a pixel of the index
+     *
+     * @param i
+     * @return the pixel, as y * width + x
+     */
+    public int getPixel(int i) {
+	return pixels[i];
+    }
+
+    /**
+     * Draws a pixel from the whole index
+     *
+     * @param random
+     * @return the pixel, as y * width + x, or -1 if the index is empty
+     */
+    public int next(Random random) {
+	if (pixels.length == 0) {
+	    return -1;
+	} else if (selector != null) {
+	    return pixels[selector.next(random)];
+	} else {
+	    return pixels[random.nextInt(pixels.length)];
+	}
+    }
+
+    /**
+     * Draws a pixel within a disc. The same probabilities apply as for the
+     * whole index, conditioned to the disc.
+     *
+     * @param x
+     * @param y
+     *            the center of the disc
+     * @param radius
+     * @param random
+     * @return the pixel, as y * width + x, or -1 if there are no pixels in
+     *         the disc
+     */
+    public int next(double x, double y, double radius, Random random) {
+	if (pixels.length == 0 || !(radius >= 0d)) {
+	    return -1;
+	}
+
+	int rowFrom = (int) Math.max(Math.ceil(y - radius), 0d);
+	int rowTo = (int) Math.min(Math.floor(y + radius), height - 1d);
+
+	int[] range = new int[2];
+
+	double total = 0d;
+	for (int row = rowFrom; row <= rowTo; row++) {
+	    if (rowRange(row, x, y, radius, range)) {
+		total += mass(range[0], range[1]);
+	    }
+	}
+
+	if (!(total > 0d)) {
+	    return -1;
+	}
+
+	double target = random.nextDouble() * total;
+	for (int row = rowFrom; row <= rowTo; row++) {
+	    if (rowRange(row, x, y, radius, range)) {
+		double mass = mass(range[0], range[1]);
+		if (target < mass) {
+		    return pixels[pick(range[0], range[1], target)];
+		}
+		target -= mass;
+	    }
+	}
+
+	// Rounding, the target is just past the last row
+	for (int row = rowTo; row >= rowFrom; row--) {
+	    if (rowRange(row, x, y, radius, range)) {
+		return pixels[range[1] - 1];
+	    }
+	}
+
+	return -1;
+    }
+
+    /**
+     * Finds the pixel closest to a position, by linear search
+     *
+     * @param x
+     * @param y
+     * @return the pixel, as y * width + x, or -1 if the index is empty
+     */
+    public int closest(double x, double y) {
+	int closest = -1;
+	double distance = Double.MAX_VALUE;
+
+	for (int i = 0; i < pixels.length; i++) {
+	    double dx = pixels[i] % width - x;
+	    double dy = pixels[i] / width - y;
+
+	    if (dx * dx + dy * dy < distance) {
+		distance = dx * dx + dy * dy;
+		closest = pixels[i];
+	    }
+	}
+
+	return closest;
+    }
+
+    /**
+     * Finds the positions in the index of the pixels of a row within a disc
+     *
+     * @param range
+     *            the positions from, inclusive, and to, exclusive
+     * @return true if the range is not empty
+     */
+    protected boolean rowRange(int row, double x, double y, double radius,
+	    int[] range) {
+	double dy = row - y;
+	double half = Math.sqrt(Math.max(radius * radius - dy * dy, 0d));
+
+	int columnFrom = (int) Math.max(Math.ceil(x - half), 0d);
+	int columnTo = (int) Math.min(Math.floor(x + half), width - 1d);
+
+	if (columnFrom > columnTo) {
+	    return false;
+	}
+
+	range[0] = lowerBound(row * width + columnFrom);
+	range[1] = lowerBound(row * width + columnTo + 1);
+
+	return range[0] < range[1];
+    }
+
+    /**
+     * Gets the total weight of the pixels between two positions in the index
+     */
+    protected double mass(int from, int to) {
+	if (cumulative != null) {
+	    return cumulative[to] - cumulative[from];
+	} else {
+	    return to - from;
+	}
+    }
+
+    /**
+     * Finds the position in the index where the weight accumulated from a
+     * given position reaches a target
+     */
+    protected int pick(int from, int to, double target) {
+	if (cumulative == null) {
+	    return Math.min(from + (int) target, to - 1);
+	}
+
+	double value = cumulative[from] + target;
+
+	// The last position whose cumulative weight does not exceed the value
+	int low = from;
+	int high = to - 1;
+	while (low < high) {
+	    int middle = (low + high + 1) >>> 1;
+	    if (cumulative[middle] <= value) {
+		low = middle;
+	    } else {
+		high = middle - 1;
+	    }
+	}
+
+	return low;
+    }
+
+    /**
+     * Finds the first position in the index whose pixel is not less than the
+     * given one
+     */
+    protected int lowerBound(int pixel) {
+	int low = 0;
+	int high = pixels.length;
+
+	while (low < high) {
+	    int middle = (low + high) >>> 1;
+	    if (pixels[middle] < pixel) {
+		low = middle + 1;
+	    } else {
+		high = middle;
+	    }
+	}
+
+	return low;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.sampling;
+
+import java.util.ArrayList;
+
+/**
+ * A read-only set of points, all with the same number of dimensions, as
+ * returned by Sampler.getPointCloud(). Implementations keep coordinates in
+ * primitive arrays rather than one vector per point.
+ */
+public interface PointCloud {
+
+    /**
+     * Gets the number of points
+     *
+     * @return the number of points
+     */
+    public int size();
+
+    /**
+     * Gets the number of coordinates of each point
+     *
+     * @return dimension
+     */
+    public int getDimensions();
+
+    /**
+     * Gets a single coordinate
+     *
+     * @param i
+     *            the point index
+     * @param d
+     *            the dimension
+     * @return the coordinate
+     */
+    public double get(int i, int d);
+
+    /**
+     * Copies the coordinates of a point
+     *
+     * @param i
+     *            the point index
+     * @param point
+     *            at least getDimensions() long, overwritten
+     */
+    public void getPoint(int i, double[] point);
+
+    /**
+     * Copies the coordinates of consecutive points, interleaved
+     *
+     * @param from
+     *            the index of the first point
+     * @param count
+     *            the number of points
+     * @param coordinates
+     *            the destination array
+     * @param offset
+     *            the position in the destination of the first coordinate
+     */
+    public void copy(int from, int count, double[] coordinates, int offset);
+
+    /**
+     * Copies the coordinates of consecutive points, interleaved, with single
+     * precision
+     *
+     * @see #copy(int, int, double[], int)
+     */
+    public void copy(int from, int count, float[] coordinates, int offset);
+
+    /**
+     * Gets the point cloud as a list of vectors, for legacy callers. The list
+     * is built once and must not be modified.
+     *
+     * @return the array list of points
+     */
+    public ArrayList<double[]> toArrayList();
+
+}
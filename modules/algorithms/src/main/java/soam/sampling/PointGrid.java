@@ -0,0 +1,278 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.sampling;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A uniform grid over a 3D point cloud, for drawing points at random within a
+ * given radius. Points are sorted by cell, so that each cell is a contiguous
+ * range of a single coordinate array, and only non-empty cells are indexed:
+ * memory is linear in the number of points, whatever the resolution.
+ * <p>
+ * A query only visits the cells that overlap the bounding box of the ball:
+ * the points inside the ball are counted first, then one of them is picked
+ * with uniform probability.
+ */
+public class PointGrid {
+
+    /**
+     * Average number of points per non-empty cell the grid is sized for
+     */
+    public static final int POINTS_PER_CELL = 8;
+
+    /**
+     * Upper bound to the number of cells along each axis
+     */
+    public static final int MAX_RESOLUTION = 256;
+
+    protected final int version;
+    protected final int size;
+
+    // Point coordinates, interleaved and sorted by cell
+    protected final float[] coordinates;
+
+    // Sorted indices of the non-empty cells: points in cell cellKeys[k] are
+    // in [cellStart[k], cellStart[k + 1])
+    protected final int[] cellKeys;
+    protected final int[] cellStart;
+
+    protected final int resolution;
+    protected final double[] min = new double[3];
+    protected final double[] max = new double[3];
+    protected final double cellSize;
+
+    /**
+     * Builds the grid of a point cloud
+     *
+     * @param pointCloud
+     */
+    public PointGrid(FlatPointCloud pointCloud) {
+	this(pointCloud.getVersion(), toFloats(pointCloud), pointCloud.size());
+    }
+
+    /**
+     * Builds the grid: the array is not modified
+     *
+     * @param version
+     *            the version of the points, see FlatPointCloud
+     * @param points
+     *            at least 3 * size interleaved coordinates
+     * @param size
+     *            the number of points
+     */
+    public PointGrid(int version, float[] points, int size) {
+	this.version = version;
+	this.size = size;
+
+	for (int d = 0; d < 3; d++) {
+	    min[d] = Double.MAX_VALUE;
+	    max[d] = -Double.MAX_VALUE;
+	}
+	for (int i = 0; i < 3 * size; i += 3) {
+	    for (int d = 0; d < 3; d++) {
+		min[d] = Math.min(min[d], points[i + d]);
+		max[d] = Math.max(max[d], points[i + d]);
+	    }
+	}
+
+	double extent =
+		Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2]
+			- min[2]));
+
+	// Points of a surface fill roughly a square number of cells
+	int side =
+		(int) Math.ceil(Math.sqrt(size / (double) POINTS_PER_CELL));
+	resolution =
+		extent > 0 ? Math.max(1, Math.min(MAX_RESOLUTION, side)) : 1;
+	cellSize = extent > 0 ? extent / resolution : 1d;
+
+	// Sort points by cell, with the point index in the low bits
+	long[] order = new long[size];
+	for (int i = 0; i < size; i++) {
+	    long c =
+		    cell(cellIndex(points[3 * i], 0),
+			    cellIndex(points[3 * i + 1], 1), cellIndex(
+				    points[3 * i + 2], 2));
+	    order[i] = c << 32 | i;
+	}
+	Arrays.sort(order);
+
+	int cells = 0;
+	for (int j = 0; j < size; j++) {
+	    if (j == 0 || order[j] >>> 32 != order[j - 1] >>> 32) {
+		cells++;
+	    }
+	}
+
+	// Fill the cells in place, in sorted order
+	coordinates = new float[3 * size];
+	cellKeys = new int[cells];
+	cellStart = new int[cells + 1];
+	cells = 0;
+	for (int j = 0; j < size; j++) {
+	    int c = (int) (order[j] >>> 32);
+	    int i = (int) order[j];
+
+	    if (j == 0 || c != cellKeys[cells - 1]) {
+		cellKeys[cells] = c;
+		cellStart[cells++] = j;
+	    }
+	    coordinates[3 * j] = points[3 * i];
+	    coordinates[3 * j + 1] = points[3 * i + 1];
+	    coordinates[3 * j + 2] = points[3 * i + 2];
+	}
+	cellStart[cells] = size;
+    }
+
+    public int getVersion() {
+	return version;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public int getResolution() {
+	return resolution;
+    }
+
+    /**
+     * Draws a point at random, with uniform probability, among those whose
+     * distance from the given point is less than radius
+     *
+     * @param point
+     * @param radius
+     * @param random
+     * @return the sample, or null if there are no points within radius
+     */
+    public double[] nextSample(double[] point, double radius, Random random) {
+	if (size == 0) {
+	    return null;
+	}
+
+	// The ball may contain the whole cloud
+	double farthest = 0d;
+	for (int d = 0; d < 3; d++) {
+	    double delta =
+		    Math.max(Math.abs(point[d] - min[d]), Math.abs(point[d]
+			    - max[d]));
+	    farthest += delta * delta;
+	}
+	if (farthest < radius * radius) {
+	    return sample(random.nextInt(size));
+	}
+
+	int[] from = new int[3];
+	int[] to = new int[3];
+	for (int d = 0; d < 3; d++) {
+	    if (point[d] + radius < min[d] || point[d] - radius > max[d]) {
+		return null;
+	    }
+	    from[d] = cellIndex(point[d] - radius, d);
+	    to[d] = cellIndex(point[d] + radius, d);
+	}
+
+	int count = visit(point, radius, from, to, -1);
+	if (count == 0) {
+	    return null;
+	}
+
+	return sample(visit(point, radius, from, to, random.nextInt(count)));
+    }
+
+    /**
+     * Scans the points within radius in the given range of cells
+     *
+     * @param target
+     *            the rank of the point wanted, or -1 to just count them
+     * @return either the count or the position of the point wanted
+     */
+    protected int visit(double[] point, double radius, int[] from, int[] to,
+	    int target) {
+
+	double radiusSquare = radius * radius;
+	int count = 0;
+
+	for (int cx = from[0]; cx <= to[0]; cx++) {
+	    for (int cy = from[1]; cy <= to[1]; cy++) {
+		int c = cell(cx, cy, from[2]);
+		int end = cellStart[firstCell(c + to[2] - from[2] + 1)];
+
+		// Cells along z are contiguous
+		for (int i = cellStart[firstCell(c)]; i < end; i++) {
+		    double dx = coordinates[3 * i] - point[0];
+		    double dy = coordinates[3 * i + 1] - point[1];
+		    double dz = coordinates[3 * i + 2] - point[2];
+
+		    if (dx * dx + dy * dy + dz * dz < radiusSquare) {
+			if (count == target) {
+			    return i;
+			}
+			count++;
+		    }
+		}
+	    }
+	}
+
+	return count;
+    }
+
+    protected double[] sample(int i) {
+	return new double[] { coordinates[3 * i], coordinates[3 * i + 1],
+		coordinates[3 * i + 2] };
+    }
+
+    protected int cellIndex(double value, int d) {
+	int index = (int) ((value - min[d]) / cellSize);
+	return Math.max(0, Math.min(resolution - 1, index));
+    }
+
+    /**
+     * Finds the first non-empty cell whose index is not less than c
+     *
+     * @return a position in cellKeys, or its length if there is none
+     */
+    protected int firstCell(int c) {
+	int k = Arrays.binarySearch(cellKeys, c);
+	return k >= 0 ? k : -k - 1;
+    }
+
+    protected int cell(int cx, int cy, int cz) {
+	return (cx * resolution + cy) * resolution + cz;
+    }
+
+    protected static float[] toFloats(FlatPointCloud pointCloud) {
+	float[] points = new float[3 * pointCloud.size()];
+
+	if (pointCloud.getDimensions() == 3) {
+	    pointCloud.copy(0, pointCloud.size(), points, 0);
+	    return points;
+	}
+
+	for (int i = 0; i < pointCloud.size(); i++) {
+	    for (int d = 0; d < 3; d++) {
+		points[3 * i + d] = (float) pointCloud.get(i, d);
+	    }
+	}
+
+	return points;
+    }
+
+}
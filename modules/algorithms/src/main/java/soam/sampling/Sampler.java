@@ -2,7 +2,6 @@
 
 package soam.sampling;
 
-import java.util.ArrayList;
 import java.awt.image.BufferedImage;
 
 import soam.algorithms.Algorithm;
@@ -17,7 +16,7 @@ public interface Sampler {
 
     public BufferedImage getBufferedImage();
     
-    public ArrayList<double[]> getPointCloud();
+    public PointCloud getPointCloud();
 
     public String getDescription();
 
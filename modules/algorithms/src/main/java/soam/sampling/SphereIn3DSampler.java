@@ -1,12 +1,15 @@
 
 package soam.sampling;
 
+import java.util.Random;
 
 public class SphereIn3DSampler implements ComponentSampler {
 
     protected double[] center;
     protected double radius;
 
+    protected Random random = new Random();
+
     public SphereIn3DSampler(double[] center, double radius) {
 
         if (center.length != 3) {
@@ -29,9 +32,9 @@ public class SphereIn3DSampler implements ComponentSampler {
         double[] sample = new double[center.length];
 
         // Generate a point on a 2-sphere centered at the origin
-        sample[2] = (Math.random() * 2 * radius) - radius;
+        sample[2] = (random.nextDouble() * 2 * radius) - radius;
 
-        double t = (Math.random() * 2 * Math.PI);
+        double t = (random.nextDouble() * 2 * Math.PI);
         double r = Math.sqrt(Math.pow(radius, 2) - Math.pow(sample[2], 2));
         sample[0] = r * Math.cos(t);
         sample[1] = r * Math.sin(t);
@@ -44,6 +47,15 @@ public class SphereIn3DSampler implements ComponentSampler {
         return sample;
     }
     
+    /**
+     * Sets the seed of the random samples, for repeatable runs
+     * 
+     * @param seed
+     */
+    public void setSeed(long seed) {
+	random = new Random(seed);
+    }
+
     public int getDimensions() {
 	return 3;
     }
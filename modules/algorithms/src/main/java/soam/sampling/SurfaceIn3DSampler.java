@@ -1,7 +1,6 @@
 
 package soam.sampling;
 
-import java.util.ArrayList;
 import java.util.Random;
 import java.awt.image.BufferedImage;
 
@@ -28,6 +27,7 @@ public class SurfaceIn3DSampler implements Sampler {
     protected String option;
     protected double[] areas;
     protected double area;
+    protected AliasTable selector;
 
     protected Random random;
     
@@ -93,11 +93,10 @@ public class SurfaceIn3DSampler implements Sampler {
         for (int i = 0; i < componentSamplers.length; i++) {
             areas[i] = componentSamplers[i].getArea();
             area += areas[i];
-            if (i > 0) {
-                areas[i] += areas[i - 1];
-            }
         }
 
+        selector = new AliasTable(areas);
+
         return true;
     }
 
@@ -118,7 +117,7 @@ public class SurfaceIn3DSampler implements Sampler {
 	return "";
     }
     
-    public ArrayList<double[]> getPointCloud() {
+    public PointCloud getPointCloud() {
 	return null;
     }
 
@@ -128,31 +127,23 @@ public class SurfaceIn3DSampler implements Sampler {
 
     public double[] nextSample() {
 
-        // Select component
-        double choice = random.nextDouble() * area;
-
-        for (int i = 0; i < componentSamplers.length; i++) {
-            if (choice < areas[i]) {
-                double[] sample = componentSamplers[i].nextSample();
-                sample[0] += DISP_X;
-                sample[1] += DISP_Y;
-                sample[2] += DISP_Z;
-                
-                // Add noise, if requested
-                if (NOISE_STDEV > 0d) {
-                    double[] noise = GaussianNoise.gaussianNoise(3, NOISE_STDEV, NOISE_BOUND);
-                    if (noise != null) {
-                        sample[0] += noise[0];
-                        sample[1] += noise[1];
-                        sample[2] += noise[2];                	
-                    }
-                }
-                
-                return sample;
+        // Select component, with probability proportional to its area
+        double[] sample = componentSamplers[selector.next(random)].nextSample();
+        sample[0] += DISP_X;
+        sample[1] += DISP_Y;
+        sample[2] += DISP_Z;
+
+        // Add noise, if requested
+        if (NOISE_STDEV > 0d) {
+            double[] noise = GaussianNoise.gaussianNoise(3, NOISE_STDEV, NOISE_BOUND);
+            if (noise != null) {
+                sample[0] += noise[0];
+                sample[1] += noise[1];
+                sample[2] += noise[2];
             }
         }
 
-        throw new RuntimeException("Unexpected MultiComponentSampler error");
+        return sample;
     }
 
     public double[] nextSample(final double[] point, double radius) {
@@ -2,7 +2,7 @@
 package soam.sampling;
 
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import java.util.Random;
 
 import javax.swing.JOptionPane;
 
@@ -23,35 +23,59 @@ public class SurfaceInNDSampler implements Sampler {
 		    "Klein's Bagel in 5D",
 
 		    "Torus Surface in 3D", "Torus Surface in 4D",
-		    "Torus Surface in 5D" };
+		    "Torus Surface in 5D",
 
-    protected static ComponentSampler[] optionSamplers;
+		    "Torus and Boy's Surface in 3D" };
 
-    protected ComponentSampler surfaceSampler;
+    protected static ComponentSampler[][] optionSamplers;
+
+    // Translations of the components, so that they do not intersect: null
+    // when no component is moved
+    protected static double[][][] optionOffsets;
+
+    protected ComponentSampler[] surfaceSamplers;
+    protected double[][] surfaceOffsets;
     protected String option;
 
+    // Components are selected with probability proportional to their area
+    protected AliasTable selector;
+
+    protected Random random;
+
     protected static void initializeSurfaceSamplers() {
 	if (optionSamplers != null) {
 	    return;
 	}
 
-	optionSamplers = new ComponentSampler[12];
+	optionSamplers = new ComponentSampler[13][];
+	optionOffsets = new double[13][][];
 
-	optionSamplers[0] = new BoySurfaceSampler(3);
-	optionSamplers[1] = new BoySurfaceSampler(4);
-	optionSamplers[2] = new BoySurfaceSampler(5);
+	optionSamplers[0] = single(new BoySurfaceSampler(3));
+	optionSamplers[1] = single(new BoySurfaceSampler(4));
+	optionSamplers[2] = single(new BoySurfaceSampler(5));
 
-	optionSamplers[3] = new KleinBottleSampler(3);
-	optionSamplers[4] = new KleinBottleSampler(4);
-	optionSamplers[5] = new KleinBottleSampler(5);
+	optionSamplers[3] = single(new KleinBottleSampler(3));
+	optionSamplers[4] = single(new KleinBottleSampler(4));
+	optionSamplers[5] = single(new KleinBottleSampler(5));
 
-	optionSamplers[6] = new KleinBagelSampler(3);
-	optionSamplers[7] = new KleinBagelSampler(4);
-	optionSamplers[8] = new KleinBagelSampler(5);
+	optionSamplers[6] = single(new KleinBagelSampler(3));
+	optionSamplers[7] = single(new KleinBagelSampler(4));
+	optionSamplers[8] = single(new KleinBagelSampler(5));
 
-	optionSamplers[9] = new TorusSampler(3);
-	optionSamplers[10] = new TorusSampler(4);
-	optionSamplers[11] = new TorusSampler(5);
+	optionSamplers[9] = single(new TorusSampler(3));
+	optionSamplers[10] = single(new TorusSampler(4));
+	optionSamplers[11] = single(new TorusSampler(5));
+
+	// Both are centered in the box: the torus (z in [108, 148]) is moved
+	// below Boy's surface (z in [64, 227])
+	optionSamplers[12] =
+		new ComponentSampler[] { new TorusSampler(3),
+			new BoySurfaceSampler(3) };
+	optionOffsets[12] = new double[][] { { 0d, 0d, -100d }, null };
+    }
+
+    protected static ComponentSampler[] single(ComponentSampler sampler) {
+	return new ComponentSampler[] { sampler };
     }
 
     public boolean initialize(Algorithm algorithm) {
@@ -69,15 +93,24 @@ public class SurfaceInNDSampler implements Sampler {
 
 	for (int i = 0; i < options.length; i++) {
 	    if (options[i].equals(option)) {
-		surfaceSampler = optionSamplers[i];
+		surfaceSamplers = optionSamplers[i];
+		surfaceOffsets = optionOffsets[i];
 		break;
 	    }
 	}
 
-        if (surfaceSampler == null) {
+	if (surfaceSamplers == null) {
             return false;
         }
-        
+
+	double[] areas = new double[surfaceSamplers.length];
+	for (int i = 0; i < surfaceSamplers.length; i++) {
+	    areas[i] = surfaceSamplers[i].getArea();
+	}
+
+	selector = new AliasTable(areas);
+	random = new Random();
+
 	return true;
     }
 
@@ -91,7 +124,7 @@ public class SurfaceInNDSampler implements Sampler {
      * @return dimension
      */
     public int getDimensions() {
-	return surfaceSampler.getDimensions();
+	return surfaceSamplers[0].getDimensions();
     }
 
     public String getDescription() {
@@ -102,12 +135,21 @@ public class SurfaceInNDSampler implements Sampler {
 	return null;
     }
 
-    public ArrayList<double[]> getPointCloud() {
+    public PointCloud getPointCloud() {
 	return null;
     }
 
     public double[] nextSample() {
-	return surfaceSampler.nextSample();
+	int i = selector.next(random);
+	double[] sample = surfaceSamplers[i].nextSample();
+
+	if (surfaceOffsets != null && surfaceOffsets[i] != null) {
+	    for (int d = 0; d < surfaceOffsets[i].length; d++) {
+		sample[d] += surfaceOffsets[i][d];
+	    }
+	}
+
+	return sample;
     }
 
     public double[] nextSample(final double[] point, double radius) {
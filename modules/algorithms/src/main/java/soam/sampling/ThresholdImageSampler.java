@@ -2,8 +2,6 @@
 
 package soam.sampling;
 
-import java.awt.Point;
-import java.util.ArrayList;
 
 import soam.algorithms.Algorithm;
 
@@ -12,63 +10,44 @@ public class ThresholdImageSampler extends GrayscaleImageSampler {
     protected boolean LESSER_THAN_THRESHOLD = true;
     protected double THRESHOLD = 254d;
 
-    protected ArrayList<Point> points;
-
     public boolean initialize(Algorithm algorithm) {
 
 	if (!super.initialize(algorithm)) {
 	    return false;
 	}
 
-	selectPoints();
+	pixelIndex = selectViablePixels();
 
 	return true;
     }
 
     /**
-     * Gets the point cloud, as an array of vectors
+     * Gets the pixels passing the threshold as a point cloud
      * 
-     * @return dimension
+     * @return the point cloud
      */
     @Override
-    public ArrayList<double[]> getPointCloud() {
-
-	if (pointCloud == null) {
-	    pointCloud = new ArrayList<double[]>();
-
-	    for (Point aPoint : points) {
-		double[] tmp = new double[2];
-
-		tmp[0] = aPoint.x;
-		tmp[1] = aPoint.y;
+    protected PointCloud buildPointCloud() {
+	PixelIndex index = pixelIndex();
 
-		pointCloud.add(tmp);
-	    }
+	double[] coordinates = new double[2 * index.size()];
+	for (int i = 0; i < index.size(); i++) {
+	    coordinates[2 * i] = index.getPixel(i) % index.getWidth();
+	    coordinates[2 * i + 1] = index.getPixel(i) / index.getWidth();
 	}
 
-	return pointCloud;
+	return new FlatPointCloud(0, 2, index.size(), coordinates);
     }
 
     /**
-     * The variable points is vulnerable to race conditions and accesses to it
-     * should be synchronized: use the "pause" button, instead ...
+     * Tells whether a pixel passes the threshold
      */
-    protected void selectPoints() {
-	points = new ArrayList<Point>();
-	pointCloud = null;
-
-	for (int i = 0; i < raster.getWidth(); i++) {
-	    for (int j = 0; j < raster.getHeight(); j++) {
-		if (LESSER_THAN_THRESHOLD) {
-		    if (raster.getSampleDouble(i, j, 0) < THRESHOLD) {
-			points.add(new Point(i, j));
-		    }
-		} else {
-		    if (raster.getSampleDouble(i, j, 0) > THRESHOLD) {
-			points.add(new Point(i, j));
-		    }
-		}
-	    }
+    @Override
+    protected boolean isViable(int x, int y, double value) {
+	if (LESSER_THAN_THRESHOLD) {
+	    return value < THRESHOLD;
+	} else {
+	    return value > THRESHOLD;
 	}
     }
 
@@ -82,32 +61,18 @@ public class ThresholdImageSampler extends GrayscaleImageSampler {
      * @return A sampled point
      */
     public double[] nextSample() {
-	double[] sample = new double[2];
+	PixelIndex index = pixelIndex();
 
-	// Uniform sampling over image space
-	Point point = null;
+	int pixel;
 	if (NEXT_SAMPLE == null) {
-	    point = points.get((int) (random.nextDouble() * points.size()));
+	    pixel = index.next(random);
 	} else {
 	    // Get the closest point, for debugging
-	    long distance = Long.MAX_VALUE;
-	    for (Point aPoint : points) {
-		long tmp =
-			(aPoint.x - NEXT_SAMPLE.x) * (aPoint.x - NEXT_SAMPLE.x)
-				+ (aPoint.y - NEXT_SAMPLE.y)
-				* (aPoint.y - NEXT_SAMPLE.y);
-		if (tmp < distance) {
-		    point = aPoint;
-		    distance = tmp;
-		}
-	    }
+	    pixel = index.closest(NEXT_SAMPLE.x, NEXT_SAMPLE.y);
 	    NEXT_SAMPLE = null;
 	}
 
-	sample[0] = point.x;
-	sample[1] = point.y;
-
-	return sample;
+	return thresholdSample(pixel, index);
     }
 
     /**
@@ -116,8 +81,34 @@ public class ThresholdImageSampler extends GrayscaleImageSampler {
      * @return A sampled point
      */
     public double[] nextSample(final double[] point, double radius) {
-	// Just ignore, for now
-	return nextSample();
+	if (NEXT_SAMPLE != null) {
+	    return nextSample();
+	}
+
+	PixelIndex index = pixelIndex();
+	int pixel = index.next(point[0], point[1], radius, random);
+
+	if (pixel < 0) {
+	    // Nothing above (or below) threshold nearby
+	    return nextSample();
+	}
+
+	return thresholdSample(pixel, index);
+    }
+
+    protected double[] thresholdSample(int pixel, PixelIndex index) {
+	double[] sample = new double[2];
+
+	if (pixel < 0) {
+	    // Nothing passes the threshold: sample the whole image
+	    sample[0] = random.nextInt(index.getWidth());
+	    sample[1] = random.nextInt(index.getHeight());
+	} else {
+	    sample[0] = pixel % index.getWidth();
+	    sample[1] = pixel / index.getWidth();
+	}
+
+	return sample;
     }
     
     /**
@@ -136,7 +127,8 @@ public class ThresholdImageSampler extends GrayscaleImageSampler {
     public void setLESSER_THAN_THRESHOLD(boolean lesser_than_threshold) {
 	LESSER_THAN_THRESHOLD = lesser_than_threshold;
 
-	selectPoints();
+	pixelIndex = null;
+	pointCloud = null;
     }
 
     public double getTHRESHOLD() {
@@ -146,6 +138,7 @@ public class ThresholdImageSampler extends GrayscaleImageSampler {
     public void setTHRESHOLD(double threshold) {
 	THRESHOLD = threshold;
 
-	selectPoints();
+	pixelIndex = null;
+	pointCloud = null;
     }
 }
@@ -45,6 +45,15 @@ public class ToroidalHelixSampler implements ComponentSampler {
 	return sample;
     }
 
+    /**
+     * Sets the seed of the random samples, for repeatable runs
+     * 
+     * @param seed
+     */
+    public void setSeed(long seed) {
+	random = new Random(seed);
+    }
+
     public int getDimensions() {
 	return 3;
     }
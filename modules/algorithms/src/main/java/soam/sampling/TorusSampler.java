@@ -2,37 +2,26 @@
 
 package soam.sampling;
 
-import java.util.Random;
-
-public class TorusSampler implements ComponentSampler {
+public class TorusSampler extends ParametricSurfaceSampler {
     protected static final double BASIC_SCALE = 256;
     protected static final double SCALE = BASIC_SCALE / (Math.PI * 2);
 
-    protected int dimensions;
-
-    protected Random random;
-
     public TorusSampler(int dimensions) {
-	if (dimensions < 3) {
-	    throw new RuntimeException("Unsupported dimensions: " + dimensions);
-	}
-
-	this.dimensions = dimensions;
-	random = new Random();
+	super(dimensions, 0d, 2 * Math.PI, 0d, 2 * Math.PI);
     }
 
-    public double[] nextSample() {
-	double u = random.nextDouble() * 2 * Math.PI;
-	double v = random.nextDouble() * 2 * Math.PI;
-
-	double[] sample = new double[dimensions];
+    protected void evaluate(double u, double v, double[] sample) {
+	double cosU = Math.cos(u);
+	double sinU = Math.sin(u);
+	double cosV = Math.cos(v);
+	double sinV = Math.sin(v);
 
-	sample[0] = (1 + 0.5 * Math.cos(u)) * Math.cos(v);
-	sample[1] = (1 + 0.5 * Math.cos(u)) * Math.sin(v);
-	sample[2] = 0.5 * Math.sin(u);
+	sample[0] = (1 + 0.5 * cosU) * cosV;
+	sample[1] = (1 + 0.5 * cosU) * sinV;
+	sample[2] = 0.5 * sinU;
 
 	for (int i = 3; i < dimensions; i++) {
-	    sample[i] = Math.cos(u);
+	    sample[i] = cosU;
 	}
 
 	// Scale & translate
@@ -43,15 +32,5 @@ public class TorusSampler implements ComponentSampler {
 	for (int i = 3; i < dimensions; i++) {
 	    sample[i] = sample[i] * BASIC_SCALE / 2d + BASIC_SCALE / 2d;
 	}
-
-	return sample;
-    }
-
-    public int getDimensions() {
-	return dimensions;
-    }
-
-    public double getArea() {
-	throw new RuntimeException("Method not implemented");
     }
 }
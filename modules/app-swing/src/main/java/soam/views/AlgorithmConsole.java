@@ -25,12 +25,16 @@ import java.text.DecimalFormat;
 import java.util.Observer;
 import java.util.Observable;
 
+import javax.management.JMException;
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import soam.Mesh;
 import soam.algorithms.Algorithm;
 import soam.algorithms.Executor;
+import soam.algorithms.ExecutorMonitor;
+import soam.algorithms.ExecutorSnapshot;
+import soam.algorithms.GWR;
 import soam.sampling.Sampler;
 import soam.utils.MeshIO;
 
@@ -63,6 +67,7 @@ public class AlgorithmConsole extends JFrame implements Observer,
     protected JCheckBox voronoiCheckBox;
     protected JCheckBox view3DCheckBox;
     protected JCheckBox statisticsCheckBox;
+    protected JCheckBox timingCheckBox;
 
     protected JLabel iterationsLabel;
     protected JFormattedTextField iterationsTextField;
@@ -88,6 +93,7 @@ public class AlgorithmConsole extends JFrame implements Observer,
     protected BeanEditor executorParametersEditor;
 
     protected BeanViewer algorithmStatisticsViewer;
+    protected BeanViewer phaseTimingViewer;
 
     public AlgorithmConsole(Class<?> algorithmClass, Class<?> samplerClass) {
 	super(algorithmClass.getSimpleName() + " Console");
@@ -112,7 +118,16 @@ public class AlgorithmConsole extends JFrame implements Observer,
 	}
 
 	executor = new Executor(algorithm);
-	executor.addObserver(this);
+	executor.addObserver(this, Executor.EVENT_DISPATCH_THREAD);
+
+	// For JConsole, with -Dsoam.jmx=true
+	if (ExecutorMonitor.isEnabled()) {
+	    try {
+		executor.registerMBean();
+	    } catch (JMException e) {
+		e.printStackTrace();
+	    }
+	}
 
 	reset();
 
@@ -291,11 +306,13 @@ public class AlgorithmConsole extends JFrame implements Observer,
 	voronoiCheckBox = new JCheckBox("Voronoi View", false);
 	view3DCheckBox = new JCheckBox("3D View", false);
 	statisticsCheckBox = new JCheckBox("Statitstics", false);
+	timingCheckBox = new JCheckBox("Timing", false);
 
 	imageCheckBox.addItemListener(this);
 	voronoiCheckBox.addItemListener(this);
 	view3DCheckBox.addItemListener(this);
 	statisticsCheckBox.addItemListener(this);
+	timingCheckBox.addItemListener(this);
 
 	JPanel viewsPanel = new JPanel(new FlowLayout());
 	viewsPanel.setBorder(BorderFactory.createTitledBorder("Views"));
@@ -313,6 +330,11 @@ public class AlgorithmConsole extends JFrame implements Observer,
 	}
 	viewsPanel.add(statisticsCheckBox);
 
+	// Phase timing is only available for GWR and its subclasses
+	if (algorithm instanceof GWR) {
+	    viewsPanel.add(timingCheckBox);
+	}
+
 	mainPanel.add("Center", viewsPanel);
 
 	// Execution
@@ -441,6 +463,19 @@ public class AlgorithmConsole extends JFrame implements Observer,
 		getLocation().y + getHeight());
     }
 
+    protected void ensurePhaseTimingViewerFrame() {
+	if (phaseTimingViewer != null) {
+	    return;
+	}
+
+	phaseTimingViewer = new BeanViewer(((GWR) algorithm).phaseTimer());
+
+	phaseTimingViewer
+		.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+	phaseTimingViewer.setLocation(getLocation().x, getLocation().y
+		+ getHeight());
+    }
+
     public void reset() {
 	algorithm.reset();
 	sampler.reset();
@@ -480,6 +515,9 @@ public class AlgorithmConsole extends JFrame implements Observer,
 	if (!visible && algorithmStatisticsViewer != null) {
 	    algorithmStatisticsViewer.setVisible(visible);
 	}
+	if (!visible && phaseTimingViewer != null) {
+	    phaseTimingViewer.setVisible(visible);
+	}
 
     }
 
@@ -489,6 +527,12 @@ public class AlgorithmConsole extends JFrame implements Observer,
 	// Make sure that no zombies are left around ...
 	executor.stop();
 
+	try {
+	    executor.unregisterMBean();
+	} catch (JMException e) {
+	    e.printStackTrace();
+	}
+
 	if (imageFrame != null) {
 	    imageFrame.dispose();
 	}
@@ -512,14 +556,33 @@ public class AlgorithmConsole extends JFrame implements Observer,
 	if (algorithmStatisticsViewer != null) {
 	    algorithmStatisticsViewer.dispose();
 	}
+	if (phaseTimingViewer != null) {
+	    phaseTimingViewer.dispose();
+	}
 
 	super.dispose();
     }
 
+    /**
+     * Refreshes the console and the visible views. Called on the event
+     * dispatch thread, with the latest snapshot published by the executor,
+     * or with null to read the algorithm directly while it is not running.
+     */
     public void update(Observable observable, Object obj) {
-	iterationsTextField.setValue(new Long(algorithm.getTick()));
-	vertexTextField
-		.setValue(new Integer(algorithm.mesh().vertexlist.size()));
+	long tick;
+	int vertices;
+
+	if (obj instanceof ExecutorSnapshot) {
+	    ExecutorSnapshot snapshot = (ExecutorSnapshot) obj;
+	    tick = snapshot.getTick();
+	    vertices = snapshot.getVertices();
+	} else {
+	    tick = algorithm.getTick();
+	    vertices = algorithm.mesh().vertexlist.size();
+	}
+
+	iterationsTextField.setValue(new Long(tick));
+	vertexTextField.setValue(new Integer(vertices));
 
 	if (imageFrame != null && imageFrame.isVisible()) {
 
@@ -545,17 +608,33 @@ public class AlgorithmConsole extends JFrame implements Observer,
 	    algorithmStatisticsViewer.refresh();
 	}
 
+	if (phaseTimingViewer != null && phaseTimingViewer.isVisible()) {
+	    phaseTimingViewer.refresh();
+	}
+
 	// Avoid repainting the voronoi frame: it's just too much ..
 
-	// Check if it is necessary to autoPause
-	if (!autoPaused && executor.isAUTO_PAUSE() && algorithm.isConvergent()) {
+	// The executor pauses itself at convergence, just show it
+	if (!autoPaused && executor.isAutoPaused() && executor.isPaused()) {
 	    autoPaused = true;
-
-	    // Avoid duplicating code
-	    this.actionPerformed(new ActionEvent(pauseButton, 0, null));
+	    showPaused();
 	}
     }
 
+    /**
+     * Enables the controls of a paused executor
+     */
+    protected void showPaused() {
+	startButton.setEnabled(false);
+	pauseButton.setEnabled(false);
+	resumeButton.setEnabled(true);
+	resetButton.setEnabled(true);
+	orientMeshMenuItem.setEnabled(true);
+	exportSerMeshMenuItem.setEnabled(true);
+	exportPlyMeshMenuItem.setEnabled(true);
+	importSerMeshMenuItem.setEnabled(true);
+    }
+
     public void actionPerformed(ActionEvent e) {
 
 	if (e.getSource() == startButton) {
@@ -571,14 +650,7 @@ public class AlgorithmConsole extends JFrame implements Observer,
 	    executor.start();
 
 	} else if (e.getSource() == pauseButton) {
-	    startButton.setEnabled(false);
-	    pauseButton.setEnabled(false);
-	    resumeButton.setEnabled(true);
-	    resetButton.setEnabled(true);
-	    orientMeshMenuItem.setEnabled(true);
-	    exportSerMeshMenuItem.setEnabled(true);
-	    exportPlyMeshMenuItem.setEnabled(true);
-	    importSerMeshMenuItem.setEnabled(true);
+	    showPaused();
 
 	    executor.pause();
 
@@ -663,6 +735,14 @@ public class AlgorithmConsole extends JFrame implements Observer,
 		    && algorithmStatisticsViewer != null) {
 		algorithmStatisticsViewer.setVisible(false);
 	    }
+	} else if (e.getSource() == timingCheckBox) {
+	    if (e.getStateChange() == ItemEvent.SELECTED) {
+		ensurePhaseTimingViewerFrame();
+		phaseTimingViewer.setVisible(true);
+	    } else if (e.getStateChange() == ItemEvent.DESELECTED
+		    && phaseTimingViewer != null) {
+		phaseTimingViewer.setVisible(false);
+	    }
 	}
     }
 }
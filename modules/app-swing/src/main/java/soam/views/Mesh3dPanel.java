@@ -51,6 +51,7 @@ import soam.Edge;
 import soam.Vertex;
 import soam.algorithms.Algorithm;
 import soam.algorithms.GWRConstants;
+import soam.sampling.PointCloud;
 import soam.utils.GraphicsFileExport;
 import soam.utils.Transformation3D;
 
@@ -280,16 +281,21 @@ public class Mesh3dPanel extends JPanel implements MouseListener,
 
 	if (SHOW_POINT_CLOUD) {
 
-	    ArrayList<double[]> pointCloud =
-		    algorithm.sampler().getPointCloud();
+	    PointCloud pointCloud = algorithm.sampler().getPointCloud();
 
 	    if (pointCloud != null) {
 
 		g.setColor(Color.orange);
-		for (double[] point : pointCloud) {
-		    pt[0] = (point[DIM_X] - FROM_X) / (TO_X - FROM_X);
-		    pt[1] = (point[DIM_Y] - FROM_Y) / (TO_Y - FROM_Y);
-		    pt[2] = (point[DIM_Z] - FROM_Z) / (TO_Z - FROM_Z);
+		for (int i = 0; i < pointCloud.size(); i++) {
+		    pt[0] =
+			    (pointCloud.get(i, DIM_X) - FROM_X)
+				    / (TO_X - FROM_X);
+		    pt[1] =
+			    (pointCloud.get(i, DIM_Y) - FROM_Y)
+				    / (TO_Y - FROM_Y);
+		    pt[2] =
+			    (pointCloud.get(i, DIM_Z) - FROM_Z)
+				    / (TO_Z - FROM_Z);
 
 		    projectXY(pt);
 
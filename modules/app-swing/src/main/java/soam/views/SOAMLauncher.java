@@ -54,7 +54,7 @@ public class SOAMLauncher extends JFrame implements ActionListener {
         description.name = "GWR";
         description.controller = soam.algorithms.GWR.class;
         description.viewer = soam.views.AlgorithmConsole.class;
-        related = new ClassDescription[7];
+        related = new ClassDescription[8];
         related[0] = new ClassDescription();
         related[0].name = "GrayscaleImageSampler";
         related[0].controller = soam.sampling.GrayscaleImageSampler.class;
@@ -76,6 +76,9 @@ public class SOAMLauncher extends JFrame implements ActionListener {
         related[6] = new ClassDescription();
         related[6].name = "ThresholdImageSampler";
         related[6].controller = soam.sampling.ThresholdImageSampler.class;
+        related[7] = new ClassDescription();
+        related[7].name = "MappedPointCloudSampler";
+        related[7].controller = soam.sampling.MappedPointCloudSampler.class;
         description.related = related;
         options.add(description);
 
@@ -83,7 +86,7 @@ public class SOAMLauncher extends JFrame implements ActionListener {
         description.name = "SOAM : 1-manifold";
         description.controller = soam.algorithms.SOAM1d.class;
         description.viewer = soam.views.AlgorithmConsole.class;
-        related = new ClassDescription[3];
+        related = new ClassDescription[4];
         related[0] = new ClassDescription();
         related[0].name = "ThresholdImageSampler";
         related[0].controller = soam.sampling.ThresholdImageSampler.class;
@@ -93,6 +96,9 @@ public class SOAMLauncher extends JFrame implements ActionListener {
         related[2] = new ClassDescription();
         related[2].name = "PlySampler";
         related[2].controller = soam.sampling.PLYSampler.class;
+        related[3] = new ClassDescription();
+        related[3].name = "DatafileCurveSampler";
+        related[3].controller = soam.sampling.DatafileCurveSampler.class;
         description.related = related;
         options.add(description);
 
@@ -100,7 +106,7 @@ public class SOAMLauncher extends JFrame implements ActionListener {
         description.name = "SOAM : 2-manifold";
         description.controller = soam.algorithms.SOAM2d.class;
         description.viewer = soam.views.AlgorithmConsole.class;
-        related = new ClassDescription[10];
+        related = new ClassDescription[11];
         related[0] = new ClassDescription();
         related[0].name = "GrayscaleImageSampler";
         related[0].controller = soam.sampling.GrayscaleImageSampler.class;
@@ -131,6 +137,9 @@ public class SOAMLauncher extends JFrame implements ActionListener {
         related[9] = new ClassDescription();
         related[9].name = "ExcludedRegionSpheroConesSampler";
         related[9].controller = soam.sampling.ExcludedRegionSpheroConesSampler.class;
+        related[10] = new ClassDescription();
+        related[10].name = "MappedPointCloudSampler";
+        related[10].controller = soam.sampling.MappedPointCloudSampler.class;
         description.related = related;
         options.add(description);
 
@@ -0,0 +1,106 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.benchmarks;
+
+import java.util.Random;
+
+import soam.sampling.AliasTable;
+
+/**
+ * Compares AliasTable with the linear search through cumulative weights that
+ * composite samplers used before, for a range of component counts. Each
+ * search keeps its best time over the rounds after the first WARMUP ones.
+ * <p>
+ * Usage: AliasTableBenchmark [draws]
+ */
+public class AliasTableBenchmark {
+
+    protected static final int[] SIZES = { 2, 4, 12, 64, 1024 };
+
+    protected static final int WARMUP = 2;
+
+    protected static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+	int draws = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+
+	Random weightsRandom = new Random(0);
+
+	for (int size : SIZES) {
+	    double[] weights = new double[size];
+	    for (int i = 0; i < size; i++) {
+		weights[i] = weightsRandom.nextDouble();
+	    }
+
+	    // As in SurfaceIn3DSampler, before AliasTable
+	    double[] cumulative = new double[size];
+	    double total = 0d;
+	    for (int i = 0; i < size; i++) {
+		total += weights[i];
+		cumulative[i] = total;
+	    }
+
+	    AliasTable table = new AliasTable(weights);
+
+	    long linearTime = Long.MAX_VALUE;
+	    long aliasTime = Long.MAX_VALUE;
+	    long checksum = 0;
+
+	    for (int r = 0; r < ROUNDS; r++) {
+		Random random = new Random(r);
+		long start = System.nanoTime();
+		for (int d = 0; d < draws; d++) {
+		    checksum += linearSearch(cumulative, total, random);
+		}
+		long linear = System.nanoTime() - start;
+
+		random = new Random(r);
+		start = System.nanoTime();
+		for (int d = 0; d < draws; d++) {
+		    checksum += table.next(random);
+		}
+		long alias = System.nanoTime() - start;
+
+		// The first rounds are just warm up
+		if (r >= WARMUP) {
+		    linearTime = Math.min(linearTime, linear);
+		    aliasTime = Math.min(aliasTime, alias);
+		}
+	    }
+
+	    System.out.println(String.format(
+		    "%5d components: linear %6.2f ns/draw,"
+			    + " alias %6.2f ns/draw (checksum %d)", size,
+		    linearTime / (double) draws, aliasTime / (double) draws,
+		    checksum));
+	}
+    }
+
+    protected static int linearSearch(double[] cumulative, double total,
+	    Random random) {
+	double choice = random.nextDouble() * total;
+
+	for (int i = 0; i < cumulative.length; i++) {
+	    if (choice < cumulative[i]) {
+		return i;
+	    }
+	}
+
+	return cumulative.length - 1;
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.util.Hashtable;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Vector;
+
+import soam.utils.Element;
+import soam.utils.FortranFormat;
+import soam.utils.PDBAtoms;
+
+/**
+ * Compares PDBAtoms with the FortranFormat parser and the radius Hashtable
+ * that MolecularSurfaceSampler used before, on a PDB file read in memory. If
+ * no file is given, a synthetic one is generated. Each parser keeps its best
+ * time over the rounds after the first WARMUP ones.
+ * <p>
+ * Usage: PDBParserBenchmark [file.pdb | atoms]
+ */
+public class PDBParserBenchmark {
+
+    protected static final int WARMUP = 2;
+
+    protected static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException,
+	    ParseException {
+	byte[] contents;
+	if (args.length > 0 && new File(args[0]).isFile()) {
+	    contents = read(new File(args[0]));
+	} else {
+	    contents =
+		    generate(args.length > 0 ? Integer.parseInt(args[0])
+			    : 100000);
+	}
+
+	FortranFormat formatter =
+		new FortranFormat(
+			"(A6,I5,1X,A4,A1,A3,1X,A1,I4,A1,3X,3F8.3,2F6.2,10X,2A2)");
+
+	// Keyed by upper case symbol, as found in PDB files
+	Hashtable<String, Double> radii = new Hashtable<String, Double>();
+	for (Element element : Element.values()) {
+	    radii.put(element.getSymbol().toUpperCase(Locale.US), element
+		    .getRadius());
+	}
+
+	long fortranTime = Long.MAX_VALUE;
+	long fixedTime = Long.MAX_VALUE;
+	double fortranChecksum = 0d;
+	double fixedChecksum = 0d;
+	int atoms = 0;
+
+	for (int r = 0; r < ROUNDS; r++) {
+	    // The first rounds are just warm up
+	    boolean warmup = r < WARMUP;
+
+	    long start = System.nanoTime();
+	    fortranChecksum = parseFortran(contents, formatter, radii);
+	    if (!warmup) {
+		fortranTime = Math.min(fortranTime, System.nanoTime() - start);
+	    }
+
+	    start = System.nanoTime();
+	    PDBAtoms pdb = PDBAtoms.parse(new ByteArrayInputStream(contents));
+	    fixedChecksum = 0d;
+	    for (int i = 0; i < pdb.size(); i++) {
+		fixedChecksum +=
+			pdb.positions[3 * i] + pdb.positions[3 * i + 1]
+				+ pdb.positions[3 * i + 2] + pdb.getRadius(i);
+	    }
+	    if (!warmup) {
+		fixedTime = Math.min(fixedTime, System.nanoTime() - start);
+	    }
+
+	    atoms = pdb.size();
+	}
+
+	double megabytes = contents.length / (1024d * 1024d);
+	System.out.println(String.format(Locale.US,
+		"%d atoms, %.1f MB: FortranFormat %8.1f ms (%6.1f MB/s),"
+			+ " fixed columns %8.1f ms (%6.1f MB/s)", atoms,
+		megabytes, fortranTime * 1e-6d, megabytes / (fortranTime * 1e-9d),
+		fixedTime * 1e-6d, megabytes / (fixedTime * 1e-9d)));
+	System.out.println(String.format(Locale.US,
+		"Checksums: FortranFormat %.3f, fixed columns %.3f",
+		fortranChecksum, fixedChecksum));
+    }
+
+    /**
+     * Parses as MolecularSurfaceSampler did before PDBAtoms. Atoms of
+     * unknown elements are skipped.
+     *
+     * @return the sum of all coordinates and radii
+     */
+    protected static double parseFortran(byte[] contents,
+	    FortranFormat formatter, Hashtable<String, Double> radii)
+	    throws IOException {
+	BufferedReader in =
+		new BufferedReader(new InputStreamReader(
+			new ByteArrayInputStream(contents), "US-ASCII"));
+
+	double checksum = 0d;
+	String line;
+	while ((line = in.readLine()) != null) {
+	    if (line.startsWith("ATOM") || line.startsWith("HETATM")) {
+		Vector<Object> objects = formatter.parse(line);
+
+		double[] position = new double[3];
+		position[0] = (Double) objects.get(8);
+		position[1] = (Double) objects.get(9);
+		position[2] = (Double) objects.get(10);
+
+		String symbol = (String) objects.get(13);
+		Double radius =
+			symbol != null ? radii.get(symbol.trim().toUpperCase(
+				Locale.US)) : null;
+		if (radius == null) {
+		    continue;
+		}
+
+		checksum += position[0] + position[1] + position[2] + radius;
+	    }
+	}
+
+	return checksum;
+    }
+
+    protected static byte[] read(File file) throws IOException {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	InputStream in = new FileInputStream(file);
+
+	try {
+	    byte[] buffer = new byte[1 << 16];
+	    int read;
+	    while ((read = in.read(buffer)) >= 0) {
+		out.write(buffer, 0, read);
+	    }
+	} finally {
+	    in.close();
+	}
+
+	return out.toByteArray();
+    }
+
+    /**
+     * Generates a protein-like PDB file with random coordinates
+     */
+    protected static byte[] generate(int atoms) throws IOException {
+	String[] names = { " N  ", " CA ", " C  ", " O  ", " CB ", " SG " };
+	String[] symbols = { "N", "C", "C", "O", "C", "S" };
+
+	Random random = new Random(0);
+	StringBuilder builder = new StringBuilder(81 * atoms);
+
+	for (int i = 0; i < atoms; i++) {
+	    int k = i % names.length;
+
+	    builder.append(String.format(Locale.US,
+		    "%-6s%5d %4s %3s %1s%4d    %8.3f%8.3f%8.3f%6.2f%6.2f"
+			    + "          %2s\n", "ATOM", i % 100000, names[k],
+		    "CYS", "A", (i / names.length) % 10000,
+		    100d * random.nextDouble() - 50d,
+		    100d * random.nextDouble() - 50d,
+		    100d * random.nextDouble() - 50d, 1d, 0d, symbols[k]));
+	}
+
+	return builder.toString().getBytes("US-ASCII");
+    }
+}
@@ -0,0 +1,332 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import soam.algorithms.Algorithm;
+import soam.algorithms.ExecutorMonitor;
+import soam.algorithms.GWR;
+import soam.algorithms.SOAM;
+import soam.algorithms.SOAM1d;
+import soam.algorithms.SOAM2d;
+import soam.sampling.ComponentSampler;
+import soam.sampling.PLYSampler;
+import soam.sampling.PointCloud;
+import soam.sampling.Sampler;
+import soam.sampling.SphereIn3DSampler;
+import soam.sampling.ToroidalHelixSampler;
+import soam.sampling.TorusSampler;
+
+/**
+ * Measures the training throughput of GWR, SOAM2d and SOAM1d on the bundled
+ * PLY models and on analytic surfaces and curves, and the time SOAM takes to
+ * converge. All inputs are initialized without dialogs and sampled with fixed
+ * seeds, so that every run trains the same meshes.
+ * <p>
+ * Each case is trained ROUNDS times from scratch; the first WARMUP rounds are
+ * just warm up and are not measured. Ticks are timed in blocks, so that the
+ * cost per tick can be followed as the mesh grows, together with the bytes
+ * allocated per tick and the garbage collections: each block keeps its best
+ * time over the measured rounds.
+ * <p>
+ * This is a plain harness rather than a JMH benchmark: the build targets Java
+ * 1.6, and a case is one long stateful training run, whose cost changes as
+ * the mesh grows, rather than a method to be invoked repeatedly. Warm up
+ * rounds, fixed seeds and per block minima stand in for the JMH machinery.
+ * <p>
+ * Usage: TrainingBenchmark [data directory] [ticks] [max convergence ticks]
+ * [case filter]
+ */
+public class TrainingBenchmark {
+
+    protected static final String[] PLY_FILES =
+	    { "bunny.ply", "horse.ply", "handLowRes.ply", "Pozzo.ply" };
+
+    protected static final long SEED = 1l;
+
+    protected static final int WARMUP = 1;
+
+    protected static final int ROUNDS = 3;
+
+    protected static final int BLOCKS = 10;
+
+    protected static final ThreadMXBean threads =
+	    ManagementFactory.getThreadMXBean();
+
+    protected static final boolean allocationSupported =
+	    ExecutorMonitor.isAllocationSupported(threads);
+
+    public static void main(String[] args) throws Exception {
+	File directory = new File(args.length > 0 ? args[0] : "srcData");
+	long ticks = args.length > 1 ? Long.parseLong(args[1]) : 200000l;
+	long maxTicks = args.length > 2 ? Long.parseLong(args[2]) : 2000000l;
+	String filter = args.length > 3 ? args[3] : "";
+
+	for (String name : PLY_FILES) {
+	    File file = new File(directory, name);
+
+	    run(filter, GWR.class, name, file, ticks, maxTicks);
+	    run(filter, SOAM2d.class, name, file, ticks, maxTicks);
+	}
+
+	run(filter, GWR.class, "torus", null, ticks, maxTicks);
+	run(filter, SOAM2d.class, "torus", null, ticks, maxTicks);
+
+	run(filter, GWR.class, "sphere", null, ticks, maxTicks);
+	run(filter, SOAM2d.class, "sphere", null, ticks, maxTicks);
+
+	run(filter, GWR.class, "helix", null, ticks, maxTicks);
+	run(filter, SOAM1d.class, "helix", null, ticks, maxTicks);
+    }
+
+    /**
+     * Creates a sampler, seeded and ready for use
+     * 
+     * @param input
+     *            the name of the input
+     * @param file
+     *            the PLY file, or null for analytic inputs
+     */
+    protected static Sampler sampler(String input, File file) throws IOException {
+	if (file != null) {
+	    PLYSampler sampler = new PLYSampler();
+	    sampler.initialize(file);
+	    sampler.setSeed(SEED);
+
+	    return sampler;
+
+	} else if (input.equals("torus")) {
+	    TorusSampler torus = new TorusSampler(3);
+	    torus.setSeed(SEED);
+
+	    return new ComponentAdapter(input, torus);
+
+	} else if (input.equals("sphere")) {
+	    SphereIn3DSampler sphere =
+		    new SphereIn3DSampler(new double[] { 128d, 128d, 128d }, 96d);
+	    sphere.setSeed(SEED);
+
+	    return new ComponentAdapter(input, sphere);
+
+	} else if (input.equals("helix")) {
+	    ToroidalHelixSampler helix = new ToroidalHelixSampler(1);
+	    helix.setSeed(SEED);
+
+	    return new ComponentAdapter(input, helix);
+	}
+
+	throw new IllegalArgumentException("Unknown input: " + input);
+    }
+
+    protected static GWR algorithm(Class<? extends GWR> type, String input,
+	    File file) throws Exception {
+	GWR algorithm = type.getConstructor().newInstance();
+	algorithm.initialize(sampler(input, file));
+	algorithm.reset();
+
+	return algorithm;
+    }
+
+    protected static void run(String filter, Class<? extends GWR> type,
+	    String input, File file, long ticks, long maxTicks)
+	    throws Exception {
+	String name = type.getSimpleName() + " on " + input;
+	if (name.indexOf(filter) < 0) {
+	    return;
+	}
+
+	if (file != null && !file.canRead()) {
+	    System.out.println(name + ": cannot read " + file.getPath());
+	    return;
+	}
+
+	System.out.println(name + " (seed " + SEED + ")");
+
+	long block = Math.max(ticks / BLOCKS, 1l);
+	int blocks = (int) (ticks / block);
+
+	long[] nanos = new long[blocks];
+	long[] bytes = new long[blocks];
+	int[] vertices = new int[blocks];
+	int[] edges = new int[blocks];
+
+	long gcCount = 0;
+	long gcMillis = 0;
+
+	for (int r = 0; r < ROUNDS; r++) {
+	    GWR algorithm = algorithm(type, input, file);
+	    boolean warmup = r < WARMUP;
+
+	    // Only the last round counts
+	    long gcCountStart = gcCount();
+	    long gcMillisStart = gcMillis();
+
+	    for (int b = 0; b < blocks; b++) {
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+
+		for (long t = 0; t < block; t++) {
+		    algorithm.iteration();
+		}
+
+		long elapsed = System.nanoTime() - start;
+
+		if (warmup) {
+		    continue;
+		}
+
+		nanos[b] = r == WARMUP ? elapsed : Math.min(nanos[b], elapsed);
+		bytes[b] = allocatedBytes() - allocated;
+		vertices[b] = algorithm.mesh().vertexlist.size();
+		edges[b] = algorithm.mesh().edgelist.size();
+	    }
+
+	    gcCount = gcCount() - gcCountStart;
+	    gcMillis = gcMillis() - gcMillisStart;
+	}
+
+	System.out.println(String.format("%10s %9s %9s %10s %11s", "ticks",
+		"vertices", "edges", "ns/tick", "bytes/tick"));
+	for (int b = 0; b < blocks; b++) {
+	    System.out.println(String.format("%10d %9d %9d %10.1f %11s",
+		    (b + 1) * block, vertices[b], edges[b], nanos[b]
+			    / (double) block, allocationSupported ? String
+			    .format("%.1f", bytes[b] / (double) block) : "n/a"));
+	}
+
+	long total = 0;
+	for (int b = 0; b < blocks; b++) {
+	    total += nanos[b];
+	}
+	System.out.println(String.format("  %.0f ticks/s, gc: %d collections,"
+		+ " %d ms", blocks * block * 1e9d / total, gcCount, gcMillis));
+
+	if (SOAM.class.isAssignableFrom(type)) {
+	    converge((SOAM) algorithm(type, input, file), maxTicks);
+	}
+
+	System.out.println();
+    }
+
+    /**
+     * Trains until convergence, or up to a number of ticks
+     */
+    protected static void converge(SOAM algorithm, long maxTicks) {
+	long start = System.nanoTime();
+
+	while (!algorithm.isConvergent() && algorithm.getTick() < maxTicks) {
+	    algorithm.iteration();
+	}
+
+	if (algorithm.getTickOfFirstConvergence() > 0) {
+	    System.out.println(String.format(
+		    "  convergent at tick %d in %.2f s, %d vertices", algorithm
+			    .getTickOfFirstConvergence(), algorithm
+			    .getTimeOfFirstConvergence() * 1e-9d, algorithm
+			    .mesh().vertexlist.size()));
+	} else {
+	    System.out.println(String.format(
+		    "  not convergent within %d ticks (%.2f s),"
+			    + " %d vertices, %.3f stable", maxTicks, (System
+			    .nanoTime() - start) * 1e-9d,
+		    algorithm.mesh().vertexlist.size(), algorithm
+			    .getStableVerticesFraction()));
+	}
+    }
+
+    protected static long allocatedBytes() {
+	if (!allocationSupported) {
+	    return 0l;
+	}
+
+	return ((com.sun.management.ThreadMXBean) threads)
+		.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    protected static long gcCount() {
+	long count = 0;
+	for (GarbageCollectorMXBean gc : ManagementFactory
+		.getGarbageCollectorMXBeans()) {
+	    count += Math.max(gc.getCollectionCount(), 0l);
+	}
+
+	return count;
+    }
+
+    protected static long gcMillis() {
+	long millis = 0;
+	for (GarbageCollectorMXBean gc : ManagementFactory
+		.getGarbageCollectorMXBeans()) {
+	    millis += Math.max(gc.getCollectionTime(), 0l);
+	}
+
+	return millis;
+    }
+
+    /**
+     * Samples a single component, with no dialog
+     */
+    protected static class ComponentAdapter implements Sampler {
+	protected final String name;
+	protected final ComponentSampler component;
+
+	protected ComponentAdapter(String name, ComponentSampler component) {
+	    this.name = name;
+	    this.component = component;
+	}
+
+	public boolean initialize(Algorithm algorithm) {
+	    return true;
+	}
+
+	public void reset() {
+	    return;
+	}
+
+	public int getDimensions() {
+	    return component.getDimensions();
+	}
+
+	public BufferedImage getBufferedImage() {
+	    return null;
+	}
+
+	public PointCloud getPointCloud() {
+	    return null;
+	}
+
+	public String getDescription() {
+	    return name;
+	}
+
+	public double[] nextSample() {
+	    return component.nextSample();
+	}
+
+	// Only needed by focalized sampling, which is off by default
+	public double[] nextSample(final double[] point, double radius) {
+	    throw new RuntimeException("Method not implemented");
+	}
+    }
+}
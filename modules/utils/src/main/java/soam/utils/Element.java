@@ -0,0 +1,157 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.utils;
+
+/**
+ * The chemical elements, with their default van der Waals atomic radii.
+ * Values taken from OpenBabel.
+ * <p>
+ * Symbols are looked up through a table indexed by their letters, so that a
+ * parser can resolve them straight from the bytes of a record.
+ *
+ * @see <a
+ *      href="http://openbabel.sourceforge.net">openbabel.sourceforge.net</a>
+ * @see <a
+ *      href="http://jmol.svn.sourceforge.net/viewvc/jmol/trunk/Jmol/src/org/jmol/_documents/vdw_comparison.xls">vdw_comparison.xls</a>
+ */
+public enum Element {
+
+    H("H", 1.2d), HE("He", 1.4d), LI("Li", 1.82d), BE("Be", 1.7d),
+    B("B", 2.08d), C("C", 1.95d), N("N", 1.85d), O("O", 1.7d),
+    F("F", 1.73d), NE("Ne", 1.54d), NA("Na", 2.27d), MG("Mg", 1.73d),
+    AL("Al", 2.05d), SI("Si", 2.1d), P("P", 2.08d), S("S", 2d),
+    CL("Cl", 1.97d), AR("Ar", 1.88d), K("K", 2.75d), CA("Ca", 1.973d),
+    SC("Sc", 1.7d), TI("Ti", 1.7d), V("V", 1.7d), CR("Cr", 1.7d),
+    MN("Mn", 1.7d), FE("Fe", 1.7d), CO("Co", 1.7d), NI("Ni", 1.63d),
+    CU("Cu", 1.4d), ZN("Zn", 1.39d), GA("Ga", 1.87d), GE("Ge", 1.7d),
+    AS("As", 1.85d), SE("Se", 1.9d), BR("Br", 2.1d), KR("Kr", 2.02d),
+    RB("Rb", 1.7d), SR("Sr", 1.7d), Y("Y", 1.7d), ZR("Zr", 1.7d),
+    NB("Nb", 1.7d), MO("Mo", 1.7d), TC("Tc", 1.7d), RU("Ru", 1.7d),
+    RH("Rh", 1.7d), PD("Pd", 1.63d), AG("Ag", 1.72d), CD("Cd", 1.58d),
+    IN("In", 1.93d), SN("Sn", 2.17d), SB("Sb", 2.2d), TE("Te", 2.06d),
+    I("I", 2.15d), XE("Xe", 2.16d), CS("Cs", 1.7d), BA("Ba", 1.7d),
+    LA("La", 1.7d), CE("Ce", 1.7d), PR("Pr", 1.7d), ND("Nd", 1.7d),
+    PM("Pm", 1.7d), SM("Sm", 1.7d), EU("Eu", 1.7d), GD("Gd", 1.7d),
+    TB("Tb", 1.7d), DY("Dy", 1.7d), HO("Ho", 1.7d), ER("Er", 1.7d),
+    TM("Tm", 1.7d), YB("Yb", 1.7d), LU("Lu", 1.7d), HF("Hf", 1.7d),
+    TA("Ta", 1.7d), W("W", 1.7d), RE("Re", 1.7d), OS("Os", 1.7d),
+    IR("Ir", 1.7d), PT("Pt", 1.72d), AU("Au", 1.66d), HG("Hg", 1.55d),
+    TL("Tl", 1.96d), PB("Pb", 2.02d), BI("Bi", 1.7d), PO("Po", 1.7d),
+    AT("At", 1.7d), RN("Rn", 1.7d), FR("Fr", 1.7d), RA("Ra", 1.7d),
+    AC("Ac", 1.7d), TH("Th", 1.7d), PA("Pa", 1.7d), U("U", 1.86d),
+    NP("Np", 1.7d), PU("Pu", 1.7d), AM("Am", 1.7d), CM("Cm", 1.7d),
+    BK("Bk", 1.7d), CF("Cf", 1.7d), ES("Es", 1.7d), FM("Fm", 1.7d),
+    MD("Md", 1.7d), NO("No", 1.7d), LR("Lr", 1.7d), RF("Rf", 1.7d),
+    DB("Db", 1.7d), SG("Sg", 1.7d), BH("Bh", 1.7d), HS("Hs", 1.7d),
+    MT("Mt", 1.7d);
+
+    // values() makes a copy at each call
+    private static final Element[] VALUES = values();
+
+    // Indexed by symbolIndex()
+    private static final Element[] SYMBOLS = new Element[26 * 27];
+
+    static {
+	for (Element element : VALUES) {
+	    String symbol = element.symbol.toUpperCase();
+	    SYMBOLS[symbolIndex(symbol.charAt(0),
+		    symbol.length() > 1 ? symbol.charAt(1) : ' ')] = element;
+	}
+    }
+
+    private final String symbol;
+    private final double radius;
+
+    private Element(String symbol, double radius) {
+	this.symbol = symbol;
+	this.radius = radius;
+    }
+
+    public String getSymbol() {
+	return symbol;
+    }
+
+    /**
+     * Gets the van der Waals radius
+     *
+     * @return the radius, in Angstrom
+     */
+    public double getRadius() {
+	return radius;
+    }
+
+    /**
+     * Gets an element by its ordinal, as stored in primitive arrays
+     *
+     * @param ordinal
+     * @return the element
+     */
+    public static Element get(int ordinal) {
+	return VALUES[ordinal];
+    }
+
+    /**
+     * Finds an element by its symbol, regardless of case
+     *
+     * @param symbol
+     * @return the element, or null if the symbol is unknown
+     */
+    public static Element forSymbol(String symbol) {
+	String trimmed = symbol.trim();
+
+	if (trimmed.length() == 1) {
+	    return forSymbol((byte) trimmed.charAt(0), (byte) ' ');
+	} else if (trimmed.length() == 2) {
+	    return forSymbol((byte) trimmed.charAt(0), (byte) trimmed.charAt(1));
+	} else {
+	    return null;
+	}
+    }
+
+    /**
+     * Finds an element by the ASCII letters of its symbol, regardless of
+     * case. Does not allocate anything.
+     *
+     * @param first
+     *            the first letter
+     * @param second
+     *            the second letter, or a blank for single letter symbols
+     * @return the element, or null if the symbol is unknown
+     */
+    public static Element forSymbol(byte first, byte second) {
+	int index = symbolIndex((char) (first & 0xff), (char) (second & 0xff));
+
+	return index >= 0 ? SYMBOLS[index] : null;
+    }
+
+    /**
+     * Maps an upper or lower case symbol to a position in the lookup table
+     *
+     * @return the position, or -1 if the characters cannot make a symbol
+     */
+    private static int symbolIndex(char first, char second) {
+	int one = Character.toUpperCase(first) - 'A';
+	int two = second == ' ' ? 0 : Character.toUpperCase(second) - 'A' + 1;
+
+	if (one < 0 || one >= 26 || two < 0 || two > 26) {
+	    return -1;
+	}
+
+	return one * 27 + two;
+    }
+}
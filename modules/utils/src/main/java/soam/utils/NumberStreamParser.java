@@ -0,0 +1,217 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads all the numbers in a text stream, separated by commas, semicolons or
+ * white space, into a double array. The stream is read in blocks and the
+ * numbers are decoded straight from the bytes, so that files of any size and
+ * line length are read without a string per value.
+ * <p>
+ * Plain decimals with at most 15 significant digits and small exponents,
+ * which is what measurement files contain, are converted exactly with a
+ * single multiplication or division; any other token is passed on to
+ * Double.parseDouble().
+ */
+public class NumberStreamParser {
+
+    protected static final int BUFFER_SIZE = 1 << 16;
+
+    // Longer tokens are not numbers
+    protected static final int MAX_TOKEN = 64;
+
+    // All exactly representable as doubles
+    protected static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+	POWERS_OF_TEN[0] = 1d;
+	for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+	    POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10d;
+	}
+    }
+
+    /**
+     * Reads all the numbers in a file
+     *
+     * @param file
+     * @return the numbers, in order
+     * @throws IOException
+     */
+    public static double[] parse(File file) throws IOException {
+	InputStream in = new FileInputStream(file);
+
+	try {
+	    return parse(in);
+	} catch (IOException e) {
+	    throw new IOException("Could not read numbers from \""
+		    + file.getPath() + "\"", e);
+	} finally {
+	    in.close();
+	}
+    }
+
+    /**
+     * Reads all the numbers in a stream, which is not closed
+     *
+     * @param in
+     * @return the numbers, in order
+     * @throws IOException
+     */
+    public static double[] parse(InputStream in) throws IOException {
+	byte[] buffer = new byte[BUFFER_SIZE];
+	byte[] token = new byte[MAX_TOKEN];
+	int length = 0;
+
+	double[] values = new double[1024];
+	int count = 0;
+
+	int read;
+	while ((read = in.read(buffer)) >= 0) {
+	    for (int i = 0; i < read; i++) {
+		byte b = buffer[i];
+
+		if (isSeparator(b)) {
+		    if (length > 0) {
+			if (count == values.length) {
+			    values = Arrays.copyOf(values, 2 * values.length);
+			}
+			values[count++] = parseNumber(token, length, count);
+			length = 0;
+		    }
+		} else if (length < MAX_TOKEN) {
+		    token[length++] = b;
+		} else {
+		    throw new IOException("Token too long at value "
+			    + (count + 1));
+		}
+	    }
+	}
+
+	if (length > 0) {
+	    if (count == values.length) {
+		values = Arrays.copyOf(values, count + 1);
+	    }
+	    values[count++] = parseNumber(token, length, count);
+	}
+
+	return Arrays.copyOf(values, count);
+    }
+
+    protected static boolean isSeparator(byte b) {
+	return b == ',' || b == ';' || b == ' ' || b == '\t' || b == '\n'
+		|| b == '\r';
+    }
+
+    /**
+     * Decodes a token
+     *
+     * @param index
+     *            the position of the value, for error messages
+     */
+    protected static double parseNumber(byte[] token, int length, int index)
+	    throws IOException {
+	int i = 0;
+
+	boolean negative = false;
+	if (token[0] == '-' || token[0] == '+') {
+	    negative = token[0] == '-';
+	    i++;
+	}
+
+	long mantissa = 0;
+	boolean seen = false;
+	int digits = 0;
+	int scale = 0;
+	boolean point = false;
+	boolean fast = i < length;
+
+	for (; i < length && fast; i++) {
+	    byte b = token[i];
+
+	    if (b >= '0' && b <= '9') {
+		seen = true;
+		if (mantissa == 0 && b == '0') {
+		    // Leading zeros are not significant
+		} else {
+		    mantissa = 10 * mantissa + (b - '0');
+		    digits++;
+		}
+		if (point) {
+		    scale--;
+		}
+	    } else if (b == '.' && !point) {
+		point = true;
+	    } else if ((b == 'e' || b == 'E') && seen) {
+		break;
+	    } else {
+		fast = false;
+	    }
+
+	    if (digits > 15) {
+		fast = false;
+	    }
+	}
+
+	fast = fast && seen;
+
+	if (fast && i < length) {
+	    // Exponent
+	    i++;
+	    boolean negativeExponent = false;
+	    if (i < length && (token[i] == '-' || token[i] == '+')) {
+		negativeExponent = token[i] == '-';
+		i++;
+	    }
+
+	    int exponent = 0;
+	    fast = i < length;
+	    for (; i < length && fast; i++) {
+		byte b = token[i];
+		if (b >= '0' && b <= '9' && exponent < 1000) {
+		    exponent = 10 * exponent + (b - '0');
+		} else {
+		    fast = false;
+		}
+	    }
+
+	    scale += negativeExponent ? -exponent : exponent;
+	}
+
+	if (fast && scale > -POWERS_OF_TEN.length
+		&& scale < POWERS_OF_TEN.length) {
+	    // Both operands are exact, so the result is correctly rounded
+	    double value =
+		    scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa
+			    * POWERS_OF_TEN[scale];
+
+	    return negative ? -value : value;
+	}
+
+	try {
+	    return Double.parseDouble(new String(token, 0, length, "US-ASCII"));
+	} catch (NumberFormatException e) {
+	    throw new IOException("Unrecognizable number at value " + index, e);
+	}
+    }
+}
@@ -0,0 +1,340 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * The atoms of a PDB file, as interleaved x, y, z coordinates and element
+ * ordinals. Loading goes through the parsed input cache.
+ * <p>
+ * The parser reads the fixed columns of ATOM and HETATM records straight from
+ * a byte buffer into the arrays, without creating any string or object per
+ * line: columns 31-54 hold the coordinates and columns 77-78 the element
+ * symbol. When the latter are blank, as in older files, the element is taken
+ * from the atom name in columns 13-16.
+ *
+ * @see <a href="http://www.wwpdb.org/documentation/file-format">PDB file
+ *      format</a>
+ */
+public class PDBAtoms {
+
+    protected static final String CACHE_KIND = "PDB elements";
+
+    protected static final int BUFFER_SIZE = 1 << 16;
+
+    // Exact as doubles, for the at most 18 digits of a coordinate
+    protected static final double[] POWERS_OF_TEN = new double[19];
+
+    static {
+	POWERS_OF_TEN[0] = 1d;
+	for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+	    POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10d;
+	}
+    }
+
+    public final double[] positions;
+
+    // Element ordinals
+    public final byte[] elements;
+
+    public PDBAtoms(double[] positions, byte[] elements) {
+	this.positions = positions;
+	this.elements = elements;
+    }
+
+    /**
+     * Gets the number of atoms
+     *
+     * @return the number of atoms
+     */
+    public int size() {
+	return elements.length;
+    }
+
+    public Element getElement(int i) {
+	return Element.get(elements[i]);
+    }
+
+    /**
+     * Gets the van der Waals radius of an atom, from its element
+     *
+     * @param i
+     * @return the radius
+     */
+    public double getRadius(int i) {
+	return Element.get(elements[i]).getRadius();
+    }
+
+    /**
+     * Loads the atoms of a PDB file, parsing it only if it is not in the
+     * default cache
+     *
+     * @param file
+     * @return the atoms
+     * @throws IOException
+     */
+    public static PDBAtoms load(File file) throws IOException {
+	ParsedInputCache cache = ParsedInputCache.getDefault();
+	ParsedInputCache.Key key = cache.key(file, CACHE_KIND);
+
+	Object[] arrays = cache.get(key);
+	if (arrays != null) {
+	    return new PDBAtoms((double[]) arrays[0], (byte[]) arrays[1]);
+	}
+
+	PDBAtoms atoms = parse(file);
+
+	cache.put(key, atoms.positions, atoms.elements);
+
+	return atoms;
+    }
+
+    /**
+     * Parses the atoms of a PDB file
+     *
+     * @param file
+     * @return the atoms
+     * @throws IOException
+     */
+    public static PDBAtoms parse(File file) throws IOException {
+	InputStream in = new FileInputStream(file);
+
+	try {
+	    return parse(in);
+	} catch (IOException e) {
+	    throw new IOException("Could not load PDB file \"" + file.getPath()
+		    + "\"", e);
+	} finally {
+	    in.close();
+	}
+    }
+
+    /**
+     * Parses the atoms of a PDB stream, which is not closed
+     *
+     * @param in
+     * @return the atoms
+     * @throws IOException
+     */
+    public static PDBAtoms parse(InputStream in) throws IOException {
+	byte[] buffer = new byte[BUFFER_SIZE];
+
+	double[] positions = new double[3 * 1024];
+	byte[] elements = new byte[1024];
+	int count = 0;
+
+	int length = 0;
+	int start = 0;
+	int scan = 0;
+	int line = 0;
+	boolean eof = false;
+
+	while (start < length || !eof) {
+	    while (scan < length && buffer[scan] != '\n') {
+		scan++;
+	    }
+
+	    if (scan == length && !eof) {
+		// The line is incomplete, move it to the front and read more
+		length -= start;
+		System.arraycopy(buffer, start, buffer, 0, length);
+		scan -= start;
+		start = 0;
+
+		if (length == buffer.length) {
+		    buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+		}
+
+		int read = in.read(buffer, length, buffer.length - length);
+		if (read < 0) {
+		    eof = true;
+		} else {
+		    length += read;
+		}
+		continue;
+	    }
+
+	    line++;
+
+	    int end = scan;
+	    if (end > start && buffer[end - 1] == '\r') {
+		end--;
+	    }
+
+	    if (isAtomRecord(buffer, start, end)) {
+		if (end - start < 54) {
+		    throw new IOException("Truncated atom record at line "
+			    + line);
+		}
+
+		if (count == elements.length) {
+		    positions = Arrays.copyOf(positions, 2 * positions.length);
+		    elements = Arrays.copyOf(elements, 2 * elements.length);
+		}
+
+		positions[3 * count] =
+			parseCoordinate(buffer, start + 30, start + 38, line);
+		positions[3 * count + 1] =
+			parseCoordinate(buffer, start + 38, start + 46, line);
+		positions[3 * count + 2] =
+			parseCoordinate(buffer, start + 46, start + 54, line);
+
+		elements[count] =
+			(byte) parseElement(buffer, start, end, line).ordinal();
+
+		count++;
+	    }
+
+	    start = scan = Math.min(scan + 1, length);
+	}
+
+	return new PDBAtoms(Arrays.copyOf(positions, 3 * count), Arrays
+		.copyOf(elements, count));
+    }
+
+    /**
+     * Tells if a line starts with ATOM or HETATM
+     */
+    protected static boolean isAtomRecord(byte[] buffer, int start, int end) {
+	if (end - start >= 4 && buffer[start] == 'A'
+		&& buffer[start + 1] == 'T' && buffer[start + 2] == 'O'
+		&& buffer[start + 3] == 'M') {
+	    return true;
+	}
+
+	return end - start >= 6 && buffer[start] == 'H'
+		&& buffer[start + 1] == 'E' && buffer[start + 2] == 'T'
+		&& buffer[start + 3] == 'A' && buffer[start + 4] == 'T'
+		&& buffer[start + 5] == 'M';
+    }
+
+    /**
+     * Parses a real number in a fixed column field. As in a Fortran F8.3
+     * edit descriptor, three decimals are implied if there is no point.
+     */
+    protected static double parseCoordinate(byte[] buffer, int from, int to,
+	    int line) throws IOException {
+	int i = from;
+	while (i < to && buffer[i] == ' ') {
+	    i++;
+	}
+
+	boolean negative = false;
+	if (i < to && (buffer[i] == '-' || buffer[i] == '+')) {
+	    negative = buffer[i] == '-';
+	    i++;
+	}
+
+	long mantissa = 0;
+	int digits = 0;
+	int decimals = -1;
+	for (; i < to && buffer[i] != ' '; i++) {
+	    byte b = buffer[i];
+
+	    if (b >= '0' && b <= '9') {
+		mantissa = 10 * mantissa + (b - '0');
+		digits++;
+		if (decimals >= 0) {
+		    decimals++;
+		}
+	    } else if (b == '.' && decimals < 0) {
+		decimals = 0;
+	    } else {
+		throw new IOException("Invalid coordinate at line " + line);
+	    }
+	}
+
+	for (; i < to; i++) {
+	    if (buffer[i] != ' ') {
+		throw new IOException("Invalid coordinate at line " + line);
+	    }
+	}
+
+	if (digits == 0 || digits >= POWERS_OF_TEN.length) {
+	    throw new IOException("Invalid coordinate at line " + line);
+	}
+
+	if (decimals < 0) {
+	    decimals = 3;
+	}
+
+	// Both operands are exact, so the quotient is correctly rounded
+	double value = mantissa / POWERS_OF_TEN[decimals];
+
+	return negative ? -value : value;
+    }
+
+    /**
+     * Finds the element of an atom record, from columns 77-78 or else from
+     * the atom name
+     */
+    protected static Element parseElement(byte[] buffer, int start, int end,
+	    int line) throws IOException {
+	Element element = null;
+
+	if (end - start >= 77) {
+	    byte first = buffer[start + 76];
+	    byte second = end - start >= 78 ? buffer[start + 77] : (byte) ' ';
+
+	    if (first == ' ') {
+		first = second;
+		second = ' ';
+	    }
+
+	    if (first != ' ') {
+		element = Element.forSymbol(first, second);
+		if (element == null) {
+		    throw new IOException("Unknown element at line " + line);
+		}
+	    }
+	}
+
+	if (element == null) {
+	    // The element is right justified in the first two columns of the
+	    // atom name, unless the name is four characters long: then it is a
+	    // single letter in column 13, as in the hydrogens HG21 or HE21
+	    byte first = buffer[start + 12];
+	    byte second = buffer[start + 13];
+	    boolean fourCharacters =
+		    first != ' ' && second != ' ' && buffer[start + 14] != ' '
+			    && buffer[start + 15] != ' ';
+
+	    if (first == ' ' || (first >= '0' && first <= '9')) {
+		element = Element.forSymbol(second, (byte) ' ');
+	    } else if (fourCharacters) {
+		element = Element.forSymbol(first, (byte) ' ');
+	    } else {
+		element = Element.forSymbol(first, second);
+		if (element == null) {
+		    element = Element.forSymbol(first, (byte) ' ');
+		}
+	    }
+
+	    if (element == null) {
+		throw new IOException("Unknown element at line " + line);
+	    }
+	}
+
+	return element;
+    }
+}
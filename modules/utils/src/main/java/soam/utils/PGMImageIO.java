@@ -17,34 +17,82 @@
 package soam.utils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.awt.image.*;
 
+/**
+ * Reads and writes 16-bit grayscale images in the PGM format, either plain
+ * (P2) or binary (P5). Both formats are decoded directly into the
+ * DataBufferUShort of a TYPE_USHORT_GRAY image.
+ */
 public class PGMImageIO {
 
-    public static BufferedImage read(File file) throws IOException {
-	InputStream in = new BufferedInputStream(new FileInputStream(file));
-	BufferedImage image = read(in);
-	in.close();
+    /**
+     * Files larger than this are memory-mapped instead of being read
+     */
+    public static final long MAPPING_THRESHOLD = 4l << 20;
 
-	return image;
+    /**
+     * Size of the chunks used when writing plain images
+     */
+    protected static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    public static BufferedImage read(File file) throws IOException {
+	FileInputStream in = new FileInputStream(file);
+	try {
+	    FileChannel channel = in.getChannel();
+	    long size = channel.size();
+
+	    ByteBuffer buffer;
+	    if (size >= MAPPING_THRESHOLD) {
+		// The mapping remains valid after the channel is closed
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+	    } else {
+		buffer = ByteBuffer.allocate((int) size);
+		while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+		    ;
+		buffer.flip();
+	    }
+
+	    return read(buffer);
+
+	} finally {
+	    in.close();
+	}
     }
 
     public static BufferedImage read(InputStream in) throws IOException {
-	if (in.read() != 'P' || in.read() != '2')
-	    throw new IOException("Magic P2 is missing");
-	if (!isWhiteSpace(in.read()))
-	    throw new IOException("White-space missing");
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	byte[] chunk = new byte[WRITE_BUFFER_SIZE];
+	int read;
+	while ((read = in.read(chunk)) >= 0) {
+	    bytes.write(chunk, 0, read);
+	}
 
-	int width = readDecimal(in);
-	int height = readDecimal(in);
+	return read(ByteBuffer.wrap(bytes.toByteArray()));
+    }
 
-	// Skip depth
-	readDecimal(in);
+    public static BufferedImage read(ByteBuffer buffer) throws IOException {
+	if (next(buffer) != 'P')
+	    throw new IOException("Magic P2 or P5 is missing");
 
-	short[] pixels = new short[width * height];
-	for (int i = 0; i < pixels.length; i++) {
-	    pixels[i] = (short) readDecimal(in);
-	}
+	int magic = next(buffer);
+	if (magic != '2' && magic != '5')
+	    throw new IOException("Magic P2 or P5 is missing");
+	if (!isWhiteSpace(next(buffer)))
+	    throw new IOException("White-space missing");
+
+	int width = readDecimal(buffer);
+	int height = readDecimal(buffer);
+	int maxval = readDecimal(buffer);
+
+	// Plain images written before declare 65536 for 16-bit samples
+	if (magic == '2' && maxval == 65536)
+	    maxval = 65535;
+	if (maxval < 1 || maxval > 65535)
+	    throw new IOException("Maxval out of range: " + maxval);
 
 	BufferedImage image =
 		new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
@@ -52,39 +100,222 @@ public class PGMImageIO {
 		((DataBufferUShort) image.getRaster().getDataBuffer())
 			.getData();
 
-	System.arraycopy(pixels, 0, imagePixels, 0, width * height);
+	if (magic == '5') {
+	    readBinaryPixels(buffer, imagePixels, maxval);
+	} else {
+	    readPlainPixels(buffer, imagePixels);
+	}
+
 	return image;
     }
 
+    /**
+     * Checks whether a file holds a binary (P5) image
+     *
+     * @param file
+     * @return true if the file starts with the P5 magic
+     * @throws IOException
+     */
+    public static boolean isBinary(File file) throws IOException {
+	InputStream in = new FileInputStream(file);
+	try {
+	    return in.read() == 'P' && in.read() == '5';
+	} finally {
+	    in.close();
+	}
+    }
+
     public static void write(BufferedImage image, File file) throws IOException {
+	write(image, file, false);
+    }
+
+    public static void write(BufferedImage image, File file, boolean binary)
+	    throws IOException {
 	OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
-	write(image, out);
-	out.close();
+	try {
+	    write(image, out, binary);
+	} finally {
+	    out.close();
+	}
     }
 
     public static void write(BufferedImage image, OutputStream out)
 	    throws IOException {
+	write(image, out, false);
+    }
+
+    /**
+     * Writes the image as either a plain (P2) or a binary (P5) PGM. Binary
+     * images use one byte per pixel if all values fit, two bytes otherwise.
+     */
+    public static void write(BufferedImage image, OutputStream out,
+	    boolean binary) throws IOException {
 
 	if (image.getType() != BufferedImage.TYPE_USHORT_GRAY) {
 	    throw new IOException(
 		    "BufferedImage is not of type TYPE_USHORT_GRAY");
 	}
 
-	PrintStream ps = new PrintStream(out, true);
-
-	ps.println("P2");
-	ps.println(image.getWidth() + " " + image.getHeight());
-	ps.println("65536");
-
 	short[] imagePixels =
 		((DataBufferUShort) image.getRaster().getDataBuffer())
 			.getData();
 
-	for (int i = 0; i < imagePixels.length; i++) {
-	    ps.println(uShortToInt(imagePixels[i]));
+	if (binary) {
+	    int maxval = 0;
+	    for (int i = 0; i < imagePixels.length; i++) {
+		maxval = Math.max(maxval, uShortToInt(imagePixels[i]));
+	    }
+	    maxval = maxval < 256 ? 255 : 65535;
+
+	    out.write(("P5\n" + image.getWidth() + " " + image.getHeight()
+		    + "\n" + maxval + "\n").getBytes("US-ASCII"));
+
+	    writeBinaryPixels(out, imagePixels, maxval);
+	} else {
+	    out.write(("P2\n" + image.getWidth() + " " + image.getHeight()
+		    + "\n65535\n").getBytes("US-ASCII"));
+
+	    writePlainPixels(out, imagePixels);
+	}
+
+	out.flush();
+    }
+
+    protected static void readBinaryPixels(ByteBuffer buffer, short[] pixels,
+	    int maxval) throws IOException {
+
+	if (maxval < 256) {
+	    if (buffer.remaining() < pixels.length) {
+		throw new IOException("Unexpected end of file");
+	    }
+
+	    byte[] bytes = new byte[pixels.length];
+	    buffer.get(bytes);
+
+	    for (int i = 0; i < pixels.length; i++) {
+		pixels[i] = (short) (bytes[i] & 0xff);
+	    }
+	} else {
+	    if (buffer.remaining() < 2 * pixels.length) {
+		throw new IOException("Unexpected end of file");
+	    }
+
+	    // Samples are most significant byte first
+	    buffer.order(ByteOrder.BIG_ENDIAN).asShortBuffer().get(pixels);
 	}
     }
 
+    /**
+     * Parses the decimals of a plain image straight from the underlying bytes,
+     * skipping comments between them as readDecimal does
+     */
+    protected static void readPlainPixels(ByteBuffer buffer, short[] pixels)
+	    throws IOException {
+
+	byte[] bytes;
+	int position;
+	int limit;
+	if (buffer.hasArray()) {
+	    bytes = buffer.array();
+	    position = buffer.arrayOffset() + buffer.position();
+	    limit = buffer.arrayOffset() + buffer.limit();
+	} else {
+	    bytes = new byte[buffer.remaining()];
+	    buffer.get(bytes);
+	    position = 0;
+	    limit = bytes.length;
+	}
+
+	for (int i = 0; i < pixels.length; i++) {
+	    while (position < limit && isWhiteSpace(bytes[position])) {
+		position++;
+	    }
+
+	    while (position < limit && bytes[position] == '#') {
+		while (position < limit && bytes[position] != '\n') {
+		    position++;
+		}
+		while (position < limit && isWhiteSpace(bytes[position])) {
+		    position++;
+		}
+	    }
+
+	    if (position == limit || bytes[position] < '0'
+		    || bytes[position] > '9') {
+		throw new IOException("Number missing");
+	    }
+
+	    int decimal = 0;
+	    while (position < limit && bytes[position] >= '0'
+		    && bytes[position] <= '9') {
+		decimal = 10 * decimal + (bytes[position++] - '0');
+	    }
+
+	    if (position < limit && !isWhiteSpace(bytes[position])) {
+		throw new IOException("White-space missing");
+	    }
+
+	    pixels[i] = (short) decimal;
+	}
+    }
+
+    protected static void writeBinaryPixels(OutputStream out, short[] pixels,
+	    int maxval) throws IOException {
+
+	if (maxval < 256) {
+	    byte[] bytes = new byte[pixels.length];
+	    for (int i = 0; i < pixels.length; i++) {
+		bytes[i] = (byte) pixels[i];
+	    }
+	    out.write(bytes);
+	} else {
+	    ByteBuffer buffer = ByteBuffer.allocate(2 * pixels.length);
+	    buffer.order(ByteOrder.BIG_ENDIAN).asShortBuffer().put(pixels);
+	    out.write(buffer.array());
+	}
+    }
+
+    /**
+     * Formats the decimals of a plain image, one per line, in large chunks
+     */
+    protected static void writePlainPixels(OutputStream out, short[] pixels)
+	    throws IOException {
+
+	byte[] chunk = new byte[WRITE_BUFFER_SIZE];
+	int length = 0;
+
+	for (int i = 0; i < pixels.length; i++) {
+	    // At most five digits and a new-line
+	    if (length > chunk.length - 6) {
+		out.write(chunk, 0, length);
+		length = 0;
+	    }
+
+	    int value = uShortToInt(pixels[i]);
+
+	    int digits = 1;
+	    for (int tmp = value; tmp >= 10; tmp /= 10) {
+		digits++;
+	    }
+	    for (int d = digits - 1; d >= 0; d--) {
+		chunk[length + d] = (byte) ('0' + value % 10);
+		value /= 10;
+	    }
+	    length += digits;
+
+	    chunk[length++] = '\n';
+	}
+
+	out.write(chunk, 0, length);
+    }
+
+    /**
+     * Returns the next unsigned byte, or -1 if the buffer is exhausted
+     */
+    private static int next(ByteBuffer buffer) {
+	return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
     /**
      * Returns 'true' if 'c' is a space, tab, new-line or carriage-return.
      */
@@ -96,17 +327,17 @@ public class PGMImageIO {
      * Skips zero or more white-space characters, and comments, then reads one
      * or more digits, then one white-space character.
      */
-    private static int readDecimal(InputStream in) throws IOException {
-	int c = in.read();
+    private static int readDecimal(ByteBuffer buffer) throws IOException {
+	int c = next(buffer);
 
 	while (isWhiteSpace(c))
-	    c = in.read();
+	    c = next(buffer);
 
 	while (c == '#') {
-	    while (c != '\n')
-		c = in.read();
+	    while (c != '\n' && c != -1)
+		c = next(buffer);
 	    while (isWhiteSpace(c))
-		c = in.read();
+		c = next(buffer);
 	}
 
 	if (c < '0' || c > '9') {
@@ -117,7 +348,7 @@ public class PGMImageIO {
 
 	while (c >= '0' && c <= '9') {
 	    decimal = 10 * decimal + (c - '0');
-	    c = in.read();
+	    c = next(buffer);
 	}
 
 	if (!isWhiteSpace(c)) {
@@ -136,7 +367,8 @@ public class PGMImageIO {
 
 	System.out.println("Image " + image + " successfully read.");
 
-	write(image, new File(args[1]));
+	boolean binary = args.length > 2 && args[2].equals("-binary");
+	write(image, new File(args[1]), binary);
 
 	System.out.println("Image " + args[1] + " successfully written.");
     }
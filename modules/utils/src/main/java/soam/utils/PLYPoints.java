@@ -0,0 +1,135 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * The vertices of a PLY file, and their normals if any, as interleaved x, y, z
+ * float arrays. Loading goes through the parsed input cache.
+ */
+public class PLYPoints {
+
+    protected static final String CACHE_KIND = "PLY points";
+
+    public final float[] vertices;
+
+    // Null if the file has no normals
+    public final float[] normals;
+
+    public PLYPoints(float[] vertices, float[] normals) {
+	this.vertices = vertices;
+	this.normals = normals;
+    }
+
+    /**
+     * Gets the number of vertices
+     *
+     * @return the number of vertices
+     */
+    public int size() {
+	return vertices.length / 3;
+    }
+
+    /**
+     * Loads the vertices of a PLY file, parsing it only if it is not in the
+     * default cache
+     *
+     * @param file
+     * @return the points
+     * @throws IOException
+     */
+    public static PLYPoints load(File file) throws IOException {
+	ParsedInputCache cache = ParsedInputCache.getDefault();
+	ParsedInputCache.Key key = cache.key(file, CACHE_KIND);
+
+	Object[] arrays = cache.get(key);
+	if (arrays != null) {
+	    return new PLYPoints((float[]) arrays[0],
+		    arrays.length > 1 ? (float[]) arrays[1] : null);
+	}
+
+	PLYPoints points = parse(file);
+
+	if (points.normals != null) {
+	    cache.put(key, points.vertices, points.normals);
+	} else {
+	    cache.put(key, points.vertices);
+	}
+
+	return points;
+    }
+
+    /**
+     * Parses the vertices of a PLY file
+     *
+     * @param file
+     * @return the points
+     * @throws IOException
+     */
+    public static PLYPoints parse(File file) throws IOException {
+	float[] vertices;
+	float[] normals;
+
+	try {
+	    PLY plyObj = new PLY();
+	    plyObj.loadfile(file.getAbsolutePath());
+
+	    vertices =
+		    interleave((Vector<?>) plyObj.getProperty("x", "vertex"),
+			    (Vector<?>) plyObj.getProperty("y", "vertex"),
+			    (Vector<?>) plyObj.getProperty("z", "vertex"));
+
+	    try {
+		normals =
+			interleave((Vector<?>) plyObj.getProperty("nx",
+				"vertex"), (Vector<?>) plyObj.getProperty("ny",
+				"vertex"), (Vector<?>) plyObj.getProperty("nz",
+				"vertex"));
+	    } catch (Exception e) {
+		// Oh well, no normals
+		normals = null;
+	    }
+
+	} catch (Exception e) {
+	    throw new IOException("Could not load PLY file \"" + file.getPath()
+		    + "\"", e);
+	}
+
+	return new PLYPoints(vertices, normals);
+    }
+
+    /**
+     * Converts the values of three vertex properties into a single
+     * interleaved array
+     */
+    protected static float[] interleave(Vector<?> x, Vector<?> y,
+	    Vector<?> z) {
+	float[] values = new float[3 * x.size()];
+
+	for (int i = 0; i < x.size(); i++) {
+	    values[3 * i] = ((Number) x.elementAt(i)).floatValue();
+	    values[3 * i + 1] = ((Number) y.elementAt(i)).floatValue();
+	    values[3 * i + 2] = ((Number) z.elementAt(i)).floatValue();
+	}
+
+	return values;
+    }
+}
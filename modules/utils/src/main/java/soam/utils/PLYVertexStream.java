@@ -0,0 +1,419 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.utils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the vertices of a PLY file one at a time, in ascii or binary format,
+ * without holding the file in memory. Unlike PLY and PLYPoints, its memory
+ * use does not depend on the size of the file, so it can convert scans of
+ * any number of points.
+ * <p>
+ * Only the x, y, z and nx, ny, nz properties of the vertex element are read;
+ * elements that come before it are skipped, those after it are ignored.
+ */
+public class PLYVertexStream {
+
+    protected static final int BUFFER_SIZE = 1 << 16;
+
+    // Property types
+    protected static final int INT8 = 0;
+    protected static final int UINT8 = 1;
+    protected static final int INT16 = 2;
+    protected static final int UINT16 = 3;
+    protected static final int INT32 = 4;
+    protected static final int UINT32 = 5;
+    protected static final int FLOAT32 = 6;
+    protected static final int FLOAT64 = 7;
+
+    protected static final int[] SIZES = { 1, 1, 2, 2, 4, 4, 4, 8 };
+
+    protected static final String[][] TYPE_NAMES = { { "char", "int8" },
+	    { "uchar", "uint8" }, { "short", "int16" }, { "ushort", "uint16" },
+	    { "int", "int32" }, { "uint", "uint32" }, { "float", "float32" },
+	    { "double", "float64" } };
+
+    protected static final String[] COORDINATES =
+	    { "x", "y", "z", "nx", "ny", "nz" };
+
+    protected final File file;
+    protected final InputStream in;
+
+    protected final byte[] buffer = new byte[BUFFER_SIZE];
+    protected int position = 0;
+    protected int limit = 0;
+
+    protected boolean ascii;
+    protected boolean bigEndian;
+
+    protected long size;
+    protected long read = 0;
+
+    // Of the vertex element
+    protected Property[] properties;
+
+    // Index in COORDINATES of each property, or -1
+    protected int[] targets;
+
+    protected boolean normals;
+
+    protected final StringBuilder token = new StringBuilder();
+
+    /**
+     * A property of an element
+     */
+    protected static class Property {
+	protected final String name;
+	protected final int type;
+
+	// The type of the count, or -1 if not a list
+	protected final int countType;
+
+	protected Property(String name, int type, int countType) {
+	    this.name = name;
+	    this.type = type;
+	    this.countType = countType;
+	}
+    }
+
+    /**
+     * An element, as declared in the header
+     */
+    protected static class Element {
+	protected final String name;
+	protected final long count;
+	protected final List<Property> properties = new ArrayList<Property>();
+
+	protected Element(String name, long count) {
+	    this.name = name;
+	    this.count = count;
+	}
+    }
+
+    /**
+     * Opens a PLY file, reads its header and skips to the first vertex
+     *
+     * @param file
+     * @throws IOException
+     *             if the file cannot be read, or has no x, y, z vertices
+     */
+    public PLYVertexStream(File file) throws IOException {
+	this.file = file;
+	this.in = new FileInputStream(file);
+
+	try {
+	    List<Element> elements = readHeader();
+
+	    Element vertex = null;
+	    for (Element element : elements) {
+		if (element.name.equals("vertex")) {
+		    vertex = element;
+		    break;
+		}
+
+		for (long i = 0; i < element.count; i++) {
+		    skip(element.properties);
+		}
+	    }
+
+	    if (vertex == null) {
+		throw new IOException("No vertex element in " + file);
+	    }
+
+	    size = vertex.count;
+	    properties =
+		    vertex.properties.toArray(new Property[vertex.properties
+			    .size()]);
+
+	    boolean[] found = new boolean[COORDINATES.length];
+	    targets = new int[properties.length];
+	    for (int p = 0; p < properties.length; p++) {
+		targets[p] = -1;
+		for (int c = 0; c < COORDINATES.length; c++) {
+		    if (properties[p].countType < 0
+			    && properties[p].name.equals(COORDINATES[c])) {
+			targets[p] = c;
+			found[c] = true;
+		    }
+		}
+	    }
+
+	    if (!found[0] || !found[1] || !found[2]) {
+		throw new IOException("No x, y, z vertex properties in " + file);
+	    }
+	    normals = found[3] && found[4] && found[5];
+
+	} catch (IOException e) {
+	    in.close();
+	    throw e;
+	} catch (RuntimeException e) {
+	    in.close();
+	    throw new IOException("Malformed PLY header in " + file, e);
+	}
+    }
+
+    /**
+     * Gets the number of vertices, as declared in the header
+     */
+    public long size() {
+	return size;
+    }
+
+    public boolean hasNormals() {
+	return normals;
+    }
+
+    /**
+     * Reads the next vertex
+     *
+     * @param vertex
+     *            x, y, z, overwritten
+     * @param normal
+     *            nx, ny, nz, overwritten if the file has normals; may be
+     *            null
+     * @throws IOException
+     *             if there are no more vertices, or the file is truncated
+     */
+    public void next(float[] vertex, float[] normal) throws IOException {
+	if (read >= size) {
+	    throw new EOFException("All " + size + " vertices have been read");
+	}
+
+	for (int p = 0; p < properties.length; p++) {
+	    Property property = properties[p];
+
+	    if (property.countType >= 0) {
+		long count = (long) readValue(property.countType);
+		for (long i = 0; i < count; i++) {
+		    readValue(property.type);
+		}
+		continue;
+	    }
+
+	    double value = readValue(property.type);
+
+	    int target = targets[p];
+	    if (target >= 0 && target < 3) {
+		vertex[target] = (float) value;
+	    } else if (target >= 3 && normal != null) {
+		normal[target - 3] = (float) value;
+	    }
+	}
+
+	read++;
+    }
+
+    public void close() throws IOException {
+	in.close();
+    }
+
+    /**
+     * Reads the header, up to end_header
+     *
+     * @return the elements, in order
+     */
+    protected List<Element> readHeader() throws IOException {
+	if (!"ply".equals(readLine())) {
+	    throw new IOException("Not a PLY file: " + file);
+	}
+
+	List<Element> elements = new ArrayList<Element>();
+	boolean formatFound = false;
+
+	while (true) {
+	    String line = readLine();
+	    if (line == null) {
+		throw new IOException("Header is truncated in " + file);
+	    }
+
+	    String[] words = line.trim().split("\\s+");
+	    if (words[0].equals("end_header")) {
+		break;
+
+	    } else if (words[0].equals("format")) {
+		if (words[1].equals("ascii")) {
+		    ascii = true;
+		} else if (words[1].equals("binary_big_endian")) {
+		    bigEndian = true;
+		} else if (!words[1].equals("binary_little_endian")) {
+		    throw new IOException("Unsupported format " + words[1]
+			    + " in " + file);
+		}
+		formatFound = true;
+
+	    } else if (words[0].equals("element")) {
+		elements.add(new Element(words[1], Long.parseLong(words[2])));
+
+	    } else if (words[0].equals("property")) {
+		if (elements.isEmpty()) {
+		    throw new IOException("Property before any element in "
+			    + file);
+		}
+
+		Property property;
+		if (words[1].equals("list")) {
+		    property =
+			    new Property(words[4], type(words[3]),
+				    type(words[2]));
+		} else {
+		    property = new Property(words[2], type(words[1]), -1);
+		}
+
+		elements.get(elements.size() - 1).properties.add(property);
+	    }
+
+	    // Comments and obj_info are ignored
+	}
+
+	if (!formatFound) {
+	    throw new IOException("No format in " + file);
+	}
+
+	return elements;
+    }
+
+    protected int type(String name) throws IOException {
+	for (int t = 0; t < TYPE_NAMES.length; t++) {
+	    if (TYPE_NAMES[t][0].equals(name) || TYPE_NAMES[t][1].equals(name)) {
+		return t;
+	    }
+	}
+
+	throw new IOException("Unknown property type " + name + " in " + file);
+    }
+
+    /**
+     * Reads a header line
+     *
+     * @return the line, without terminators, or null at the end of the file
+     */
+    protected String readLine() throws IOException {
+	StringBuilder line = new StringBuilder();
+
+	int b;
+	while ((b = read()) >= 0 && b != '\n') {
+	    if (b != '\r') {
+		line.append((char) b);
+	    }
+	}
+
+	return b < 0 && line.length() == 0 ? null : line.toString();
+    }
+
+    /**
+     * Skips a record of an element
+     */
+    protected void skip(List<Property> elementProperties) throws IOException {
+	for (Property property : elementProperties) {
+	    if (property.countType >= 0) {
+		long count = (long) readValue(property.countType);
+		for (long i = 0; i < count; i++) {
+		    readValue(property.type);
+		}
+	    } else {
+		readValue(property.type);
+	    }
+	}
+    }
+
+    /**
+     * Reads a value, in the format of the file
+     */
+    protected double readValue(int type) throws IOException {
+	if (ascii) {
+	    return Double.parseDouble(readToken());
+	}
+
+	int bytes = SIZES[type];
+	long bits = 0;
+	for (int i = 0; i < bytes; i++) {
+	    int b = read();
+	    if (b < 0) {
+		throw new EOFException("File is truncated: " + file);
+	    }
+
+	    if (bigEndian) {
+		bits = (bits << 8) | b;
+	    } else {
+		bits |= (long) b << (8 * i);
+	    }
+	}
+
+	switch (type) {
+	case INT8:
+	    return (byte) bits;
+	case UINT8:
+	    return bits;
+	case INT16:
+	    return (short) bits;
+	case UINT16:
+	    return bits;
+	case INT32:
+	    return (int) bits;
+	case UINT32:
+	    return bits;
+	case FLOAT32:
+	    return Float.intBitsToFloat((int) bits);
+	default:
+	    return Double.longBitsToDouble(bits);
+	}
+    }
+
+    /**
+     * Reads an ascii value, up to the next white space
+     */
+    protected String readToken() throws IOException {
+	int b;
+	do {
+	    b = read();
+	} while (b == ' ' || b == '\t' || b == '\r' || b == '\n');
+
+	if (b < 0) {
+	    throw new EOFException("File is truncated: " + file);
+	}
+
+	token.setLength(0);
+	while (b >= 0 && b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+	    token.append((char) b);
+	    b = read();
+	}
+
+	return token.toString();
+    }
+
+    protected int read() throws IOException {
+	if (position == limit) {
+	    limit = in.read(buffer, 0, buffer.length);
+	    position = 0;
+
+	    if (limit <= 0) {
+		limit = 0;
+		return -1;
+	    }
+	}
+
+	return buffer[position++] & 0xff;
+    }
+}
@@ -0,0 +1,592 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * An on-disk cache of parsed input files, so that PLY, PGM and PDB sources
+ * are parsed only once. Each entry holds the primitive arrays decoded from a
+ * source file, in a compact binary layout which is memory-mapped back.
+ * <p>
+ * Entries are keyed by the kind of parsing, the path, the size, the
+ * modification time and a CRC-32 of the contents of the source. There is at
+ * most one entry per kind and path: a stale entry is replaced by the next put.
+ * When the cache grows past its maximum size, the least recently used entries
+ * are evicted.
+ * <p>
+ * Errors are never fatal: an unreadable entry is just a miss.
+ * <p>
+ * The default cache is in ~/.soam/cache and can be configured through the
+ * system properties soam.cache.dir, soam.cache.maxSize (in bytes) and
+ * soam.cache.disabled.
+ */
+public class ParsedInputCache {
+
+    public static final String DIRECTORY_PROPERTY = "soam.cache.dir";
+    public static final String MAX_SIZE_PROPERTY = "soam.cache.maxSize";
+    public static final String DISABLED_PROPERTY = "soam.cache.disabled";
+
+    public static final long DEFAULT_MAX_SIZE = 1l << 30;
+
+    public static final String EXTENSION = ".cache";
+
+    protected static final byte[] MAGIC = { 'S', 'O', 'A', 'M', 'P', 'I', 'C',
+	    '1' };
+
+    protected static final int BUFFER_SIZE = 1 << 16;
+
+    protected static ParsedInputCache defaultCache;
+
+    /**
+     * Identifies a version of a source file
+     */
+    public static class Key {
+	public final String kind;
+	public final String path;
+	public final long size;
+	public final long lastModified;
+	public final long hash;
+
+	public Key(String kind, String path, long size, long lastModified,
+		long hash) {
+	    this.kind = kind;
+	    this.path = path;
+	    this.size = size;
+	    this.lastModified = lastModified;
+	    this.hash = hash;
+	}
+
+	public boolean equals(Object object) {
+	    if (!(object instanceof Key)) {
+		return false;
+	    }
+
+	    Key other = (Key) object;
+	    return kind.equals(other.kind) && path.equals(other.path)
+		    && size == other.size
+		    && lastModified == other.lastModified
+		    && hash == other.hash;
+	}
+
+	public int hashCode() {
+	    return (kind + path).hashCode() ^ (int) hash;
+	}
+
+	public String toString() {
+	    return kind + "(\"" + path + "\")";
+	}
+    }
+
+    protected File directory;
+    protected long maxSize;
+    protected boolean enabled;
+
+    // Just statistics
+    protected AtomicLong hits = new AtomicLong();
+    protected AtomicLong misses = new AtomicLong();
+    protected AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Gets the cache configured through system properties
+     *
+     * @return the shared cache
+     */
+    public static synchronized ParsedInputCache getDefault() {
+	if (defaultCache == null) {
+	    File directory =
+		    new File(System.getProperty(DIRECTORY_PROPERTY, new File(
+			    System.getProperty("user.home"), ".soam"
+				    + File.separator + "cache").getPath()));
+
+	    long maxSize = DEFAULT_MAX_SIZE;
+	    try {
+		maxSize =
+			Long.parseLong(System.getProperty(MAX_SIZE_PROPERTY,
+				Long.toString(DEFAULT_MAX_SIZE)));
+	    } catch (NumberFormatException e) {
+		System.err.println("Invalid " + MAX_SIZE_PROPERTY
+			+ ", using default");
+	    }
+
+	    defaultCache = new ParsedInputCache(directory, maxSize);
+	    defaultCache.enabled =
+		    !Boolean.parseBoolean(System.getProperty(DISABLED_PROPERTY));
+	}
+
+	return defaultCache;
+    }
+
+    public ParsedInputCache(File directory, long maxSize) {
+	this.directory = directory;
+	this.maxSize = maxSize;
+	this.enabled = true;
+    }
+
+    /**
+     * Computes the key of a source file, reading its contents
+     *
+     * @param source
+     * @param kind
+     *            the kind of parsing, which distinguishes the entries of the
+     *            same source
+     * @return the key
+     * @throws IOException
+     */
+    public Key key(File source, String kind) throws IOException {
+	CRC32 crc = new CRC32();
+	byte[] chunk = new byte[BUFFER_SIZE];
+
+	FileInputStream in = new FileInputStream(source);
+	try {
+	    int read;
+	    while ((read = in.read(chunk)) >= 0) {
+		crc.update(chunk, 0, read);
+	    }
+	} finally {
+	    in.close();
+	}
+
+	return new Key(kind, source.getCanonicalPath(), source.length(), source
+		.lastModified(), crc.getValue());
+    }
+
+    /**
+     * Computes the key of a source file whose contents have been read already
+     *
+     * @param source
+     * @param kind
+     * @param contents
+     * @return the key
+     * @throws IOException
+     */
+    public Key key(File source, String kind, byte[] contents)
+	    throws IOException {
+	CRC32 crc = new CRC32();
+	crc.update(contents);
+
+	return new Key(kind, source.getCanonicalPath(), contents.length, source
+		.lastModified(), crc.getValue());
+    }
+
+    /**
+     * Gets the arrays stored for a key
+     *
+     * @param key
+     * @return the arrays, in the order they were put, or null on a miss
+     */
+    public Object[] get(Key key) {
+	if (!enabled) {
+	    return null;
+	}
+
+	File file = entryFile(key);
+	if (!file.exists()) {
+	    misses.incrementAndGet();
+	    return null;
+	}
+
+	try {
+	    Object[] arrays = read(file, key);
+
+	    if (arrays == null) {
+		misses.incrementAndGet();
+	    } else {
+		hits.incrementAndGet();
+		file.setLastModified(System.currentTimeMillis());
+	    }
+
+	    return arrays;
+
+	} catch (Exception e) {
+	    // Truncated or corrupt entries also throw runtime exceptions, such
+	    // as BufferUnderflowException
+	    System.err.println("When reading cache entry " + file);
+	    e.printStackTrace();
+
+	    misses.incrementAndGet();
+	    file.delete();
+	    return null;
+	}
+    }
+
+    /**
+     * Stores the arrays decoded from a source, replacing any previous entry
+     *
+     * @param key
+     * @param arrays
+     *            byte[], short[], int[], float[] or double[]
+     */
+    public void put(Key key, Object... arrays) {
+	if (!enabled) {
+	    return;
+	}
+
+	if (!directory.isDirectory() && !directory.mkdirs()) {
+	    System.err.println("Could not create cache directory " + directory);
+	    return;
+	}
+
+	File file = entryFile(key);
+	File temporary = null;
+
+	try {
+	    // Unique, as other processes may be putting the same key
+	    temporary = File.createTempFile(file.getName(), ".tmp", directory);
+	    write(temporary, key, arrays);
+
+	    // Readers never see a partial entry
+	    file.delete();
+	    if (!temporary.renameTo(file)) {
+		throw new IOException("Could not rename " + temporary);
+	    }
+
+	} catch (IOException e) {
+	    System.err.println("When writing cache entry " + file);
+	    e.printStackTrace();
+
+	    if (temporary != null) {
+		temporary.delete();
+	    }
+	    return;
+	}
+
+	evict();
+    }
+
+    /**
+     * Removes the least recently used entries, until the cache fits its
+     * maximum size
+     *
+     */
+    public synchronized void evict() {
+	File[] entries = entries();
+
+	long size = 0;
+	for (File entry : entries) {
+	    size += entry.length();
+	}
+
+	Arrays.sort(entries, new Comparator<File>() {
+	    public int compare(File one, File two) {
+		long delta = one.lastModified() - two.lastModified();
+		return delta < 0 ? -1 : (delta > 0 ? 1 : 0);
+	    }
+	});
+
+	for (int i = 0; i < entries.length && size > maxSize; i++) {
+	    long length = entries[i].length();
+	    if (entries[i].delete()) {
+		size -= length;
+		evictions.incrementAndGet();
+	    }
+	}
+    }
+
+    /**
+     * Removes all entries
+     *
+     */
+    public synchronized void clear() {
+	for (File entry : entries()) {
+	    entry.delete();
+	}
+    }
+
+    protected File[] entries() {
+	File[] entries = directory.listFiles();
+	if (entries == null) {
+	    return new File[0];
+	}
+
+	int count = 0;
+	for (File entry : entries) {
+	    if (entry.getName().endsWith(EXTENSION)) {
+		entries[count++] = entry;
+	    }
+	}
+
+	return Arrays.copyOf(entries, count);
+    }
+
+    protected File entryFile(Key key) {
+	String name = key.kind + "\u0000" + key.path;
+
+	// Two independent hashes, to make name clashes unlikely
+	CRC32 crc = new CRC32();
+	try {
+	    crc.update(name.getBytes("UTF-8"));
+	} catch (IOException e) {
+	    throw new RuntimeException(e);
+	}
+
+	return new File(directory, String.format("%08x%08x", name.hashCode(),
+		crc.getValue())
+		+ EXTENSION);
+    }
+
+    protected static Object[] read(File file, Key key) throws IOException {
+	RandomAccessFile in = new RandomAccessFile(file, "r");
+	try {
+	    FileChannel channel = in.getChannel();
+	    ByteBuffer buffer =
+		    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+	    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+	    for (int i = 0; i < MAGIC.length; i++) {
+		if (buffer.get() != MAGIC[i]) {
+		    throw new IOException("Magic " + new String(MAGIC)
+			    + " is missing");
+		}
+	    }
+
+	    Key stored =
+		    new Key(readString(buffer), readString(buffer), buffer
+			    .getLong(), buffer.getLong(), buffer.getLong());
+	    if (!stored.equals(key)) {
+		// Stale entry
+		return null;
+	    }
+
+	    Object[] arrays = new Object[buffer.getInt()];
+	    for (int i = 0; i < arrays.length; i++) {
+		byte type = buffer.get();
+		int length = buffer.getInt();
+
+		switch (type) {
+		case 'B':
+		    byte[] bytes = new byte[length];
+		    buffer.get(bytes);
+		    arrays[i] = bytes;
+		    break;
+		case 'S':
+		    short[] shorts = new short[length];
+		    buffer.asShortBuffer().get(shorts);
+		    arrays[i] = shorts;
+		    break;
+		case 'I':
+		    int[] ints = new int[length];
+		    buffer.asIntBuffer().get(ints);
+		    arrays[i] = ints;
+		    break;
+		case 'F':
+		    float[] floats = new float[length];
+		    buffer.asFloatBuffer().get(floats);
+		    arrays[i] = floats;
+		    break;
+		case 'D':
+		    double[] doubles = new double[length];
+		    buffer.asDoubleBuffer().get(doubles);
+		    arrays[i] = doubles;
+		    break;
+		default:
+		    throw new IOException("Unknown array type " + (char) type);
+		}
+
+		if (type != 'B') {
+		    buffer.position(buffer.position() + length * width(type));
+		}
+	    }
+
+	    return arrays;
+
+	} finally {
+	    in.close();
+	}
+    }
+
+    protected static void write(File file, Key key, Object[] arrays)
+	    throws IOException {
+
+	FileOutputStream out = new FileOutputStream(file);
+	try {
+	    FileChannel channel = out.getChannel();
+
+	    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+	    buffer.put(MAGIC);
+	    writeString(buffer, channel, key.kind);
+	    writeString(buffer, channel, key.path);
+	    buffer.putLong(key.size);
+	    buffer.putLong(key.lastModified);
+	    buffer.putLong(key.hash);
+	    buffer.putInt(arrays.length);
+
+	    for (Object array : arrays) {
+		byte type = type(array);
+		int length = java.lang.reflect.Array.getLength(array);
+
+		if (buffer.remaining() < 5) {
+		    flush(buffer, channel);
+		}
+		buffer.put(type);
+		buffer.putInt(length);
+
+		// Arrays are written in chunks that fit the buffer
+		int chunk = BUFFER_SIZE / 8;
+		for (int from = 0; from < length; from += chunk) {
+		    int count = Math.min(chunk, length - from);
+		    if (buffer.remaining() < count * width(type)) {
+			flush(buffer, channel);
+		    }
+
+		    switch (type) {
+		    case 'B':
+			buffer.put((byte[]) array, from, count);
+			break;
+		    case 'S':
+			buffer.asShortBuffer().put((short[]) array, from, count);
+			break;
+		    case 'I':
+			buffer.asIntBuffer().put((int[]) array, from, count);
+			break;
+		    case 'F':
+			buffer.asFloatBuffer().put((float[]) array, from, count);
+			break;
+		    case 'D':
+			buffer.asDoubleBuffer()
+				.put((double[]) array, from, count);
+			break;
+		    }
+
+		    if (type != 'B') {
+			buffer.position(buffer.position() + count * width(type));
+		    }
+		}
+	    }
+
+	    flush(buffer, channel);
+
+	} finally {
+	    out.close();
+	}
+    }
+
+    protected static byte type(Object array) {
+	if (array instanceof byte[]) {
+	    return 'B';
+	} else if (array instanceof short[]) {
+	    return 'S';
+	} else if (array instanceof int[]) {
+	    return 'I';
+	} else if (array instanceof float[]) {
+	    return 'F';
+	} else if (array instanceof double[]) {
+	    return 'D';
+	}
+
+	throw new IllegalArgumentException("Cannot cache "
+		+ array.getClass().getName());
+    }
+
+    protected static int width(byte type) {
+	switch (type) {
+	case 'S':
+	    return 2;
+	case 'I':
+	case 'F':
+	    return 4;
+	case 'D':
+	    return 8;
+	default:
+	    return 1;
+	}
+    }
+
+    protected static String readString(ByteBuffer buffer) throws IOException {
+	byte[] bytes = new byte[buffer.getInt()];
+	buffer.get(bytes);
+	return new String(bytes, "UTF-8");
+    }
+
+    protected static void writeString(ByteBuffer buffer, FileChannel channel,
+	    String string) throws IOException {
+	byte[] bytes = string.getBytes("UTF-8");
+	if (buffer.remaining() < 4 + bytes.length) {
+	    flush(buffer, channel);
+	}
+	buffer.putInt(bytes.length);
+	buffer.put(bytes);
+    }
+
+    protected static void flush(ByteBuffer buffer, FileChannel channel)
+	    throws IOException {
+	buffer.flip();
+	while (buffer.hasRemaining()) {
+	    channel.write(buffer);
+	}
+	buffer.clear();
+    }
+
+    public File getDirectory() {
+	return directory;
+    }
+
+    public long getMaxSize() {
+	return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+	this.maxSize = maxSize;
+    }
+
+    public boolean isEnabled() {
+	return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+	this.enabled = enabled;
+    }
+
+    public long getHits() {
+	return hits.get();
+    }
+
+    public long getMisses() {
+	return misses.get();
+    }
+
+    public long getEvictions() {
+	return evictions.get();
+    }
+
+    /**
+     * Gets the total size of the entries
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+	long size = 0;
+	for (File entry : entries()) {
+	    size += entry.length();
+	}
+	return size;
+    }
+}
@@ -0,0 +1,344 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A compact binary point cloud file, read through memory mappings so that
+ * clouds much larger than the heap can be sampled at random.
+ * <p>
+ * The file starts with a fixed size header: the magic "SOAMPCF1", a flags
+ * word (bit 0 is set if normals are present), the number of records and the
+ * bounding box of the vertices, as min x, y, z and max x, y, z doubles. Then
+ * come the records, one per point: x, y, z and, optionally, nx, ny, nz as
+ * floats. Everything is little-endian.
+ * <p>
+ * Files larger than 2GB are covered by several mappings, each holding a
+ * whole number of records.
+ */
+public class PointCloudFile {
+
+    public static final String EXTENSION = "pcf";
+
+    protected static final byte[] MAGIC = { 'S', 'O', 'A', 'M', 'P', 'C', 'F',
+	    '1' };
+
+    public static final int HEADER_SIZE = 8 + 4 + 8 + 6 * 8;
+
+    // Where the bounding box starts, within the header
+    protected static final int BOX_OFFSET = 8 + 4 + 8;
+
+    public static final int FLAG_NORMALS = 1;
+
+    /**
+     * Upper bound to the size of a single mapping
+     */
+    protected static final long MAX_MAPPING_SIZE = Integer.MAX_VALUE;
+
+    protected File file;
+
+    protected long size;
+    protected boolean normals;
+    protected int recordSize;
+
+    protected double[] min = new double[3];
+    protected double[] max = new double[3];
+
+    protected MappedByteBuffer[] mappings;
+    protected long recordsPerMapping;
+
+    /**
+     * Opens and maps a point cloud file
+     *
+     * @param file
+     * @throws IOException
+     */
+    public PointCloudFile(File file) throws IOException {
+	this.file = file;
+
+	RandomAccessFile in = new RandomAccessFile(file, "r");
+	try {
+	    FileChannel channel = in.getChannel();
+
+	    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+	    header.order(ByteOrder.LITTLE_ENDIAN);
+	    while (header.hasRemaining() && channel.read(header) >= 0)
+		;
+	    if (header.hasRemaining()) {
+		throw new IOException("Header is truncated");
+	    }
+	    header.flip();
+
+	    for (int i = 0; i < MAGIC.length; i++) {
+		if (header.get() != MAGIC[i]) {
+		    throw new IOException("Magic " + new String(MAGIC)
+			    + " is missing");
+		}
+	    }
+
+	    normals = (header.getInt() & FLAG_NORMALS) != 0;
+	    size = header.getLong();
+	    for (int d = 0; d < 3; d++) {
+		min[d] = header.getDouble();
+	    }
+	    for (int d = 0; d < 3; d++) {
+		max[d] = header.getDouble();
+	    }
+
+	    recordSize = (normals ? 6 : 3) * 4;
+	    if (channel.size() < HEADER_SIZE + size * recordSize) {
+		throw new IOException("File is truncated: " + size
+			+ " records expected");
+	    }
+
+	    // Records never straddle two mappings
+	    recordsPerMapping = MAX_MAPPING_SIZE / recordSize;
+	    int count = (int) ((size + recordsPerMapping - 1) / recordsPerMapping);
+
+	    mappings = new MappedByteBuffer[count];
+	    for (int m = 0; m < count; m++) {
+		long first = m * recordsPerMapping;
+		long records = Math.min(recordsPerMapping, size - first);
+
+		// Mappings remain valid after the channel is closed
+		mappings[m] =
+			channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE
+				+ first * recordSize, records * recordSize);
+		mappings[m].order(ByteOrder.LITTLE_ENDIAN);
+	    }
+
+	} finally {
+	    in.close();
+	}
+    }
+
+    public File getFile() {
+	return file;
+    }
+
+    /**
+     * Gets the number of points
+     *
+     * @return the number of records
+     */
+    public long size() {
+	return size;
+    }
+
+    public boolean hasNormals() {
+	return normals;
+    }
+
+    public double getMin(int d) {
+	return min[d];
+    }
+
+    public double getMax(int d) {
+	return max[d];
+    }
+
+    /**
+     * Reads the vertex of a record. Reads do not change the state of the
+     * mappings, hence can be performed concurrently.
+     *
+     * @param i
+     *            the record index
+     * @param vertex
+     *            at least 3 coordinates, overwritten
+     */
+    public void getVertex(long i, double[] vertex) {
+	MappedByteBuffer mapping = mappings[(int) (i / recordsPerMapping)];
+	int offset = (int) (i % recordsPerMapping) * recordSize;
+
+	vertex[0] = mapping.getFloat(offset);
+	vertex[1] = mapping.getFloat(offset + 4);
+	vertex[2] = mapping.getFloat(offset + 8);
+    }
+
+    /**
+     * Reads the normal of a record
+     *
+     * @param i
+     *            the record index
+     * @param normal
+     *            at least 3 coordinates, overwritten
+     */
+    public void getNormal(long i, double[] normal) {
+	if (!normals) {
+	    throw new IllegalStateException("File " + file + " has no normals");
+	}
+
+	MappedByteBuffer mapping = mappings[(int) (i / recordsPerMapping)];
+	int offset = (int) (i % recordsPerMapping) * recordSize;
+
+	normal[0] = mapping.getFloat(offset + 12);
+	normal[1] = mapping.getFloat(offset + 16);
+	normal[2] = mapping.getFloat(offset + 20);
+    }
+
+    protected static void putHeader(ByteBuffer buffer, boolean normals,
+	    long size, double[] min, double[] max) {
+	buffer.put(MAGIC);
+	buffer.putInt(normals ? FLAG_NORMALS : 0);
+	buffer.putLong(size);
+	putBox(buffer, min, max);
+    }
+
+    protected static void putBox(ByteBuffer buffer, double[] min, double[] max) {
+	for (int d = 0; d < 3; d++) {
+	    buffer.putDouble(min[d]);
+	}
+	for (int d = 0; d < 3; d++) {
+	    buffer.putDouble(max[d]);
+	}
+    }
+
+    protected static void flush(ByteBuffer buffer, FileChannel channel)
+	    throws IOException {
+	buffer.flip();
+	while (buffer.hasRemaining()) {
+	    channel.write(buffer);
+	}
+	buffer.clear();
+    }
+
+    /**
+     * Converts a PLY file, keeping normals if present. The conversion goes
+     * to a temporary file in the same directory, renamed when complete, so
+     * that an interrupted conversion never leaves a truncated file behind.
+     *
+     * @param ply
+     * @param file
+     * @throws IOException
+     */
+    public static void convert(File ply, File file) throws IOException {
+	File temporary =
+		File.createTempFile(file.getName(), ".tmp", file
+			.getAbsoluteFile().getParentFile());
+
+	try {
+	    stream(ply, temporary);
+
+	    file.delete();
+	    if (!temporary.renameTo(file)) {
+		throw new IOException("Could not rename " + temporary);
+	    }
+
+	} finally {
+	    temporary.delete();
+	}
+    }
+
+    /**
+     * Streams the vertices from a PLY file to a new point cloud file, so
+     * that neither has to fit in memory; the bounding box is written last,
+     * once it is known.
+     */
+    protected static void stream(File ply, File file) throws IOException {
+	PLYVertexStream in = new PLYVertexStream(ply);
+	try {
+	    RandomAccessFile out = new RandomAccessFile(file, "rw");
+	    try {
+		FileChannel channel = out.getChannel();
+
+		boolean normals = in.hasNormals();
+		long size = in.size();
+
+		double[] min =
+			{ Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		double[] max =
+			{ -Double.MAX_VALUE, -Double.MAX_VALUE,
+				-Double.MAX_VALUE };
+
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		// The bounding box is not known yet
+		putHeader(buffer, normals, size, min, max);
+
+		float[] vertex = new float[3];
+		float[] normal = new float[3];
+		for (long i = 0; i < size; i++) {
+		    in.next(vertex, normal);
+
+		    if (buffer.remaining() < 24) {
+			flush(buffer, channel);
+		    }
+
+		    for (int d = 0; d < 3; d++) {
+			min[d] = Math.min(min[d], vertex[d]);
+			max[d] = Math.max(max[d], vertex[d]);
+			buffer.putFloat(vertex[d]);
+		    }
+
+		    if (normals) {
+			buffer.putFloat(normal[0]);
+			buffer.putFloat(normal[1]);
+			buffer.putFloat(normal[2]);
+		    }
+		}
+
+		flush(buffer, channel);
+
+		ByteBuffer box = ByteBuffer.allocate(6 * 8);
+		box.order(ByteOrder.LITTLE_ENDIAN);
+		putBox(box, min, max);
+		box.flip();
+
+		long position = BOX_OFFSET;
+		while (box.hasRemaining()) {
+		    position += channel.write(box, position);
+		}
+
+	    } finally {
+		out.close();
+	    }
+	} finally {
+	    in.close();
+	}
+    }
+
+    /**
+     * Converts a PLY file
+     *
+     * @param args
+     *            input.ply output.pcf
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+	if (args.length < 2) {
+	    System.err.println("Usage: PointCloudFile input.ply output."
+		    + EXTENSION);
+	    return;
+	}
+
+	convert(new File(args[0]), new File(args[1]));
+
+	PointCloudFile cloud = new PointCloudFile(new File(args[1]));
+	System.out.println("Point cloud " + args[1] + " successfully written: "
+		+ cloud.size() + " points"
+		+ (cloud.hasNormals() ? ", with normals." : "."));
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.utils;
+
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Pixel kernels for 16-bit grayscale rasters. Kernels work directly on the
+ * short[] backing a DataBufferUShort, rather than going through
+ * Raster.getSampleDouble() and setSample() for every pixel. Large rasters are
+ * split into bands of rows, which are processed by a shared pool of threads.
+ * <p>
+ * Results are identical to the per-pixel versions: values are computed in
+ * double precision and truncated, as WritableRaster.setSample() does.
+ */
+public class RasterKernels {
+
+    /**
+     * Rasters with fewer pixels than this are processed on the calling thread
+     */
+    public static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    protected static final int THREADS =
+	    Runtime.getRuntime().availableProcessors();
+
+    protected static ExecutorService pool;
+
+    /**
+     * Gets the pixels of a raster with the plain layout of TYPE_USHORT_GRAY
+     * images: one band, one sample per pixel and no padding
+     *
+     * @param raster
+     * @return the backing array
+     */
+    public static short[] ushortPixels(Raster raster) {
+	if (!(raster.getDataBuffer() instanceof DataBufferUShort)
+		|| !(raster.getSampleModel() instanceof ComponentSampleModel)
+		|| raster.getNumBands() != 1) {
+	    throw new IllegalArgumentException(
+		    "Raster is not a single band DataBufferUShort raster");
+	}
+
+	ComponentSampleModel sampleModel =
+		(ComponentSampleModel) raster.getSampleModel();
+	DataBufferUShort dataBuffer = (DataBufferUShort) raster.getDataBuffer();
+
+	if (sampleModel.getPixelStride() != 1
+		|| sampleModel.getScanlineStride() != raster.getWidth()
+		|| dataBuffer.getOffset() != 0
+		|| raster.getSampleModelTranslateX() != 0
+		|| raster.getSampleModelTranslateY() != 0) {
+	    throw new IllegalArgumentException(
+		    "Raster layout is not contiguous");
+	}
+
+	return dataBuffer.getData();
+    }
+
+    /**
+     * Exponential smoothing: s = weightNew * d + weightOld * s, for every
+     * pixel
+     *
+     * @param smoothed
+     *            the smoothed values, updated in place
+     * @param current
+     *            the current values
+     * @param width
+     *            the raster width, used to split rows into bands
+     * @param weightNew
+     * @param weightOld
+     */
+    public static void exponentialSmoothing(final short[] smoothed,
+	    final short[] current, int width, final double weightNew,
+	    final double weightOld) {
+
+	forEachBand(smoothed.length, width, new Band() {
+	    public void run(int from, int to) {
+		for (int i = from; i < to; i++) {
+		    double s = smoothed[i] & 0xffff;
+		    double d = current[i] & 0xffff;
+
+		    smoothed[i] = (short) (int) (weightNew * d + weightOld * s);
+		}
+	    }
+	});
+    }
+
+    /**
+     * Exponential smoothing, discarding pixels whose reflectance is below
+     * threshold. Pixels that were discarded on the previous frame restart
+     * from (2 - alpha) * d.
+     *
+     * @param smoothed
+     *            the smoothed values, updated in place
+     * @param distance
+     * @param reflectance
+     * @param width
+     *            the raster width, used to split rows into bands
+     * @param alpha
+     * @param threshold
+     */
+    public static void exponentialSmoothingWithReflectanceThreshold(
+	    final short[] smoothed, final short[] distance,
+	    final short[] reflectance, int width, final double alpha,
+	    final double threshold) {
+
+	forEachBand(smoothed.length, width, new Band() {
+	    public void run(int from, int to) {
+		for (int i = from; i < to; i++) {
+		    double s = smoothed[i] & 0xffff;
+		    double d = distance[i] & 0xffff;
+		    double r = reflectance[i] & 0xffff;
+
+		    if (r < threshold) {
+			s = 0d;
+		    } else if (s == 0d) {
+			s = (2 - alpha) * d;
+		    } else {
+			s = alpha * d + (1 - alpha) * s;
+		    }
+
+		    smoothed[i] = (short) (int) s;
+		}
+	    }
+	});
+    }
+
+    /**
+     * Sets to zero all pixels whose reflectance is below threshold
+     *
+     * @param distance
+     *            the distance values, updated in place
+     * @param reflectance
+     * @param width
+     *            the raster width, used to split rows into bands
+     * @param threshold
+     */
+    public static void reflectanceThreshold(final short[] distance,
+	    final short[] reflectance, int width, final double threshold) {
+
+	forEachBand(distance.length, width, new Band() {
+	    public void run(int from, int to) {
+		for (int i = from; i < to; i++) {
+		    if ((reflectance[i] & 0xffff) < threshold) {
+			distance[i] = 0;
+		    }
+		}
+	    }
+	});
+    }
+
+    /**
+     * A range of pixels to be processed
+     */
+    protected interface Band {
+	public void run(int from, int to);
+    }
+
+    /**
+     * Splits the pixels into bands of whole rows, one per thread, and waits for
+     * all of them to complete
+     */
+    protected static void forEachBand(int pixels, int width, final Band band) {
+	if (pixels < PARALLEL_THRESHOLD || THREADS == 1 || width <= 0) {
+	    band.run(0, pixels);
+	    return;
+	}
+
+	int rows = (pixels + width - 1) / width;
+	int rowsPerBand = (rows + THREADS - 1) / THREADS;
+
+	List<Future<Object>> futures = new ArrayList<Future<Object>>();
+	for (int row = 0; row < rows; row += rowsPerBand) {
+	    final int from = row * width;
+	    final int to = Math.min(pixels, (row + rowsPerBand) * width);
+
+	    futures.add(pool().submit(new Callable<Object>() {
+		public Object call() {
+		    band.run(from, to);
+		    return null;
+		}
+	    }));
+	}
+
+	try {
+	    for (Future<Object> future : futures) {
+		future.get();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new RuntimeException(e);
+	} catch (ExecutionException e) {
+	    throw new RuntimeException(e.getCause());
+	}
+    }
+
+    protected static synchronized ExecutorService pool() {
+	if (pool == null) {
+	    pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+		    Thread thread = new Thread(runnable, "RasterKernels worker");
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    });
+	}
+
+	return pool;
+    }
+
+}
@@ -18,9 +18,12 @@
 package soam.utils;
 
 import java.io.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
-import java.awt.image.WritableRaster;
 
 public class TOFSequenceFilter {
     public static final String PREFIX = "filtered_";
@@ -36,28 +39,36 @@ public class TOFSequenceFilter {
 
 	File[] imageFiles = directory.listFiles(filter);
 
-	BufferedImage referenceImage = PGMImageIO.read(imageFiles[0]);
-	PGMImageIO.write(referenceImage, new File(directory, PREFIX
-		+ imageFiles[0].getName()));
+	// Filtered images are written in the same format as the originals
+	boolean binary = PGMImageIO.isBinary(imageFiles[0]);
 
-	WritableRaster referenceRaster = referenceImage.getRaster();
+	// Frame i + 1 is decoded while frame i is being filtered
+	ExecutorService loader = Executors.newSingleThreadExecutor();
+	try {
+	    BufferedImage referenceImage = PGMImageIO.read(imageFiles[0]);
+	    Future<BufferedImage[]> next = read(loader, imageFiles, null, 1);
 
-	for (int i = 1; i < imageFiles.length; i++) {
-	    Raster currentRaster = PGMImageIO.read(imageFiles[i]).getRaster();
+	    PGMImageIO.write(referenceImage, new File(directory, PREFIX
+		    + imageFiles[0].getName()), binary);
 
-	    for (int x = 0; x < referenceRaster.getWidth(); x++) {
-		for (int y = 0; y < referenceRaster.getHeight(); y++) {
-		    double s = referenceRaster.getSampleDouble(x, y, 0);
-		    double d = currentRaster.getSampleDouble(x, y, 0);
+	    int width = referenceImage.getWidth();
+	    short[] reference =
+		    RasterKernels.ushortPixels(referenceImage.getRaster());
 
-		    s = alpha * d + (1 - alpha) * s;
+	    for (int i = 1; i < imageFiles.length; i++) {
+		BufferedImage[] images = await(next);
+		next = read(loader, imageFiles, null, i + 1);
 
-		    referenceRaster.setSample(x, y, 0, s);
-		}
-	    }
+		short[] current = RasterKernels.ushortPixels(images[0].getRaster());
 
-	    PGMImageIO.write(referenceImage, new File(directory, PREFIX
-		    + imageFiles[i].getName()));
+		RasterKernels.exponentialSmoothing(reference, current, width,
+			alpha, 1 - alpha);
+
+		PGMImageIO.write(referenceImage, new File(directory, PREFIX
+			+ imageFiles[i].getName()), binary);
+	    }
+	} finally {
+	    loader.shutdownNow();
 	}
     }
 
@@ -81,57 +92,94 @@ public class TOFSequenceFilter {
 
 	File[] reflectanceImageFiles = directory.listFiles(reflectanceFilter);
 
-	BufferedImage referenceImage = PGMImageIO.read(distanceImageFiles[0]);
-	PGMImageIO.write(referenceImage, new File(directory, PREFIX
-		+ distanceImageFiles[0].getName()));
+	// Filtered images are written in the same format as the originals
+	boolean binary = PGMImageIO.isBinary(distanceImageFiles[0]);
 
-	WritableRaster referenceRaster = referenceImage.getRaster();
-	// Filter out pixels with reflectance below threshold
-	{
-	    Raster reflectanceRaster =
-		    PGMImageIO.read(reflectanceImageFiles[0]).getRaster();
+	// Frame i + 1 is decoded while frame i is being filtered
+	ExecutorService loader = Executors.newSingleThreadExecutor();
+	try {
+	    Future<BufferedImage[]> next =
+		    read(loader, distanceImageFiles, reflectanceImageFiles, 0);
 
-	    for (int x = 0; x < referenceRaster.getWidth(); x++) {
-		for (int y = 0; y < referenceRaster.getHeight(); y++) {
-		    double r = reflectanceRaster.getSampleDouble(x, y, 0);
+	    BufferedImage[] images = await(next);
+	    next = read(loader, distanceImageFiles, reflectanceImageFiles, 1);
 
-		    if (r < threshold) {
-			referenceRaster.setSample(x, y, 0, 0d);
-		    }
-		}
-	    }
+	    BufferedImage referenceImage = images[0];
+	    PGMImageIO.write(referenceImage, new File(directory, PREFIX
+		    + distanceImageFiles[0].getName()), binary);
+
+	    int width = referenceImage.getWidth();
+	    short[] reference =
+		    RasterKernels.ushortPixels(referenceImage.getRaster());
+
+	    // Filter out pixels with reflectance below threshold
+	    RasterKernels.reflectanceThreshold(reference, RasterKernels
+		    .ushortPixels(images[1].getRaster()), width, threshold);
 
 	    PGMImageIO.write(referenceImage, new File(directory, PREFIX
-		    + distanceImageFiles[0].getName()));
-	}
+		    + distanceImageFiles[0].getName()), binary);
+
+	    for (int i = 1; i < distanceImageFiles.length; i++) {
+		images = await(next);
+		next =
+			read(loader, distanceImageFiles,
+				reflectanceImageFiles, i + 1);
 
-	for (int i = 1; i < distanceImageFiles.length; i++) {
-	    Raster distanceRaster =
-		    PGMImageIO.read(distanceImageFiles[i]).getRaster();
+		short[] distance =
+			RasterKernels.ushortPixels(images[0].getRaster());
+		short[] reflectance =
+			RasterKernels.ushortPixels(images[1].getRaster());
 
-	    Raster reflectanceRaster =
-		    PGMImageIO.read(reflectanceImageFiles[i]).getRaster();
+		RasterKernels.exponentialSmoothingWithReflectanceThreshold(
+			reference, distance, reflectance, width, alpha,
+			threshold);
 
-	    for (int x = 0; x < referenceRaster.getWidth(); x++) {
-		for (int y = 0; y < referenceRaster.getHeight(); y++) {
-		    double s = referenceRaster.getSampleDouble(x, y, 0);
-		    double d = distanceRaster.getSampleDouble(x, y, 0);
-		    double r = reflectanceRaster.getSampleDouble(x, y, 0);
+		PGMImageIO.write(referenceImage, new File(directory, PREFIX
+			+ distanceImageFiles[i].getName()), binary);
+	    }
+	} finally {
+	    loader.shutdownNow();
+	}
+    }
 
-		    if (r < threshold) {
-			s = 0d;
-		    } else if (s == 0d) {
-			s = (2 - alpha) * d;
-		    } else {
-			s = alpha * d + (1 - alpha) * s;
-		    }
+    /**
+     * Schedules the decoding of a frame, if any
+     *
+     * @return the distance (and reflectance) images, or null past the end
+     */
+    protected static Future<BufferedImage[]> read(ExecutorService loader,
+	    final File[] distanceFiles, final File[] reflectanceFiles,
+	    final int i) {
+
+	if (i >= distanceFiles.length) {
+	    return null;
+	}
 
-		    referenceRaster.setSample(x, y, 0, s);
+	return loader.submit(new Callable<BufferedImage[]>() {
+	    public BufferedImage[] call() throws IOException {
+		BufferedImage[] images = new BufferedImage[2];
+		images[0] = PGMImageIO.read(distanceFiles[i]);
+		if (reflectanceFiles != null) {
+		    images[1] = PGMImageIO.read(reflectanceFiles[i]);
 		}
+		return images;
 	    }
+	});
+    }
 
-	    PGMImageIO.write(referenceImage, new File(directory, PREFIX
-		    + distanceImageFiles[i].getName()));
+    protected static BufferedImage[] await(Future<BufferedImage[]> future)
+	    throws IOException {
+	try {
+	    return future.get();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException();
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof IOException) {
+		throw (IOException) e.getCause();
+	    } else {
+		throw new IOException(e.getCause());
+	    }
 	}
     }
 
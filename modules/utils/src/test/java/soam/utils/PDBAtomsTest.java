@@ -0,0 +1,72 @@
+/**
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package soam.utils;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+/**
+ * Parses atom records whose element columns 77-78 are blank, as in older PDB
+ * files, so that the element comes from the atom name
+ */
+public class PDBAtomsTest {
+
+    protected static PDBAtoms parse(String... lines) throws IOException {
+	StringBuilder builder = new StringBuilder();
+	for (String line : lines) {
+	    builder.append(line).append('\n');
+	}
+
+	return PDBAtoms.parse(new ByteArrayInputStream(builder.toString()
+		.getBytes("US-ASCII")));
+    }
+
+    @Test
+    public void fourCharacterHydrogenNames() throws IOException {
+	PDBAtoms atoms =
+		parse("ATOM   1001 HG21 THR A  58      12.420  -3.100   7.250  1.00  0.00",
+			"ATOM   1002 HD11 LEU A  59      13.880  -1.520   6.010  1.00  0.00",
+			"ATOM   1003 HE21 GLN A  60      10.310   0.270   4.900  1.00  0.00",
+			"ATOM   1004 1HG2 VAL A  61       9.870   1.640   3.180  1.00  0.00");
+
+	assertEquals(atoms.size(), 4);
+	for (int i = 0; i < atoms.size(); i++) {
+	    assertEquals(atoms.getElement(i), Element.H);
+	}
+	assertEquals(atoms.getRadius(0), Element.H.getRadius());
+    }
+
+    @Test
+    public void shortNames() throws IOException {
+	PDBAtoms atoms =
+		parse("ATOM      2  CA  THR A  58      11.104  -2.215   6.570  1.00  0.00",
+			"HETATM 2001 HG    HG A 101       5.000   5.000   5.000  1.00  0.00",
+			"HETATM 2002 FE   HEM A 102       6.000   6.000   6.000  1.00  0.00",
+			"ATOM      5  HG1 THR A  58      10.000  -2.000   6.000  1.00  0.00");
+
+	assertEquals(atoms.getElement(0), Element.C);
+	assertEquals(atoms.getElement(1), Element.HG);
+	assertEquals(atoms.getElement(2), Element.FE);
+	assertEquals(atoms.getElement(3), Element.H);
+	assertEquals(atoms.positions[3], 5d);
+    }
+}